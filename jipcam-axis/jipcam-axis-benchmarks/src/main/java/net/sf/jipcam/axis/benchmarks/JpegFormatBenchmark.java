@@ -0,0 +1,83 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jipcam.axis.JpegFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time to find the end of one corpus JPEG: byte at a time from a stream
+ * with getEndOfSeqeunce(), and in an array with findMarker() and the marker
+ * walking getEndOfImage().
+ *
+ * @author Jason Thrasher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegFormatBenchmark {
+	private byte[] mJpeg;
+	private ByteArrayInputStream mBytes;
+	private DataInputStream mIn;
+
+	@Setup
+	public void setUp() throws IOException {
+		mJpeg = MjpegCorpus.getJpegs()[0];
+		mBytes = new ByteArrayInputStream(mJpeg);
+		mIn = new DataInputStream(mBytes);
+	}
+
+	@Benchmark
+	public int getEndOfSeqeunce() throws IOException {
+		mBytes.reset();
+
+		return JpegFormat.getEndOfSeqeunce(mIn, JpegFormat.EOF_MARKER);
+	}
+
+	@Benchmark
+	public int findMarker() {
+		return JpegFormat.findMarker(mJpeg, 2, mJpeg.length,
+			JpegFormat.EOF_MARKER);
+	}
+
+	@Benchmark
+	public int getEndOfImage() {
+		return JpegFormat.getEndOfImage(mJpeg, 0, mJpeg.length);
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GradientPaint;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Synthetic MJPEG streams for the benchmarks.  The frames are real JPEGs at
+ * the Axis 2100's 352x240 resolution, drawn from a fixed seed, so every run
+ * and every version measures the same bytes.
+ *
+ * The build writes the corpus to target/corpus with main().  The benchmarks
+ * read it from the directory named by the "jipcam.corpus" system property,
+ * or from target/corpus, and generate it in memory if it isn't there.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegCorpus {
+	/**
+	 * Stream whose frame headers carry a Content-Length.
+	 */
+	public static final String CONTENT_LENGTH = "content-length.mjpeg";
+
+	/**
+	 * Stream whose frame headers have no Content-Length, so parsers must
+	 * search each JPEG for its end.
+	 */
+	public static final String NO_CONTENT_LENGTH = "no-content-length.mjpeg";
+
+	/**
+	 * Count of frames in each stream.
+	 */
+	public static final int FRAME_COUNT = 50;
+
+	public static final int WIDTH = 352;
+	public static final int HEIGHT = 240;
+
+	private static final long SEED = 20080101L; //same frames on every run
+	private static final String CORPUS_PROPERTY = "jipcam.corpus";
+	private static final String CORPUS_DIR = "target/corpus";
+
+	private static byte[][] mJpegs; //generated frames, shared by the benchmarks
+
+	/**
+	 * Write the corpus to a directory.
+	 *
+	 * @param args the directory, which defaults to target/corpus
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File((args.length > 0) ? args[0] : CORPUS_DIR);
+		dir.mkdirs();
+		write(new File(dir, CONTENT_LENGTH), createMjpeg(true));
+		write(new File(dir, NO_CONTENT_LENGTH), createMjpeg(false));
+		System.out.println("wrote " + FRAME_COUNT + " frame MJPEG corpus to " +
+			dir.getAbsolutePath());
+	}
+
+	/**
+	 * Load one of the corpus streams, generating it if it wasn't written by
+	 * the build.
+	 *
+	 * @param name CONTENT_LENGTH or NO_CONTENT_LENGTH
+	 * @return the stream's bytes
+	 */
+	public static byte[] load(String name) throws IOException {
+		File file = new File(System.getProperty(CORPUS_PROPERTY, CORPUS_DIR),
+				name);
+
+		if (file.isFile()) {
+			byte[] bytes = new byte[(int) file.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+			try {
+				in.readFully(bytes);
+			} finally {
+				in.close();
+			}
+
+			return bytes;
+		}
+
+		return createMjpeg(CONTENT_LENGTH.equals(name));
+	}
+
+	/**
+	 * @return the JPEG of each frame in the corpus
+	 */
+	public static synchronized byte[][] getJpegs() throws IOException {
+		if (mJpegs == null) {
+			Random random = new Random(SEED);
+			byte[][] jpegs = new byte[FRAME_COUNT][];
+
+			for (int i = 0; i < jpegs.length; i++) {
+				jpegs[i] = createJpeg(random, i);
+			}
+
+			mJpegs = jpegs;
+		}
+
+		return mJpegs;
+	}
+
+	/**
+	 * Create an MJPEG stream of the corpus frames, framed like an Axis 2100.
+	 *
+	 * @param isContentLength true to give each frame a Content-Length
+	 * @return the stream's bytes
+	 */
+	public static byte[] createMjpeg(boolean isContentLength)
+		throws IOException {
+		byte[][] jpegs = getJpegs();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (int i = 0; i < jpegs.length; i++) {
+			StringBuffer header = new StringBuffer(100);
+			header.append("\r\n\r\n--myboundary\r\nContent-Type: image/jpeg\r\n");
+
+			if (isContentLength) {
+				header.append("Content-Length: ").append(jpegs[i].length)
+					  .append("\r\n");
+			}
+
+			header.append("\r\n");
+			out.write(header.toString().getBytes("ISO-8859-1"));
+			out.write(jpegs[i]);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Draw a frame: a gradient, with a few moving blocks and some noise, so
+	 * the JPEG is about the size of a real camera frame.
+	 */
+	private static byte[] createJpeg(Random random, int index)
+		throws IOException {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+
+		g.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, WIDTH, HEIGHT,
+				Color.LIGHT_GRAY));
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+
+		for (int i = 0; i < 8; i++) {
+			g.setColor(new Color(random.nextInt(0x1000000)));
+			g.fillRect(((index * 4) + random.nextInt(WIDTH)) % WIDTH,
+				random.nextInt(HEIGHT), 16 + random.nextInt(64),
+				16 + random.nextInt(64));
+		}
+
+		g.setColor(Color.WHITE);
+		g.drawString("jipCam frame " + index, 8, HEIGHT - 8);
+		g.dispose();
+
+		for (int i = 0; i < (WIDTH * HEIGHT) / 8; i++) {
+			image.setRGB(random.nextInt(WIDTH), random.nextInt(HEIGHT),
+				random.nextInt(0x1000000));
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", out);
+
+		return out.toByteArray();
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+}
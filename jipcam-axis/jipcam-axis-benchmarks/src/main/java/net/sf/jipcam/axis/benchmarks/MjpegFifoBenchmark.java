@@ -0,0 +1,112 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jipcam.axis.MjpegFifo;
+import net.sf.jipcam.axis.MjpegFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+
+/**
+ * Frames per second handed from a parser thread to a consumer thread
+ * through an MjpegFifo, for each overflow policy.
+ *
+ * The harness stops the two threads independently, so neither may block
+ * for good: the consumer polls, and with the BLOCK policy the producer
+ * waits for room before adding, which it can do because it is the only
+ * producer.
+ *
+ * @author Jason Thrasher
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MjpegFifoBenchmark {
+	private static final long POLL_MILLIS = 10;
+
+	@Param({ "0", "1", "2", "3" })
+	public int policy;
+
+	@Param({ "16" })
+	public int size;
+
+	private MjpegFifo mFifo;
+	private MjpegFrame mFrame;
+
+	@Setup
+	public void setUp() throws IOException {
+		mFifo = new MjpegFifo(size, policy);
+		mFrame = new MjpegFrame(MjpegCorpus.getJpegs()[0], 0);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public boolean add(Control control) {
+		if (policy == MjpegFifo.BLOCK) {
+			while (mFifo.isFull()) {
+				if (control.stopMeasurement) {
+					return false;
+				}
+
+				Thread.yield();
+			}
+		}
+
+		return mFifo.addMjpegFrame(mFrame);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public MjpegFrame take(Control control) throws InterruptedException {
+		MjpegFrame frame;
+
+		while ((frame = mFifo.pollMjpegFrame(POLL_MILLIS)) == null) {
+			if (control.stopMeasurement) {
+				return null;
+			}
+		}
+
+		frame.release();
+
+		return frame;
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jipcam.axis.JpegFormat;
+import net.sf.jipcam.axis.MjpegFormat;
+import net.sf.jipcam.axis.MjpegHeader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time to parse the Content-Length of a corpus frame header, from an array,
+ * in place from a buffer, and through an MjpegHeader view.
+ *
+ * @author Jason Thrasher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MjpegFormatBenchmark {
+	private byte[] mHeader;
+	private ByteBuffer mHeaderBuffer;
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] corpus = MjpegCorpus.load(MjpegCorpus.CONTENT_LENGTH);
+		int length = JpegFormat.findMarker(corpus, 0, corpus.length,
+				JpegFormat.SOI_MARKER);
+
+		mHeader = new byte[length];
+		System.arraycopy(corpus, 0, mHeader, 0, length);
+		mHeaderBuffer = ByteBuffer.wrap(mHeader);
+	}
+
+	@Benchmark
+	public int parseContentLengthArray() throws IOException {
+		return MjpegFormat.parseContentLength(mHeader);
+	}
+
+	@Benchmark
+	public int parseContentLengthBuffer() {
+		return MjpegFormat.parseContentLength(mHeaderBuffer, 0, mHeader.length);
+	}
+
+	@Benchmark
+	public int headerContentLength() {
+		return new MjpegHeader(mHeaderBuffer, 0, mHeader.length).getContentLength();
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.awt.Image;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jipcam.axis.MjpegFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time to copy the JPEG out of a corpus frame, and to decode it.
+ *
+ * @author Jason Thrasher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MjpegFrameBenchmark {
+	private MjpegFrame mFrame;
+
+	@Setup
+	public void setUp() throws IOException {
+		mFrame = new MjpegFrame(MjpegCorpus.getJpegs()[0], 0);
+	}
+
+	@Benchmark
+	public byte[] getJpegBytes() {
+		return mFrame.getJpegBytes();
+	}
+
+	@Benchmark
+	public Image getImage() {
+		return mFrame.getImage();
+	}
+}
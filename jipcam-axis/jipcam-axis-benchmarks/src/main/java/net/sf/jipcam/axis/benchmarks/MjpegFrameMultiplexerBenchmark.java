@@ -0,0 +1,116 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jipcam.axis.MjpegFifo;
+import net.sf.jipcam.axis.MjpegFrame;
+import net.sf.jipcam.axis.MjpegFrameMultiplexer;
+import net.sf.jipcam.axis.MjpegParserEvent;
+import net.sf.jipcam.axis.MjpegParserListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time for the parser thread to deliver one frame to many listeners, called
+ * directly or through a queue per listener.  With queues, only the parser's
+ * side is measured; listeners fall behind by dropping their oldest frames.
+ *
+ * @author Jason Thrasher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MjpegFrameMultiplexerBenchmark {
+	private static final int QUEUE_SIZE = 64;
+
+	@Param({ "1", "4", "16" })
+	public int listeners;
+
+	@Param({ "false", "true" })
+	public boolean queued;
+
+	private MjpegFrameMultiplexer mMuxer;
+	private MjpegParserEvent mEvent;
+	private ExecutorService mExecutor;
+
+	@Setup
+	public void setUp() throws IOException {
+		mMuxer = new MjpegFrameMultiplexer();
+		mEvent = new MjpegParserEvent(this,
+				new MjpegFrame(MjpegCorpus.getJpegs()[0], 0));
+
+		if (queued) {
+			mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime()
+																.availableProcessors());
+		}
+
+		for (int i = 0; i < listeners; i++) {
+			if (queued) {
+				mMuxer.addMjpegParserListener(new Sink(), QUEUE_SIZE,
+					MjpegFifo.DROP_OLDEST, mExecutor);
+			} else {
+				mMuxer.addMjpegParserListener(new Sink());
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (mExecutor != null) {
+			mExecutor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public void notifyListeners() {
+		mMuxer.notifyListeners(mEvent);
+	}
+
+	/**
+	 * Listener that only touches the frame.
+	 */
+	private static class Sink implements MjpegParserListener {
+		private long mBytes;
+
+		public void onMjpegParserEvent(MjpegParserEvent event) {
+			mBytes += event.getMjpegFrame().getLength();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jipcam.axis.MjpegFrame;
+import net.sf.jipcam.axis.MjpegFramePool;
+import net.sf.jipcam.axis.MjpegInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Frames per second through MjpegInputStream.readMjpegFrame(), for streams
+ * with and without a Content-Length in each frame header.  Without it, the
+ * end of each JPEG is found by scanning its markers.
+ *
+ * @author Jason Thrasher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MjpegInputStreamBenchmark {
+	@Param({ "true", "false" })
+	public boolean contentLength;
+
+	@Param({ "false", "true" })
+	public boolean pooled;
+
+	private byte[] mCorpus;
+	private MjpegFramePool mPool;
+
+	@Setup
+	public void setUp() throws IOException {
+		mCorpus = MjpegCorpus.load(contentLength ? MjpegCorpus.CONTENT_LENGTH
+												 : MjpegCorpus.NO_CONTENT_LENGTH);
+		mPool = pooled ? new MjpegFramePool() : null;
+	}
+
+	/**
+	 * Read every frame of the corpus; the score is frames per second.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MjpegCorpus.FRAME_COUNT)
+	public void readMjpegFrame(Blackhole bh) throws IOException {
+		MjpegInputStream in = new MjpegInputStream(new ByteArrayInputStream(
+					mCorpus));
+		in.setFramePool(mPool);
+
+		for (int i = 0; i < MjpegCorpus.FRAME_COUNT; i++) {
+			MjpegFrame frame = in.readMjpegFrame();
+			bh.consume(frame.getLength());
+			frame.release();
+		}
+	}
+}
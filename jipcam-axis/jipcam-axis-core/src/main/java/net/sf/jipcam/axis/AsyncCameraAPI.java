@@ -0,0 +1,314 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Asynchronous calls of a CameraAPI.  Each call is run on an executor, and
+ * returns a Future of its result at once; a Callback, if given, is called
+ * with the result or the failure when the call is done.  A fleet of cameras
+ * can then be walked by starting a call on every camera and collecting the
+ * results, instead of waiting on each camera in turn.
+ *
+ * The calls still block a thread of the executor while the camera answers,
+ * so the calls in flight are bounded by the executor's threads, and by the
+ * connections of the CameraConnections pools.  By default the calls of every
+ * AsyncCameraAPI share a pool of SHARED_THREADS daemon threads.
+ *
+ * MJPEG streams are better read without a thread each, by adding the camera
+ * to a MjpegIngestEngine, whose listeners are called with each frame.
+ *
+ * Callbacks are called on the executor's thread, so they must return quickly.
+ *
+ * @author Jason Thrasher
+ */
+public class AsyncCameraAPI {
+	/**
+	 * Threads of the executor shared by default.
+	 */
+	public static final int SHARED_THREADS = 64;
+
+	private static Logger mLog = LogManager.getLogger(AsyncCameraAPI.class);
+
+	private static Executor mSharedExecutor; //calls of every api, by default
+
+	private CameraAPI mApi;
+	private Executor mExecutor;
+
+	/**
+	 * Call a camera on the shared executor.
+	 *
+	 * @param api of the camera
+	 */
+	public AsyncCameraAPI(CameraAPI api) {
+		this(api, null);
+	}
+
+	/**
+	 * Call a camera on an executor.
+	 *
+	 * @param api of the camera
+	 * @param executor of the calls, or null for the shared one
+	 */
+	public AsyncCameraAPI(CameraAPI api, Executor executor) {
+		mApi = api;
+		mExecutor = (executor != null) ? executor : getSharedExecutor();
+	}
+
+	/**
+	 * @return the api called
+	 */
+	public CameraAPI getCameraAPI() {
+		return mApi;
+	}
+
+	/**
+	 * Get all camera properties, as CameraAPI.getProperties().
+	 *
+	 * @param callback of the Properties, or null
+	 * @return the Future of the Properties
+	 */
+	public Future getProperties(Callback callback) {
+		return getProperties(PropertyCache.ALL, callback);
+	}
+
+	/**
+	 * Get a group of camera properties, as CameraAPI.getProperties(group).
+	 *
+	 * @param group of the properties
+	 * @param callback of the Properties, or null
+	 * @return the Future of the Properties
+	 */
+	public Future getProperties(final String group, Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				return mApi.getProperties(group);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Get a camera property, as CameraAPI.getProperty(name).
+	 *
+	 * @param name of the property, in any case
+	 * @param callback of the String value, or null
+	 * @return the Future of the value, which is null if not found
+	 */
+	public Future getProperty(final String name, Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				return mApi.getProperty(name);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Set a camera property, as CameraAPI.setProperty(name, value).
+	 *
+	 * @param name of the property
+	 * @param value to set
+	 * @param callback of a null result, or null
+	 * @return the Future of a null result
+	 */
+	public Future setProperty(final String name, final String value,
+		Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				mApi.setProperty(name, value);
+
+				return null;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Set many camera properties in one request, as
+	 * CameraAPI.setProperties(properties).
+	 *
+	 * @param properties names to values
+	 * @param callback of the Map of errors, or null
+	 * @return the Future of the Map of the properties that weren't set, to
+	 *         their error lines
+	 */
+	public Future setProperties(final Map properties, Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				return mApi.setProperties(properties);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Get a JPEG image, as CameraAPI.getImage(cameraNumber).
+	 *
+	 * @param cameraNumber to request, the first camera is always "1"
+	 * @param callback of the Image, or null
+	 * @return the Future of the Image
+	 */
+	public Future getImage(final int cameraNumber, Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				return mApi.getImage(cameraNumber);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Get the server report, as CameraAPI.serverReport().
+	 *
+	 * @param callback of the String report, or null
+	 * @return the Future of the report
+	 */
+	public Future serverReport(Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				return mApi.serverReport();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Get the system log, as CameraAPI.systemLog().
+	 *
+	 * @param callback of the String log, or null
+	 * @return the Future of the log
+	 */
+	public Future systemLog(Callback callback) {
+		return submit(new Callable() {
+			public Object call() throws Exception {
+				return mApi.systemLog();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Run any call of the api.
+	 *
+	 * @param call to run
+	 * @param callback of the call's result, or null
+	 * @return the Future of the result
+	 * @throws java.util.concurrent.RejectedExecutionException if the
+	 *         executor won't run the call
+	 */
+	public Future submit(Callable call, Callback callback) {
+		FutureTask task = new Call(call, callback);
+		mExecutor.execute(task);
+
+		return task;
+	}
+
+	private static synchronized Executor getSharedExecutor() {
+		if (mSharedExecutor == null) {
+			mSharedExecutor = Executors.newFixedThreadPool(SHARED_THREADS,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, AsyncCameraAPI.class.getName());
+
+						// allow to exit cleanly if the VM goes down
+						thread.setDaemon(true);
+
+						return thread;
+					}
+				});
+		}
+
+		return mSharedExecutor;
+	}
+
+	/**
+	 * Told when a call is done.
+	 */
+	public interface Callback {
+		/**
+		 * @param result of the call
+		 */
+		public void completed(Object result);
+
+		/**
+		 * @param cause of the failure, like an IOException, or a
+		 *        CancellationException if the call was cancelled
+		 */
+		public void failed(Throwable cause);
+	}
+
+	/**
+	 * A call that tells its callback when it's done.
+	 */
+	private static class Call extends FutureTask {
+		private Callback mCallback;
+
+		Call(Callable call, Callback callback) {
+			super(call);
+			mCallback = callback;
+		}
+
+		protected void done() {
+			if (mCallback == null) {
+				return;
+			}
+
+			Object result;
+
+			try {
+				result = get();
+			} catch (CancellationException ce) {
+				failed(ce);
+
+				return;
+			} catch (ExecutionException ee) {
+				failed(ee.getCause());
+
+				return;
+			} catch (InterruptedException ie) {
+				// done, so get() doesn't wait
+				failed(ie);
+
+				return;
+			}
+
+			try {
+				mCallback.completed(result);
+			} catch (RuntimeException re) {
+				mLog.warn("callback failed", re);
+			}
+		}
+
+		private void failed(Throwable cause) {
+			try {
+				mCallback.failed(cause);
+			} catch (RuntimeException re) {
+				mLog.warn("callback failed", re);
+			}
+		}
+	}
+}
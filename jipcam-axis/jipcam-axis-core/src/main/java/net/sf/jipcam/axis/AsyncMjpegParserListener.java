@@ -0,0 +1,357 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Delivers parser events to a listener on its own executor, through a
+ * bounded queue.  The parser thread only queues the event and returns, so a
+ * slow listener, such as one writing each frame to disk, no longer stalls
+ * the parser or the other listeners.
+ *
+ * When the queue is full, the overflow policy decides what happens, using
+ * the MjpegFifo policies: BLOCK makes the parser wait, DROP_NEWEST drops
+ * the new event, DROP_OLDEST drops the oldest queued event, and KEEP_LATEST
+ * coalesces to the newest event.  Events are delivered in order, one at a
+ * time.  Each queued frame is retained until the listener returns.
+ *
+ * @author Jason Thrasher
+ */
+public class AsyncMjpegParserListener implements MjpegParserListener {
+	private static Logger mLog = LogManager.getLogger(AsyncMjpegParserListener.class); //logging mechanism
+
+	private MjpegParserListener mListener; //listener events are delivered to
+	private Executor mExecutor; //runs the deliveries
+	private ExecutorService mOwnExecutor; //created here, shut down on close
+	private int mPolicy;
+	private MjpegParserEvent[] mQueue; //ring of queued events
+	private long[] mQueuedAt; //time each event was queued
+	private int mHead = 0; //index of the oldest event
+	private int mCount = 0; //events queued
+	private boolean isScheduled = false; //a delivery task is pending or running
+	private boolean isClosed = false;
+	private long mDelivered = 0; //events delivered to the listener
+	private long mDropped = 0; //events dropped by the overflow policy
+	private long mLastLag = 0; //queue time of the last event delivered
+	private long mMaxLag = 0; //longest queue time of any event delivered
+	private ReentrantLock mLock = new ReentrantLock();
+	private Condition mNotFull = mLock.newCondition(); //an event was taken
+
+	private Runnable mDelivery = new Runnable() {
+			public void run() {
+				deliver();
+			}
+		};
+
+	/**
+	 * Deliver events on a new thread of this listener's own.
+	 *
+	 * @param listener to deliver events to
+	 * @param size of the queue
+	 * @param policy when the queue is full, one of the MjpegFifo policies
+	 */
+	public AsyncMjpegParserListener(MjpegParserListener listener, int size,
+		int policy) {
+		this(listener, size, policy, null);
+	}
+
+	/**
+	 * Deliver events using the given executor.
+	 *
+	 * @param listener to deliver events to
+	 * @param size of the queue
+	 * @param policy when the queue is full, one of the MjpegFifo policies
+	 * @param executor to run deliveries, or null for a thread of its own
+	 */
+	public AsyncMjpegParserListener(MjpegParserListener listener, int size,
+		int policy, Executor executor) {
+		if ((policy < MjpegFifo.BLOCK) || (policy > MjpegFifo.KEEP_LATEST)) {
+			throw new IllegalArgumentException("unknown overflow policy: " +
+				policy);
+		}
+
+		if (executor == null) {
+			final String name = listener.getClass().getName();
+			mOwnExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, name);
+
+							// allow to exit cleanly if the VM goes down
+							thread.setDaemon(true);
+
+							return thread;
+						}
+					});
+			executor = mOwnExecutor;
+		}
+
+		int capacity = (policy == MjpegFifo.KEEP_LATEST) ? 1 : Math.max(1, size);
+		mListener = listener;
+		mExecutor = executor;
+		mPolicy = policy;
+		mQueue = new MjpegParserEvent[capacity];
+		mQueuedAt = new long[capacity];
+	}
+
+	/**
+	 * @return the listener that events are delivered to
+	 */
+	public MjpegParserListener getListener() {
+		return mListener;
+	}
+
+	/**
+	 * Queue the event for delivery.
+	 */
+	public void onMjpegParserEvent(MjpegParserEvent event) {
+		boolean isSchedule = false;
+
+		mLock.lock();
+
+		try {
+			if (isClosed) {
+				return;
+			}
+
+			while (mCount == mQueue.length) {
+				if (mPolicy == MjpegFifo.BLOCK) {
+					try {
+						mNotFull.await();
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						mDropped++;
+
+						return;
+					}
+
+					if (isClosed) {
+						return;
+					}
+				} else if (mPolicy == MjpegFifo.DROP_NEWEST) {
+					mDropped++;
+
+					return;
+				} else {
+					take().getMjpegFrame().release();
+					mDropped++;
+				}
+			}
+
+			int tail = mHead + mCount;
+
+			if (tail >= mQueue.length) {
+				tail -= mQueue.length;
+			}
+
+			event.getMjpegFrame().retain();
+			mQueue[tail] = event;
+			mQueuedAt[tail] = System.currentTimeMillis();
+			mCount++;
+
+			if (!isScheduled) {
+				isScheduled = true;
+				isSchedule = true;
+			}
+		} finally {
+			mLock.unlock();
+		}
+
+		if (isSchedule) {
+			try {
+				mExecutor.execute(mDelivery);
+			} catch (RejectedExecutionException ree) {
+				mLog.warn("delivery rejected, closing listener queue");
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Stop delivering events, and release the queued frames.  An executor
+	 * created by this listener is shut down.
+	 */
+	public void close() {
+		mLock.lock();
+
+		try {
+			isClosed = true;
+
+			while (mCount > 0) {
+				take().getMjpegFrame().release();
+			}
+
+			mNotFull.signalAll();
+		} finally {
+			mLock.unlock();
+		}
+
+		if (mOwnExecutor != null) {
+			mOwnExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * @return count of events waiting to be delivered
+	 */
+	public int getQueuedCount() {
+		mLock.lock();
+
+		try {
+			return mCount;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * @return milliseconds the oldest queued event has waited, or 0 if none
+	 */
+	public long getLagMillis() {
+		mLock.lock();
+
+		try {
+			if (mCount == 0) {
+				return 0;
+			}
+
+			return System.currentTimeMillis() - mQueuedAt[mHead];
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * @return milliseconds the last delivered event waited in the queue
+	 */
+	public long getLastLagMillis() {
+		mLock.lock();
+
+		try {
+			return mLastLag;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * @return longest milliseconds any delivered event waited in the queue
+	 */
+	public long getMaxLagMillis() {
+		mLock.lock();
+
+		try {
+			return mMaxLag;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * @return count of events delivered to the listener
+	 */
+	public long getDeliveredCount() {
+		mLock.lock();
+
+		try {
+			return mDelivered;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * @return count of events dropped by the overflow policy
+	 */
+	public long getDroppedCount() {
+		mLock.lock();
+
+		try {
+			return mDropped;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Deliver queued events until the queue is empty.
+	 */
+	private void deliver() {
+		while (true) {
+			MjpegParserEvent event;
+
+			mLock.lock();
+
+			try {
+				if ((mCount == 0) || isClosed) {
+					isScheduled = false;
+
+					return;
+				}
+
+				mLastLag = System.currentTimeMillis() - mQueuedAt[mHead];
+				mMaxLag = Math.max(mMaxLag, mLastLag);
+				event = take();
+			} finally {
+				mLock.unlock();
+			}
+
+			try {
+				mListener.onMjpegParserEvent(event);
+			} catch (RuntimeException re) {
+				mLog.warn("listener failed", re);
+			} finally {
+				event.getMjpegFrame().release();
+			}
+
+			mLock.lock();
+
+			try {
+				mDelivered++;
+			} finally {
+				mLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Remove the oldest event.  The lock must be held, and the queue must not
+	 * be empty.
+	 */
+	private MjpegParserEvent take() {
+		MjpegParserEvent event = mQueue[mHead];
+		mQueue[mHead] = null;
+		mHead = ((mHead + 1) == mQueue.length) ? 0 : (mHead + 1);
+		mCount--;
+		mNotFull.signal();
+
+		return event;
+	}
+}
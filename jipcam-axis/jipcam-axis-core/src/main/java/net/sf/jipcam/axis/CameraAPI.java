@@ -22,16 +22,18 @@ package net.sf.jipcam.axis;
 import java.awt.Dimension;
 import java.awt.Image;
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
-import java.util.StringTokenizer;
 
 import javax.imageio.ImageIO;
 
@@ -39,14 +41,11 @@ import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HeaderElement;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpConnectionManager;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -60,6 +59,9 @@ import org.apache.logging.log4j.Logger;
  * See full implementation of the Axis Camera API here:
  * http://www.axis.com/techsup/cam_servers/dev/cam_http_api.htm#api_blocks_general_setparam
  * 
+ * Connections come from CameraConnections pools shared by every CameraAPI,
+ * with MJPEG streams kept apart from the short CGI requests.
+ * 
  * @author Jason Thrasher <a
  *         href="mailto:jason@coachthrasher.com">jason@coachthrasher.com</a>
  * @version $Revision$
@@ -122,7 +124,14 @@ public class CameraAPI {
 	protected static String REQ_SET = "/axis-cgi/admin/setparam.cgi";
 	protected static String REQ_SERVER_REPORT = "/axis-cgi/admin/serverreport.cgi";
 	protected static String REQ_SYSTEM_LOG = "/axis-cgi/admin/systemlog.cgi";
-	protected static String MJPEG_BOUNDARY = "--myboundary";
+	/**
+	 * Boundary assumed when a response doesn't give one.
+	 */
+	protected static final String MJPEG_BOUNDARY = "--myboundary";
+	/**
+	 * Start of each line of setparam.cgi for a property that wasn't set.
+	 */
+	protected static final String SET_ERROR = "# Error";
 
 	/**
 	 * image resolution property
@@ -141,10 +150,12 @@ public class CameraAPI {
 	 */
 	protected static String P_BRAND_PRODFULLNAME_2 = "root.Brand.ProdFullName";
 
-	protected HttpClient mClient;
+	protected HttpClient mClient; // for short CGI requests
+	protected HttpClient mStreamClient; // for MJPEG streams
+	private CameraConnections mConnections;
 	protected URL mCamUrl;
 	protected Logger mLog;
-	private Properties camPropsCache = null; // cache of camera properties
+	private PropertyCache mPropertyCache; // cache of camera properties
 
 	/**
 	 * Create a new camera api connection for HTTP based communication.
@@ -163,14 +174,13 @@ public class CameraAPI {
 		// simple
 		this(camUrl);
 
-		// set the client timeout
+		// set the client timeout, the pool's are shared with other cameras
 		if (timeoutMillis >= 0) {
 			// mClient.setConnectionTimeout(timeoutMillis);
-			HttpConnectionManager conManager = mClient
-					.getHttpConnectionManager();
-			HttpConnectionParams params = conManager.getParams();
-			params.setConnectionTimeout(timeoutMillis);
-
+			mClient.getParams().setConnectionManagerTimeout(timeoutMillis);
+			mClient.getParams().setSoTimeout(timeoutMillis);
+			mStreamClient.getParams().setConnectionManagerTimeout(
+					timeoutMillis);
 		}
 
 		// set the authentication details
@@ -185,6 +195,7 @@ public class CameraAPI {
 			// set use of preemptive authentication
 			// mClient.getState().setAuthenticationPreemptive(true);
 			mClient.getParams().setAuthenticationPreemptive(true);
+			mStreamClient.getParams().setAuthenticationPreemptive(true);
 		}
 
 		// To enable preemptive authentication by default
@@ -194,15 +205,42 @@ public class CameraAPI {
 	}
 
 	/**
-	 * Create a new camera api connection for HTTP based communication.
+	 * Create a new camera api connection for HTTP based communication, with
+	 * connections from the shared CameraConnections.
 	 * 
 	 * @param camUrl
 	 *            for the Axis camera
 	 */
 	public CameraAPI(URL camUrl) {
+		this(camUrl, CameraConnections.getShared());
+	}
+
+	/**
+	 * Create a new camera api connection for HTTP based communication.
+	 * 
+	 * @param camUrl
+	 *            for the Axis camera
+	 * @param connections
+	 *            pools of the connections to the camera
+	 */
+	public CameraAPI(URL camUrl, CameraConnections connections) {
 		mLog = LogManager.getLogger(this.getClass());
 		mCamUrl = camUrl;
-		mClient = new HttpClient(new MultiThreadedHttpConnectionManager());
+		mConnections = connections;
+		mClient = new HttpClient(connections.getControlManager());
+		mStreamClient = new HttpClient(connections.getStreamManager());
+		mStreamClient.setState(mClient.getState()); // same credentials
+
+		// fail, rather than wait forever, at the limit of a pool
+		mClient.getParams().setConnectionManagerTimeout(
+				CameraConnections.DEFAULT_POOL_TIMEOUT);
+		mStreamClient.getParams().setConnectionManagerTimeout(
+				CameraConnections.DEFAULT_POOL_TIMEOUT);
+		mPropertyCache = new PropertyCache(new PropertyCache.Loader() {
+			public Properties load(String group) throws IOException {
+				return loadProperties(group);
+			}
+		});
 	}
 
 	/**
@@ -376,22 +414,56 @@ public class CameraAPI {
 	 * incorrect capitalization will fail. Capitalization must match the
 	 * property set returned from "getProperties()".
 	 * 
+	 * A property the camera doesn't set is logged, as with setProperties().
+	 * 
 	 * @param value
 	 * @param name
 	 * @throws java.io.IOException
 	 */
 	public void setProperty(String name, String value) throws IOException {
-		camPropsCache = null; // invalidate the properties cache
+		Map properties = new HashMap();
+		properties.put(name, value);
+
+		Map errors = setProperties(properties);
 
+		if (!errors.isEmpty()) {
+			mLog.warn(errors.get(name));
+		}
+	}
+
+	/**
+	 * Set many camera properties in one request. The camera sets each
+	 * property it has, and answers an error line for each other one, like
+	 * "# Error: Error setting 'root.Image.Foo' to 'bar'!". Other lines, like
+	 * "OK", are taken as confirmations.
+	 * 
+	 * The cached properties are changed to the values set, rather than
+	 * loaded again. If the request fails, the cache is dropped, since some
+	 * properties may have been set.
+	 * 
+	 * @param properties
+	 *            names to values, sent in the order of the map
+	 * @return names of the properties that weren't set, to the camera's error
+	 *         line, or an empty map if every property was set
+	 * @throws java.io.IOException
+	 *             if the camera can't be reached, or answers an error line
+	 *             that doesn't name a property
+	 */
+	public Map setProperties(Map properties) throws IOException {
 		PostMethod post = null;
+		boolean isDone = false;
 
 		try {
 			URL url = new URL(mCamUrl, REQ_SET);
 
 			post = new PostMethod(url.toExternalForm());
-			post.setFollowRedirects(true);
+			post.setFollowRedirects(false); // HttpClient won't redirect a POST
 
-			post.addParameter(name, value);
+			for (Iterator i = properties.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				post.addParameter((String) entry.getKey(), (String) entry
+						.getValue());
+			}
 
 			int iGetResultCode = mClient.executeMethod(post);
 
@@ -399,41 +471,130 @@ public class CameraAPI {
 				throw new IOException("HTTP " + iGetResultCode + " "
 						+ post.getStatusText());
 			}
+
+			Map errors = parseSetErrors(new BufferedReader(
+					new InputStreamReader(post.getResponseBodyAsStream(),
+							"ISO-8859-1")), properties);
+			Map set = new HashMap(properties);
+			set.keySet().removeAll(errors.keySet());
+			mPropertyCache.update(set);
+			isDone = true;
+
+			return errors;
 		} catch (MalformedURLException murle) {
 			throw new IOException(murle.getMessage());
 		} finally {
+			if (!isDone) {
+				mPropertyCache.invalidate();
+			}
+
 			if (post != null) {
 				post.releaseConnection();
 			}
 		}
 	}
 
+	/**
+	 * Read the answer of setparam.cgi.
+	 * 
+	 * @param reader
+	 *            of the answer
+	 * @param properties
+	 *            requested
+	 * @return names of the properties that weren't set, to their error lines
+	 * @throws IOException
+	 *             if an error line doesn't name a requested property
+	 */
+	static Map parseSetErrors(BufferedReader reader, Map properties)
+			throws IOException {
+		Map errors = new LinkedHashMap();
+		String line;
+
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+
+			// OK, or any other confirmation the camera gives
+			if (!line.startsWith(SET_ERROR)) {
+				continue;
+			}
+
+			// # Error: Error setting 'name' to 'value'!
+			int start = line.indexOf('\'') + 1;
+			int end = line.indexOf("' to '", start);
+			String name = ((start > 0) && (end > start)) ? line.substring(
+					start, end) : null;
+
+			if ((name == null) || !properties.containsKey(name)) {
+				throw new IOException("could not set properties: " + line);
+			}
+
+			errors.put(name, line);
+		}
+
+		return errors;
+	}
+
 	/**
 	 * Get all camera properties. Note that the capitalization of property names
 	 * seems to be different for some cameras.
 	 * 
+	 * The properties are cached by the PropertyCache of this API, which by
+	 * default keeps them, changed by setProperty() and setProperties().
+	 * 
 	 * @throws java.io.IOException
-	 * @return camera's configuration properties
+	 * @return camera's configuration properties, which must not be modified
 	 */
 	public Properties getProperties() throws IOException {
-		if (camPropsCache != null) {
-			// assume the cache if valid if not null
-			mLog.debug("useing cached camera properties");
+		return mPropertyCache.get(PropertyCache.ALL);
+	}
 
-			return camPropsCache;
-		}
+	/**
+	 * Get a group of camera properties, like root.Image, as answered by
+	 * getparam.cgi?root.Image. A group is fetched on its own, unless a fresh
+	 * copy of all the properties is cached.
+	 * 
+	 * @param group
+	 *            of the properties
+	 * @throws java.io.IOException
+	 * @return the group's properties, which must not be modified
+	 */
+	public Properties getProperties(String group) throws IOException {
+		return mPropertyCache.get(group);
+	}
 
-		mLog.debug("refreshing camera properties cache");
+	/**
+	 * Get the cache of the camera properties, to set how long they are kept,
+	 * and where they are refreshed.
+	 * 
+	 * @return the cache
+	 */
+	public PropertyCache getPropertyCache() {
+		return mPropertyCache;
+	}
+
+	/**
+	 * Load properties from the camera, without the cache.
+	 * 
+	 * @param group
+	 *            of the properties, or PropertyCache.ALL
+	 * @return the properties
+	 * @throws IOException
+	 */
+	protected Properties loadProperties(String group) throws IOException {
+		mLog.debug("refreshing camera properties cache: " + group);
 
 		GetMethod get = null;
 
 		try {
 			URL url = new URL(mCamUrl, REQ_PROPS);
 
-			// System.out.println(url.toExternalForm());
 			get = new GetMethod(url.toExternalForm());
 			get.setFollowRedirects(true);
 
+			if (!PropertyCache.ALL.equals(group)) {
+				get.setQueryString(group);
+			}
+
 			// check response code
 			int iGetResultCode = mClient.executeMethod(get);
 
@@ -443,9 +604,10 @@ public class CameraAPI {
 			}
 
 			// read the properties
-			camPropsCache = new Properties();
-			camPropsCache.load(get.getResponseBodyAsStream());
+			Properties properties = new Properties();
+			properties.load(get.getResponseBodyAsStream());
 
+			return properties;
 		} catch (MalformedURLException murle) {
 			throw new IOException(murle.getMessage());
 		} finally {
@@ -453,8 +615,6 @@ public class CameraAPI {
 				get.releaseConnection();
 			}
 		}
-
-		return camPropsCache;
 	}
 
 	/**
@@ -470,15 +630,18 @@ public class CameraAPI {
 	 * @throws java.io.IOException
 	 */
 	public String getProperty(String name) throws IOException {
-		Properties props = getProperties();
-		Set keySet = props.keySet();
-		for (Iterator iter = keySet.iterator(); iter.hasNext();) {
-			String keyName = (String) iter.next();
-			if (name.equalsIgnoreCase(keyName)) {
-				return props.getProperty(keyName);
-			}
-		}
-		return null;
+		return getPropertyIndex().get(name);
+	}
+
+	/**
+	 * Get the index of all camera properties, to look up properties by name
+	 * in any case, and parse their values once.
+	 * 
+	 * @return the index of the cached properties
+	 * @throws java.io.IOException
+	 */
+	public PropertyIndex getPropertyIndex() throws IOException {
+		return mPropertyCache.getIndex(PropertyCache.ALL);
 	}
 
 	/**
@@ -488,13 +651,14 @@ public class CameraAPI {
 	 * @return The width-height current image dimensions (x=w, y=h).
 	 */
 	public Dimension getImageDimension() throws IOException {
-		String resS = getProperty(P_IMAGE_RESOLUTION);
-		StringTokenizer st = new StringTokenizer(resS, "x");
+		Dimension d = getPropertyIndex().getDimension(P_IMAGE_RESOLUTION);
 
-		int w = Integer.parseInt(st.nextToken());
-		int h = Integer.parseInt(st.nextToken());
+		if (d == null) {
+			throw new IOException("camera has no resolution: "
+					+ getProperty(P_IMAGE_RESOLUTION));
+		}
 
-		return new Dimension(w, h);
+		return d;
 	}
 
 	/**
@@ -505,7 +669,7 @@ public class CameraAPI {
 	 * @throws IOException
 	 */
 	public int getAppwizPostRate() throws IOException {
-		return Integer.parseInt(getProperty(P_APPWIZ_POSTRATE));
+		return getPropertyIndex().getInt(P_APPWIZ_POSTRATE);
 	}
 
 	/**
@@ -596,19 +760,15 @@ public class CameraAPI {
 		GetMethod get = null;
 		InputStream in = null;
 
-		// insert the camera number
-		String request = REQ_MJPEG.replace("CAM_NUMBER", Integer
-				.toString(cameraNumber));
-
 		try {
-			URL url = new URL(mCamUrl, request);
+			URL url = getMjpegUrl(cameraNumber);
 
 			// System.out.println(url.toExternalForm());
 			get = new GetMethod(url.toExternalForm());
 			get.setFollowRedirects(true);
 
 			// check response code
-			int iGetResultCode = mClient.executeMethod(get);
+			int iGetResultCode = mStreamClient.executeMethod(get);
 
 			if (iGetResultCode >= HTTP_BAD_REQUEST) {
 				throw new IOException("HTTP " + iGetResultCode + " "
@@ -616,28 +776,63 @@ public class CameraAPI {
 			}
 
 			// For this multipart response, parse out the boundary info
-			Header contentType = get.getResponseHeader("Content-Type");
-			HeaderElement[] elements = contentType.getElements();
-
-			for (int i = 0; i < elements.length; i++) {
-				NameValuePair boundaryNVP = elements[i]
-						.getParameterByName("boundary");
-
-				if (boundaryNVP != null) {
-					MJPEG_BOUNDARY = boundaryNVP.getValue();
-				}
-			}
+			String boundary = parseBoundary(get
+					.getResponseHeader("Content-Type"));
 
 			// System.out.println("iGetResultCode = " + iGetResultCode);
 			// Read from an input stream
-			in = new BufferedInputStream(get.getResponseBodyAsStream());
+			in = new MultipartInputStream(get.getResponseBodyAsStream(),
+					boundary);
 		} catch (MalformedURLException murle) {
 			throw new IOException(murle.getMessage());
+		} finally {
+			// the stream releases the connection when it's closed
+			if ((in == null) && (get != null)) {
+				get.releaseConnection();
+			}
 		}
 
 		return in;
 	}
 
+	/**
+	 * Get the URL of the multipart JPEG image stream for a camera.
+	 * 
+	 * @param cameraNumber
+	 *            to request, the first camera is always "1"
+	 * @return the stream URL
+	 * @throws MalformedURLException
+	 */
+	public URL getMjpegUrl(int cameraNumber) throws MalformedURLException {
+		// insert the camera number
+		String request = REQ_MJPEG.replace("CAM_NUMBER", Integer
+				.toString(cameraNumber));
+
+		return new URL(mCamUrl, request);
+	}
+
+	/**
+	 * Get the pools of the connections to the camera.
+	 * 
+	 * @return the pools, shared with other cameras
+	 */
+	public CameraConnections getConnections() {
+		return mConnections;
+	}
+
+	/**
+	 * Get the username and password used for this camera.
+	 * 
+	 * @return the credentials, or null if none were given
+	 */
+	UsernamePasswordCredentials getCredentials() {
+		Credentials creds = mClient.getState().getCredentials(
+				new AuthScope(mCamUrl.getHost(), mCamUrl.getPort()));
+
+		return (creds instanceof UsernamePasswordCredentials) ? (UsernamePasswordCredentials) creds
+				: null;
+	}
+
 	/**
 	 * Get the MJPEG from the default camera, or the first camera in a
 	 * multi-camera system.
@@ -649,10 +844,59 @@ public class CameraAPI {
 		return getMjpeg(1);
 	}
 
+	/**
+	 * Get the default MJPEG boundary.
+	 * 
+	 * @return the boundary assumed when a response doesn't give one
+	 * @deprecated each MJPEG connection has its own boundary, use
+	 *             getMjpegBoundary(InputStream)
+	 */
 	public static String getMjpegBoundary() {
 		return MJPEG_BOUNDARY;
 	}
 
+	/**
+	 * Get the boundary of an MJPEG stream returned by this API.
+	 * 
+	 * @param mjpeg
+	 *            stream from getMjpeg() or getMjpegCgi()
+	 * @return the stream's boundary, or the default if the stream doesn't
+	 *         carry one
+	 */
+	public static String getMjpegBoundary(InputStream mjpeg) {
+		if ((mjpeg instanceof MultipartInputStream)
+				&& (((MultipartInputStream) mjpeg).getBoundary() != null)) {
+			return ((MultipartInputStream) mjpeg).getBoundary();
+		}
+
+		return MJPEG_BOUNDARY;
+	}
+
+	/**
+	 * Parse the boundary parameter from a multipart Content-Type header.
+	 * 
+	 * @param contentType
+	 *            header of the response, may be null
+	 * @return the boundary, or null if none was given, so the stream's
+	 *         frames are found by their JPEG markers
+	 */
+	protected static String parseBoundary(Header contentType) {
+		if (contentType != null) {
+			HeaderElement[] elements = contentType.getElements();
+
+			for (int i = 0; i < elements.length; i++) {
+				NameValuePair boundaryNVP = elements[i]
+						.getParameterByName("boundary");
+
+				if ((boundaryNVP != null) && (boundaryNVP.getValue() != null)) {
+					return boundaryNVP.getValue();
+				}
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * 
 	 * 
@@ -811,7 +1055,7 @@ public class CameraAPI {
 			}
 
 			// check response code
-			int iGetResultCode = mClient.executeMethod(post);
+			int iGetResultCode = mStreamClient.executeMethod(post);
 
 			if (mLog.isDebugEnabled()) {
 				StringBuffer uri = new StringBuffer(post.getURI().toString());
@@ -843,8 +1087,8 @@ public class CameraAPI {
 			}
 
 			// For this multipart response, parse out the boundary info
-			Header contentType = post.getResponseHeader("Content-Type");
-			HeaderElement[] elements = contentType.getElements();
+			String boundary = parseBoundary(post
+					.getResponseHeader("Content-Type"));
 
 			// debug all http headers
 			if (mLog.isDebugEnabled()) {
@@ -855,19 +1099,16 @@ public class CameraAPI {
 				}
 			}
 
-			for (int i = 0; i < elements.length; i++) {
-				NameValuePair boundaryNVP = elements[i]
-						.getParameterByName("boundary");
-
-				if (boundaryNVP != null) {
-					MJPEG_BOUNDARY = boundaryNVP.getValue();
-				}
-			}
-
 			// Read from an input stream
-			in = new BufferedInputStream(post.getResponseBodyAsStream());
+			in = new MultipartInputStream(post.getResponseBodyAsStream(),
+					boundary);
 		} catch (MalformedURLException murle) {
 			throw new IOException(murle.getMessage());
+		} finally {
+			// the stream releases the connection when it's closed
+			if ((in == null) && (post != null)) {
+				post.releaseConnection();
+			}
 		}
 
 		return in;
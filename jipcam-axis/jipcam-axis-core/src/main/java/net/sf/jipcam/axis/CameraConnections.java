@@ -0,0 +1,274 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+
+/**
+ * HTTP connections to cameras, pooled for every CameraAPI of the process.
+ *
+ * Short CGI requests, like getparam.cgi and image.jpg, share the control
+ * pool, and keep their connections alive for the next request to the same
+ * camera.  MJPEG streams hold a connection for as long as they play, so they
+ * take theirs from the stream pool, with limits of its own, and can never
+ * use up the connections of the control requests.
+ *
+ * Each pool has a limit of connections per camera and in all.  A request
+ * over the limit waits for a connection, for as long as its HttpClient's
+ * connection manager timeout allows, which is DEFAULT_POOL_TIMEOUT for a
+ * CameraAPI.  Connections idle for longer than the idle timeout are closed
+ * by one daemon thread for both pools.
+ *
+ * Most programs use the shared instance, from getShared().  This class is
+ * thread safe.
+ *
+ * @author Jason Thrasher
+ */
+public class CameraConnections {
+	/**
+	 * Default limit of control connections per camera.
+	 */
+	public static final int DEFAULT_MAX_PER_HOST = 2;
+
+	/**
+	 * Default limit of control connections to all cameras.
+	 */
+	public static final int DEFAULT_MAX_TOTAL = 200;
+
+	/**
+	 * Default limit of stream connections per camera.
+	 */
+	public static final int DEFAULT_MAX_STREAMS_PER_HOST = 4;
+
+	/**
+	 * Default limit of stream connections to all cameras.
+	 */
+	public static final int DEFAULT_MAX_STREAMS = 2000;
+
+	/**
+	 * Default milliseconds a connection may be idle before it's closed.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	/**
+	 * Default milliseconds to wait for a camera to accept a connection.
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 20000;
+
+	/**
+	 * Default milliseconds a CameraAPI request waits for a connection of a
+	 * pool at its limit.
+	 */
+	public static final long DEFAULT_POOL_TIMEOUT = 20000;
+
+	private static CameraConnections mShared;
+
+	private MultiThreadedHttpConnectionManager mControl = new MultiThreadedHttpConnectionManager();
+	private MultiThreadedHttpConnectionManager mStreams = new MultiThreadedHttpConnectionManager();
+	private IdleConnectionTimeoutThread mIdleThread = new IdleConnectionTimeoutThread();
+	private long mIdleTimeout;
+
+	/**
+	 * Create pools with the default limits.
+	 */
+	public CameraConnections() {
+		setMaxPerHost(DEFAULT_MAX_PER_HOST);
+		setMaxTotal(DEFAULT_MAX_TOTAL);
+		setMaxStreamsPerHost(DEFAULT_MAX_STREAMS_PER_HOST);
+		setMaxStreams(DEFAULT_MAX_STREAMS);
+		setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
+
+		// a stale kept alive connection fails on the next request, not later
+		mControl.getParams().setStaleCheckingEnabled(true);
+
+		mIdleThread.setName(CameraConnections.class.getName());
+		mIdleThread.setDaemon(true);
+		mIdleThread.addConnectionManager(mControl);
+		mIdleThread.addConnectionManager(mStreams);
+		setIdleTimeout(DEFAULT_IDLE_TIMEOUT);
+		mIdleThread.start();
+	}
+
+	/**
+	 * @return the pools of every CameraAPI that wasn't given its own
+	 */
+	public static synchronized CameraConnections getShared() {
+		if (mShared == null) {
+			mShared = new CameraConnections();
+		}
+
+		return mShared;
+	}
+
+	/**
+	 * @return the connection manager of short CGI requests
+	 */
+	public HttpConnectionManager getControlManager() {
+		return mControl;
+	}
+
+	/**
+	 * @return the connection manager of MJPEG streams
+	 */
+	public HttpConnectionManager getStreamManager() {
+		return mStreams;
+	}
+
+	/**
+	 * @param max control connections per camera
+	 */
+	public void setMaxPerHost(int max) {
+		mControl.getParams().setDefaultMaxConnectionsPerHost(max);
+	}
+
+	public int getMaxPerHost() {
+		return mControl.getParams().getDefaultMaxConnectionsPerHost();
+	}
+
+	/**
+	 * @param max control connections to all cameras
+	 */
+	public void setMaxTotal(int max) {
+		mControl.getParams().setMaxTotalConnections(max);
+	}
+
+	public int getMaxTotal() {
+		return mControl.getParams().getMaxTotalConnections();
+	}
+
+	/**
+	 * @param max stream connections per camera
+	 */
+	public void setMaxStreamsPerHost(int max) {
+		mStreams.getParams().setDefaultMaxConnectionsPerHost(max);
+	}
+
+	public int getMaxStreamsPerHost() {
+		return mStreams.getParams().getDefaultMaxConnectionsPerHost();
+	}
+
+	/**
+	 * @param max stream connections to all cameras
+	 */
+	public void setMaxStreams(int max) {
+		mStreams.getParams().setMaxTotalConnections(max);
+	}
+
+	public int getMaxStreams() {
+		return mStreams.getParams().getMaxTotalConnections();
+	}
+
+	/**
+	 * @param millis to wait for a camera to accept a connection, or 0 for no
+	 *        limit
+	 */
+	public void setConnectTimeout(int millis) {
+		mControl.getParams().setConnectionTimeout(millis);
+		mStreams.getParams().setConnectionTimeout(millis);
+	}
+
+	public int getConnectTimeout() {
+		return mControl.getParams().getConnectionTimeout();
+	}
+
+	/**
+	 * @param millis a connection may be idle before it's closed
+	 */
+	public void setIdleTimeout(long millis) {
+		mIdleTimeout = millis;
+		mIdleThread.setConnectionTimeout(millis);
+
+		// check often enough to close a connection within half the timeout
+		mIdleThread.setTimeoutInterval(Math.max(1, millis / 2));
+
+		// wake the thread from the wait of the old interval
+		synchronized (mIdleThread) {
+			mIdleThread.notifyAll();
+		}
+	}
+
+	public long getIdleTimeout() {
+		return mIdleTimeout;
+	}
+
+	/**
+	 * @return open control connections, in use or idle
+	 */
+	public int getControlConnections() {
+		return mControl.getConnectionsInPool();
+	}
+
+	/**
+	 * @return open control connections to a camera, in use or idle
+	 */
+	public int getControlConnections(String host, int port) {
+		return mControl.getConnectionsInPool(getHostConfiguration(host, port));
+	}
+
+	/**
+	 * @return open stream connections
+	 */
+	public int getStreamConnections() {
+		return mStreams.getConnectionsInPool();
+	}
+
+	/**
+	 * @return open stream connections to a camera
+	 */
+	public int getStreamConnections(String host, int port) {
+		return mStreams.getConnectionsInPool(getHostConfiguration(host, port));
+	}
+
+	/**
+	 * Close every connection, and stop the idle connection thread.  The pools
+	 * can't be used after this.
+	 */
+	public void shutdown() {
+		mIdleThread.shutdown();
+		mControl.shutdown();
+		mStreams.shutdown();
+
+		synchronized (CameraConnections.class) {
+			if (mShared == this) {
+				mShared = null;
+			}
+		}
+	}
+
+	public String toString() {
+		return "control connections " + getControlConnections() + " of "
+				+ getMaxTotal() + " (" + getMaxPerHost() + " per camera), "
+				+ "stream connections " + getStreamConnections() + " of "
+				+ getMaxStreams() + " (" + getMaxStreamsPerHost()
+				+ " per camera)";
+	}
+
+	private static HostConfiguration getHostConfiguration(String host, int port) {
+		HostConfiguration config = new HostConfiguration();
+		config.setHost(host, (port < 0) ? 80 : port);
+
+		return config;
+	}
+}
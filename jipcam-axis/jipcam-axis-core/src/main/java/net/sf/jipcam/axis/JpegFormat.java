@@ -21,6 +21,8 @@ package net.sf.jipcam.axis;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 /**
@@ -97,6 +99,104 @@ public class JpegFormat {
 	public static int JPEG_MAX_LENGTH = 3 * 240 * 352;
 
 	/**
+	 * SWAR constants, the low seven bits and the high bit of every byte.
+	 */
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	/**
+	 * Find the next marker prefix (0xFF byte) in the given range of the
+	 * buffer.  Eight bytes are tested at a time, so this is much faster than
+	 * testing each byte.  The buffer's position and limit are ignored.
+	 *
+	 * @param buf to search
+	 * @param from first index to search
+	 * @param to index after the last byte to search
+	 * @return the index of the 0xFF byte, or -1 if not found
+	 */
+	public static int findMarker(ByteBuffer buf, int from, int to) {
+		int i = from;
+		boolean bigEndian = (buf.order() == ByteOrder.BIG_ENDIAN);
+
+		for (; i <= (to - 8); i += 8) {
+			long word = buf.getLong(i);
+
+			//the high bit is set only for bytes that are all ones, adding
+			//one to the low seven bits never carries into the next byte
+			long found = ((word & LOW_BITS) + ONES) & word & HIGH_BITS;
+
+			if (found != 0) {
+				return i +
+				(bigEndian ? (Long.numberOfLeadingZeros(found) >>> 3)
+						   : (Long.numberOfTrailingZeros(found) >>> 3));
+			}
+		}
+
+		for (; i < to; i++) {
+			if (buf.get(i) == (byte) 0xFF) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Find the given two byte marker in the given range of the buffer.
+	 *
+	 * @param buf to search
+	 * @param from first index to search
+	 * @param to index after the last byte to search
+	 * @param marker such as SOI_MARKER or EOF_MARKER
+	 * @return the index of the first marker byte, or -1 if not found
+	 */
+	public static int findMarker(ByteBuffer buf, int from, int to,
+		byte[] marker) {
+		int i = from;
+
+		while ((i = findMarker(buf, i, to - 1)) >= 0) {
+			if (buf.get(i + 1) == marker[1]) {
+				return i;
+			}
+
+			i++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Find the given two byte marker in the given range of the array.
+	 *
+	 * @return the index of the first marker byte, or -1 if not found
+	 */
+	public static int findMarker(byte[] buf, int from, int to, byte[] marker) {
+		return findMarker(ByteBuffer.wrap(buf), from, to, marker);
+	}
+
+	/**
+	 * Find the end of the JPEG image that starts at the given index.  Marker
+	 * segments are skipped using their lengths, and only the entropy coded
+	 * data is searched for markers.
+	 *
+	 * @param buf containing the image
+	 * @param from index of the SOI marker
+	 * @param to index after the last byte to search
+	 * @return the index of the first byte after the EOI marker, or -1 if the
+	 * image doesn't end within the range
+	 */
+	public static int getEndOfImage(byte[] buf, int from, int to) {
+		JpegScanner scanner = new JpegScanner();
+		int end = scanner.scan(ByteBuffer.wrap(buf), from, to - from);
+
+		return (end < 0) ? (-1) : (from + end);
+	}
+
+	/**
+	 * Find a sequence by reading one byte at a time from the stream.  This is
+	 * slow, and only suits short searches; use findMarker() or a JpegScanner
+	 * on buffered bytes to find the end of an image.
 	 *
 	 * @throws java.io.IOException
 	 * @return the index of the first byte after the given sequence, or -1 if not found
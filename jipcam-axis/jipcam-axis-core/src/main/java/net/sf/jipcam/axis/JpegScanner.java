@@ -0,0 +1,161 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Incremental search for the end of a JPEG image.  The scanner walks the
+ * image's marker segments (APPn, COM, DQT, SOF, DHT, SOS, ...) using their
+ * length fields, so header bytes are skipped rather than tested.  Only the
+ * entropy coded data after SOS is searched, eight bytes at a time, for the
+ * next marker.  Stuffed 0xFF00 bytes and restart markers are passed over.
+ *
+ * The scanner remembers where it stopped, so when more bytes arrive the
+ * search continues without re-reading the bytes already scanned.  If the
+ * data doesn't look like a marker where one is expected, the scanner falls
+ * back to searching for the next marker.
+ *
+ * @see http://www.obrador.com/essentialjpeg/headerinfo.htm
+ * @author Jason Thrasher
+ */
+public class JpegScanner {
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int SOI = 0xD8;
+	private static final int TEM = 0x01;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+
+	private int mPos = 0; //next position to examine, relative to the image
+	private boolean isEntropyCoded = false; //inside scan data after SOS
+
+	/**
+	 * Start a new search at the given position.
+	 *
+	 * @param position of the SOI marker, relative to the offset given to
+	 * scan()
+	 */
+	public void reset(int position) {
+		mPos = position;
+		isEntropyCoded = false;
+	}
+
+	/**
+	 * @return the position where the next scan() will continue
+	 */
+	public int getPosition() {
+		return mPos;
+	}
+
+	/**
+	 * Continue the search in the given bytes.  Positions are relative to the
+	 * offset, so the bytes may move between calls as long as the offset
+	 * moves with them.  The buffer's position and limit are ignored.
+	 *
+	 * @param buf containing the image
+	 * @param offset of the bytes that positions are relative to
+	 * @param length of the bytes available from the offset
+	 * @return the position after the EOI marker, or -1 if more bytes are
+	 * needed
+	 */
+	public int scan(ByteBuffer buf, int offset, int length) {
+		while (true) {
+			if (isEntropyCoded) {
+				if (mPos >= length) {
+					return -1;
+				}
+
+				int ff = JpegFormat.findMarker(buf, offset + mPos,
+						offset + length);
+
+				if (ff < 0) {
+					mPos = length;
+
+					return -1;
+				}
+
+				mPos = ff - offset;
+
+				if ((mPos + 1) >= length) {
+					return -1; //need the byte after 0xFF
+				}
+
+				int code = buf.get(ff + 1) & 0xFF;
+
+				if ((code == 0x00) || ((code >= RST0) && (code <= RST7))) {
+					mPos += 2; //stuffed byte or restart marker
+				} else if (code == 0xFF) {
+					mPos++; //fill byte
+				} else {
+					isEntropyCoded = false; //a real marker, walk it
+				}
+
+				continue;
+			}
+
+			if ((mPos + 2) > length) {
+				return -1;
+			}
+
+			if (buf.get(offset + mPos) != (byte) 0xFF) {
+				//not where a marker should be, search for the next one
+				isEntropyCoded = true;
+
+				continue;
+			}
+
+			int code = buf.get(offset + mPos + 1) & 0xFF;
+
+			if (code == EOI) {
+				return mPos + 2;
+			}
+
+			if (code == 0xFF) {
+				mPos++; //fill byte before a marker
+			} else if ((code == SOI) || (code == TEM) ||
+					((code >= RST0) && (code <= RST7))) {
+				mPos += 2; //markers without a segment
+			} else {
+				if ((mPos + 4) > length) {
+					return -1;
+				}
+
+				int segmentLen = ((buf.get(offset + mPos + 2) & 0xFF) << 8) |
+					(buf.get(offset + mPos + 3) & 0xFF);
+
+				if (segmentLen < 2) {
+					//corrupt length, search for the next marker
+					mPos += 2;
+					isEntropyCoded = true;
+
+					continue;
+				}
+
+				mPos += (2 + segmentLen); //skip the marker and its segment
+
+				if (code == SOS) {
+					isEntropyCoded = true;
+				}
+			}
+		}
+	}
+}
@@ -84,7 +84,9 @@ public class JpegSequenceCreator implements MjpegParserListener {
 		try {
 			OutputStream jpegOut = new FileOutputStream(nextFile);
 
-			jpegOut.write(event.getMjpegFrame().getJpegBytes());
+			MjpegFrame frame = event.getMjpegFrame();
+			jpegOut.write(frame.getBytes(), frame.getJpegOffset(),
+				frame.getContentLength());
 
 			jpegOut.close();
 		} catch (Exception e) {
@@ -0,0 +1,342 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * A zero-copy MJPEG frame parser.  Bytes are read from a channel into one
+ * reusable direct ring buffer, and each MjpegFrame returned is a view of the
+ * ring rather than a copy.  Every byte is read from the channel once, and no
+ * frame array is allocated.
+ *
+ * A frame's bytes stay valid until MjpegFrame.release() is called.  When the
+ * ring is full of frames that haven't been released, readMjpegFrame() blocks
+ * until another thread releases one, so callers must release every frame
+ * they are given.  Frames may be released in any order, but space is only
+ * reclaimed from the oldest frame forward.
+ *
+ * The channel should be in blocking mode.  Like the MjpegInputStream, no
+ * other thread should read from the channel while it is wrapped by this
+ * class.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegChannelReader implements MjpegFrameRecycler {
+	private static Logger mLog = LogManager.getLogger(MjpegChannelReader.class); //logging mechanism
+
+	/**
+	 * Default size of the ring buffer, room for several frames in flight.
+	 */
+	public static int DEFAULT_CAPACITY = 8 * MjpegFormat.FRAME_MAX_LENGTH;
+
+	protected int mSequence = 0;
+	protected boolean isContentLengthAvailable = false;
+	protected boolean isFirstPass = true;
+
+	private ReadableByteChannel mChannel;
+	private ByteBuffer mRing; //direct buffer shared by all frame views
+	private int mStart = 0; //first byte of the frame being parsed
+	private int mLimit = 0; //end of the bytes read from the channel
+	private LinkedList mOutstanding = new LinkedList(); //frames holding ring space, oldest first
+	private Object mLock = new Object(); //guards mOutstanding
+	private JpegScanner mScanner = new JpegScanner(); //end of image search
+
+	/**
+	 * Wrap the given channel with a ring buffer of the default capacity.
+	 *
+	 * @param channel to read and parse MJPEG frames from
+	 */
+	public MjpegChannelReader(ReadableByteChannel channel) {
+		this(channel, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Wrap the given channel with a ring buffer of the given capacity.  The
+	 * capacity limits the size of a single frame, and the number of bytes that
+	 * unreleased frames can hold.
+	 *
+	 * @param channel to read and parse MJPEG frames from
+	 * @param capacity of the ring buffer in bytes
+	 */
+	public MjpegChannelReader(ReadableByteChannel channel, int capacity) {
+		mChannel = channel;
+		mRing = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	* Read the next MjpegFrame from the channel.  The frame is a view of the
+	 * ring buffer and must be released when it is no longer needed.
+	 *
+	* @return the next MJPEG frame.
+	* @throws EOFException if the channel ends before the frame is complete
+	* @throws IOException if there is an error while reading data
+	*/
+	public MjpegFrame readMjpegFrame() throws IOException {
+		//all positions are relative to the start of the frame, since filling
+		//the ring may move the partial frame
+		int headerLen = findStartOfImage();
+		int jpegLen = -1;
+
+		if (isFirstPass || isContentLengthAvailable) {
+			jpegLen = parseContentLength(headerLen);
+
+			if (isFirstPass) {
+				isFirstPass = false; //do this once
+				isContentLengthAvailable = (jpegLen >= 0);
+
+				if (!isContentLengthAvailable) {
+					mLog.warn(
+						"couldn't parse content length from header on first pass");
+				}
+			} else if (jpegLen < 0) {
+				mLog.warn(
+					"couldn't parse content length, failover to jpeg EOF search");
+			}
+		}
+
+		if (jpegLen >= 0) {
+			//the fast way
+			ensure(headerLen + jpegLen);
+		} else {
+			//the slow way, search for the end of the image
+			jpegLen = findEndOfImage(headerLen) - headerLen;
+		}
+
+		int frameLen = headerLen + jpegLen;
+		ByteBuffer view = mRing.duplicate();
+		view.limit(mStart + frameLen);
+		view.position(mStart);
+
+		MjpegFrame frame = new MjpegFrame(view, mStart, jpegLen, mSequence++,
+				this);
+
+		synchronized (mLock) {
+			mOutstanding.addLast(frame);
+		}
+
+		mStart += frameLen;
+
+		return frame;
+	}
+
+	/**
+	 * Get the number of frames still holding ring space.  A released frame
+	 * holds its space until every older frame has also been released.
+	 *
+	 * @return count of frames holding ring space
+	 */
+	public int getOutstandingCount() {
+		synchronized (mLock) {
+			return mOutstanding.size();
+		}
+	}
+
+	/**
+	 * Close the underlying channel.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		mChannel.close();
+	}
+
+	/**
+	 * Reclaim ring space from the oldest released frames.
+	 */
+	public void recycle(MjpegFrame frame) {
+		synchronized (mLock) {
+			while (!mOutstanding.isEmpty() &&
+					((MjpegFrame) mOutstanding.getFirst()).isReleased()) {
+				mOutstanding.removeFirst();
+			}
+
+			mLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Find the start of the JPEG data.  Garbage before a frame is discarded
+	 * if no SOI marker is found within a frame's length.
+	 *
+	 * @return the length of the frame header
+	 */
+	private int findStartOfImage() throws IOException {
+		int from = 0;
+
+		while (true) {
+			int soi = JpegFormat.findMarker(mRing, mStart + from, mLimit,
+					JpegFormat.SOI_MARKER);
+
+			if (soi >= 0) {
+				return soi - mStart;
+			}
+
+			//keep the last byte, it may be the first half of the marker
+			from = Math.max(0, mLimit - mStart - 1);
+
+			if (from > MjpegFormat.FRAME_MAX_LENGTH) {
+				mStart += from;
+				from = 0;
+			}
+
+			fill();
+		}
+	}
+
+	/**
+	 * Find the end of the JPEG image, reading from the channel as needed.
+	 * The scanner continues where it stopped each time more bytes are read.
+	 *
+	 * @return the position of the first byte after the EOI marker
+	 */
+	private int findEndOfImage(int headerLen) throws IOException {
+		mScanner.reset(headerLen);
+
+		int end;
+
+		while ((end = mScanner.scan(mRing, mStart, mLimit - mStart)) < 0) {
+			fill();
+		}
+
+		return end;
+	}
+
+	/**
+	 * Parse the Content-Length from the header of the current frame.
+	 *
+	 * @return the Content-Length, or -1 if not found
+	 */
+	private int parseContentLength(int headerLen) {
+		try {
+			return MjpegFormat.parseContentLength(mRing, mStart,
+				mStart + headerLen);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Read from the channel until the current frame has at least the given
+	 * number of bytes.
+	 */
+	private void ensure(int length) throws IOException {
+		while ((mLimit - mStart) < length) {
+			fill();
+		}
+	}
+
+	/**
+	 * Read more bytes from the channel into the ring.  If there is no room
+	 * after the current frame, the partial frame is moved to the front of the
+	 * ring, or this waits until enough frames have been released to make room.
+	 */
+	private void fill() throws IOException {
+		int writeEnd;
+
+		synchronized (mLock) {
+			while ((writeEnd = writableEnd()) <= mLimit) {
+				int partial = mLimit - mStart;
+
+				if (partial >= mRing.capacity()) {
+					throw new IOException("MJPEG frame exceeds the " +
+						mRing.capacity() + " byte ring buffer");
+				}
+
+				int head = headOffset();
+
+				if ((head < 0) || ((head < mStart) && (partial < head))) {
+					//the front of the ring is free, wrap the partial frame
+					compact();
+				} else {
+					try {
+						mLog.debug("ring buffer full, waiting for frame release");
+						mLock.wait();
+					} catch (InterruptedException ie) {
+						throw new IOException(
+							"interrupted waiting for frame release");
+					}
+				}
+			}
+		}
+
+		//don't hold the lock while blocked on the channel, releases only add
+		//space after writeEnd
+		ByteBuffer dst = mRing.duplicate();
+		dst.limit(writeEnd);
+		dst.position(mLimit);
+
+		int count = mChannel.read(dst);
+
+		if (count < 0) {
+			throw new EOFException("end of MJPEG channel");
+		}
+
+		mLimit += count;
+	}
+
+	/**
+	 * Get the end of the free space after mLimit.  Must hold mLock.
+	 */
+	private int writableEnd() {
+		int head = headOffset();
+
+		if (head >= mLimit) {
+			//wrapped, unreleased frames are ahead of the partial frame
+			return head;
+		}
+
+		return mRing.capacity();
+	}
+
+	/**
+	 * Get the ring position of the oldest unreleased frame.  Must hold mLock.
+	 *
+	 * @return the position, or -1 if all frames are released
+	 */
+	private int headOffset() {
+		return mOutstanding.isEmpty() ? (-1)
+									  : ((MjpegFrame) mOutstanding.getFirst()).getOffset();
+	}
+
+	/**
+	 * Move the partial frame to the front of the ring.
+	 */
+	private void compact() {
+		ByteBuffer src = mRing.duplicate();
+		src.limit(mLimit);
+		src.position(mStart);
+
+		ByteBuffer dst = mRing.duplicate();
+		dst.clear();
+		dst.put(src);
+
+		mLimit -= mStart;
+		mStart = 0;
+	}
+}
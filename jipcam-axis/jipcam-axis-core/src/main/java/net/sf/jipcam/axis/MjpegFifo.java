@@ -19,149 +19,335 @@
 
 package net.sf.jipcam.axis;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Provides notification of new frame events to the servlet, from the parser
  * thread. This can be used to hand off MJPEG frames from one thread to another
- * in a non-blocking way by treating the hand-off as a FIFO data structure. The
- * MJPEG frame source thread (which creates MJPEG frames), will add to the FIFO,
- * while the destination thread will wait until at least one frame is in the
- * FIFO.
+ * by treating the hand-off as a FIFO data structure. The MJPEG frame source
+ * thread (which creates MJPEG frames), will add to the FIFO, while the
+ * destination thread will wait until at least one frame is in the FIFO.
+ * 
+ * The FIFO is a fixed size ring. When it's full, the overflow policy decides
+ * what happens to a new frame: the source can block until there's space
+ * (BLOCK), the oldest frame can be dropped to make room (DROP_OLDEST), the new
+ * frame can be dropped (DROP_NEWEST), or only the newest frame can be kept
+ * regardless of the size (KEEP_LATEST). Dropped frames are released and
+ * counted.
  * 
  * @author Jason Thrasher
  */
 public class MjpegFifo implements MjpegParserListener {
-	private static Logger mLog;
+	/**
+	 * When full, the source blocks until a frame is taken.
+	 */
+	public static final int BLOCK = 0;
+
+	/**
+	 * When full, the oldest frame is dropped to make room.
+	 */
+	public static final int DROP_OLDEST = 1;
+
+	/**
+	 * When full, the new frame is dropped.
+	 */
+	public static final int DROP_NEWEST = 2;
+
+	/**
+	 * Only the newest frame is kept; older frames are dropped.
+	 */
+	public static final int KEEP_LATEST = 3;
+
+	private static Logger mLog = LogManager.getLogger(MjpegFifo.class);
+
+	private MjpegFrame[] mRing; // fifo of frames
+
+	private int mHead = 0; // index of the oldest frame
 
-	private FifoQueue frameFifo; // fifo of frames
+	private int mCount = 0; // frames in the fifo
 
+	private int mPolicy;
+
+	private long mDropped = 0; // frames dropped by the overflow policy
+
+	private ReentrantLock mLock = new ReentrantLock();
+
+	private Condition mNotEmpty = mLock.newCondition(); // a frame was added
+
+	private Condition mNotFull = mLock.newCondition(); // a frame was taken
+
+	private Condition mEmpty = mLock.newCondition(); // the last frame was taken
+
+	/**
+	 * Create a fifo that blocks the source when full.
+	 * 
+	 * @param size
+	 *            maximum number of frames held
+	 */
 	public MjpegFifo(int size) {
-		frameFifo = new FifoQueue();
+		this(size, BLOCK);
 	}
 
+	/**
+	 * Create a fifo.
+	 * 
+	 * @param size
+	 *            maximum number of frames held
+	 * @param policy
+	 *            for a new frame when full: BLOCK, DROP_OLDEST, DROP_NEWEST,
+	 *            or KEEP_LATEST
+	 */
+	public MjpegFifo(int size, int policy) {
+		if ((policy < BLOCK) || (policy > KEEP_LATEST)) {
+			throw new IllegalArgumentException("unknown overflow policy: "
+					+ policy);
+		}
+
+		mRing = new MjpegFrame[(policy == KEEP_LATEST) ? 1 : Math.max(1, size)];
+		mPolicy = policy;
+	}
+
+	/**
+	 * Take the next frame from the fifo, blocking until one is available. The
+	 * caller owns the reference the fifo held, and should release() the
+	 * frame when done with it.
+	 * 
+	 * @return the next frame
+	 * @throws InterruptedException
+	 */
 	public MjpegFrame getMjpegFrame() throws InterruptedException {
-		return (MjpegFrame) frameFifo.removeOne(); // blocks until there is a frame
-		// in the fifo
+		mLock.lockInterruptibly();
+
+		try {
+			while (mCount == 0) {
+				mNotEmpty.await(); // block until there is a frame in the fifo
+			}
+
+			return take();
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Take the next frame from the fifo, waiting up to the given time for one
+	 * to be available.
+	 * 
+	 * @param timeoutMillis
+	 *            longest time to wait
+	 * @return the next frame, or null if none arrived in time
+	 * @throws InterruptedException
+	 */
+	public MjpegFrame pollMjpegFrame(long timeoutMillis)
+			throws InterruptedException {
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		mLock.lockInterruptibly();
+
+		try {
+			while (mCount == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+
+				nanos = mNotEmpty.awaitNanos(nanos);
+			}
+
+			return take();
+		} finally {
+			mLock.unlock();
+		}
 	}
 
 	public boolean isEmpty() {
-		return frameFifo.isEmpty();
+		mLock.lock();
+
+		try {
+			return mCount == 0;
+		} finally {
+			mLock.unlock();
+		}
 	}
 
 	/**
-	 * Allow users to query if we're full, and subsequent writes will block.
+	 * Allow users to query if we're full, and subsequent writes will block or
+	 * drop a frame, depending on the overflow policy.
 	 * 
 	 * @return true if full, false otherwise
 	 */
 	public boolean isFull() {
-		return frameFifo.isFull();
-	}
+		mLock.lock();
 
-	public void removeAll() throws InterruptedException {
-		frameFifo.removeAll();
+		try {
+			return mCount == mRing.length;
+		} finally {
+			mLock.unlock();
+		}
 	}
 
 	/**
-	 * Anyone can add a frame to the fifo here ...this allows interleaving of
-	 * multiple cameras into one FIFO
-	 * 
-	 * @param frame
+	 * @return the number of frames in the fifo
 	 */
-	public void addMjpegFrame(MjpegFrame frame) {
-		// try {
-		frameFifo.add(frame); // blocks until there is space in the fifo
+	public int size() {
+		mLock.lock();
 
-		// } catch (InterruptedException ie) {
-		// mLog.log(Level.WARN, "failed to add next frame", ie);
-		// }
+		try {
+			return mCount;
+		} finally {
+			mLock.unlock();
+		}
 	}
 
 	/**
-	 * listener interface method
-	 * 
-	 * @param frame
+	 * @return the maximum number of frames held
 	 */
-	public void onMjpegParserEvent(MjpegParserEvent event) {
-		addMjpegFrame(event.getMjpegFrame());
+	public int getCapacity() {
+		return mRing.length;
 	}
 
-	public void waitUntilEmpty() throws InterruptedException {
-		frameFifo.waitUntilEmpty();
+	/**
+	 * @return the overflow policy
+	 */
+	public int getPolicy() {
+		return mPolicy;
 	}
 
-	private class FifoQueue {
-		private List mQueue = Collections.synchronizedList(new LinkedList());
-
-		private Object queueLock = new Object();
+	/**
+	 * @return count of frames dropped by the overflow policy
+	 */
+	public long getDroppedCount() {
+		mLock.lock();
 
-		public FifoQueue() {
+		try {
+			return mDropped;
+		} finally {
+			mLock.unlock();
 		}
+	}
 
-		public Object add(Object element) {
-			synchronized (queueLock) {
-				mQueue.add(element);
-				queueLock.notify();
-			}
+	/**
+	 * Release every frame in the fifo.
+	 */
+	public void removeAll() throws InterruptedException {
+		mLock.lock();
 
-			return element;
+		try {
+			while (mCount > 0) {
+				take().release();
+			}
+		} finally {
+			mLock.unlock();
 		}
+	}
 
-		/**
-		 * Remove the first object from the queue
-		 * 
-		 * @return the first object, or null if the queue is empty
-		 */
-		public Object remove() {
-			// test that there's an object in the list to avoid IndexOutOfBounds
-			return mQueue.isEmpty() ? null : mQueue.remove(0);
-		}
+	/**
+	 * Anyone can add a frame to the fifo here ...this allows interleaving of
+	 * multiple cameras into one FIFO. The fifo retains the frame until it's
+	 * taken by getMjpegFrame(). When the fifo is full, the overflow policy
+	 * decides whether this blocks, or which frame is dropped.
+	 * 
+	 * @param frame
+	 * @return true if the frame was added, false if it was dropped
+	 */
+	public boolean addMjpegFrame(MjpegFrame frame) {
+		mLock.lock();
+
+		try {
+			while (mCount == mRing.length) {
+				switch (mPolicy) {
+				case BLOCK:
 
-		/**
-		 * This method will block until at least one object exists in the queue.
-		 * The object will be removed and returned.
-		 * 
-		 * @return
-		 */
-		public Object removeOne() {
-			synchronized (queueLock) {
-				while (mQueue.isEmpty()) {
 					try {
-						queueLock.wait(); // block until object exists
+						mNotFull.await(); // blocks until there is space
 					} catch (InterruptedException ie) {
-						//mLog.debug(ie);
-						return null;	//TODO: improve this
+						Thread.currentThread().interrupt();
+						drop("interrupted while full");
+
+						return false;
 					}
+
+					break;
+
+				case DROP_NEWEST:
+					drop("fifo full");
+
+					return false;
+
+				default:
+					take().release();
+					drop("fifo full");
 				}
-				return mQueue.remove(0);
 			}
 
-		}
+			int tail = mHead + mCount;
+
+			if (tail >= mRing.length) {
+				tail -= mRing.length;
+			}
 
-		public boolean isEmpty() {
-			return mQueue.isEmpty();
+			mRing[tail] = frame.retain();
+			mCount++;
+			mNotEmpty.signal();
+
+			return true;
+		} finally {
+			mLock.unlock();
 		}
+	}
+
+	/**
+	 * listener interface method
+	 * 
+	 * @param frame
+	 */
+	public void onMjpegParserEvent(MjpegParserEvent event) {
+		addMjpegFrame(event.getMjpegFrame());
+	}
 
-		public boolean isFull() {
-			return false;
+	/**
+	 * Block until every frame has been taken from the fifo.
+	 */
+	public void waitUntilEmpty() throws InterruptedException {
+		mLock.lockInterruptibly();
+
+		try {
+			while (mCount > 0) {
+				mEmpty.await();
+			}
+		} finally {
+			mLock.unlock();
 		}
+	}
+
+	/**
+	 * Remove the oldest frame. The lock must be held, and the fifo must not
+	 * be empty.
+	 */
+	private MjpegFrame take() {
+		MjpegFrame frame = mRing[mHead];
+		mRing[mHead] = null;
+		mHead = (mHead + 1 == mRing.length) ? 0 : (mHead + 1);
+		mCount--;
+		mNotFull.signal();
 
-		public void removeAll() {
-			mQueue.clear();
+		if (mCount == 0) {
+			mEmpty.signalAll();
 		}
 
-		public void waitUntilEmpty() {
-			while (!mQueue.isEmpty()) {
-				try {
-					Thread.sleep(1000);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
+		return frame;
+	}
+
+	private void drop(String reason) {
+		mDropped++;
+
+		if (mLog.isDebugEnabled()) {
+			mLog.debug("dropped frame, " + reason + ", " + mDropped
+					+ " dropped");
 		}
 	}
 }
@@ -19,9 +19,8 @@
 
 package net.sf.jipcam.axis;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Properties;
+import java.nio.ByteBuffer;
 
 
 public class MjpegFormat extends JpegFormat {
@@ -55,22 +54,189 @@ public class MjpegFormat extends JpegFormat {
 	public static int FRAME_MAX_LENGTH = JpegFormat.JPEG_MAX_LENGTH +
 		HEADER_MAX_LENGTH;
 
+	/**
+	 * Header names as bytes, for parsing without creating Strings.
+	 */
+	static final byte[] CONTENT_TYPE_BYTES = toAscii(CONTENT_TYPE);
+	static final byte[] CONTENT_LENGTH_BYTES = toAscii(CONTENT_LENGTH);
+	static final byte[] DELTA_TIME_BYTES = toAscii(DELTA_TIME);
+
 	/**
 	 * Parse the content length string for a MJPEG frame from the given bytes.
 	 * The string is parsed into an int and returned.
 	 *
-	 * @return the Content-Length, or -1 if not found
+	 * @return the Content-Length
+	 * @throws NumberFormatException if the header has no Content-Length
 	 */
 	public static int parseContentLength(byte[] headerBytes)
 		throws IOException, NumberFormatException {
-		return parseContentLength(new ByteArrayInputStream(headerBytes));
+		return parseContentLength(headerBytes, 0, headerBytes.length);
 	}
 
-	private static int parseContentLength(ByteArrayInputStream headerIn)
-		throws IOException, NumberFormatException {
-		Properties props = new Properties();
-		props.load(headerIn);
+	/**
+	 * Parse the content length from a range of the given bytes.
+	 *
+	 * @param headerBytes containing the header
+	 * @param offset of the first header byte
+	 * @param length of the header
+	 * @return the Content-Length
+	 * @throws NumberFormatException if the header has no Content-Length
+	 */
+	public static int parseContentLength(byte[] headerBytes, int offset,
+		int length) throws IOException, NumberFormatException {
+		return parseContentLength(ByteBuffer.wrap(headerBytes), offset,
+			offset + length);
+	}
+
+	/**
+	 * Parse the content length from a range of the given buffer.  The bytes
+	 * are parsed in place; no Strings or Properties are created.
+	 *
+	 * @param header containing the header
+	 * @param from index of the first header byte
+	 * @param to index after the last header byte
+	 * @return the Content-Length
+	 * @throws NumberFormatException if the header has no Content-Length
+	 */
+	public static int parseContentLength(ByteBuffer header, int from, int to)
+		throws NumberFormatException {
+		int value = findHeaderValue(header, from, to, CONTENT_LENGTH_BYTES);
+
+		if (value < 0) {
+			throw new NumberFormatException("no " + CONTENT_LENGTH +
+				" header");
+		}
+
+		return parseInt(header, value, getEndOfLine(header, value, to));
+	}
+
+	/**
+	 * Find the value of a "Name: value" header line.  Names are matched
+	 * without regard to case.
+	 *
+	 * @param header containing the header lines
+	 * @param from index of the first header byte
+	 * @param to index after the last header byte
+	 * @param name of the header, in ASCII
+	 * @return the index of the first byte of the value, or -1 if not found
+	 */
+	static int findHeaderValue(ByteBuffer header, int from, int to,
+		byte[] name) {
+		int line = from;
+
+		while (line < to) {
+			int i = skipSpaces(header, line, to);
+
+			if (matchesIgnoreCase(header, i, to, name)) {
+				i = skipSpaces(header, i + name.length, to);
+
+				if ((i < to) &&
+						((header.get(i) == ':') || (header.get(i) == '='))) {
+					return skipSpaces(header, i + 1, to);
+				}
+			}
+
+			//next line
+			while ((line < to) && (header.get(line) != '\n')) {
+				line++;
+			}
+
+			line++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Find the end of the header line that contains the given index, without
+	 * trailing whitespace.
+	 *
+	 * @return index after the last non-whitespace byte of the line
+	 */
+	static int getEndOfLine(ByteBuffer header, int from, int to) {
+		int end = from;
+
+		while ((end < to) && (header.get(end) != '\r') &&
+				(header.get(end) != '\n')) {
+			end++;
+		}
+
+		while ((end > from) && isSpace(header.get(end - 1))) {
+			end--;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Parse a non-negative decimal number from ASCII digits.
+	 *
+	 * @throws NumberFormatException if the range isn't all digits
+	 */
+	static int parseInt(ByteBuffer header, int from, int to)
+		throws NumberFormatException {
+		if (from >= to) {
+			throw new NumberFormatException("empty header value");
+		}
+
+		int value = 0;
+
+		for (int i = from; i < to; i++) {
+			int digit = header.get(i) - '0';
+
+			if ((digit < 0) || (digit > 9) ||
+					(value > ((Integer.MAX_VALUE - digit) / 10))) {
+				throw new NumberFormatException("bad header value at " + i);
+			}
+
+			value = (value * 10) + digit;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Test if the bytes at the index match the name, ignoring ASCII case.
+	 */
+	static boolean matchesIgnoreCase(ByteBuffer header, int from, int to,
+		byte[] name) {
+		if ((to - from) < name.length) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length; i++) {
+			int b = header.get(from + i);
+			int n = name[i];
+
+			if ((b != n) &&
+					(((n | 0x20) < 'a') || ((n | 0x20) > 'z') ||
+					((b | 0x20) != (n | 0x20)))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static int skipSpaces(ByteBuffer header, int from, int to) {
+		while ((from < to) && isSpace(header.get(from))) {
+			from++;
+		}
+
+		return from;
+	}
+
+	private static boolean isSpace(byte b) {
+		return (b == ' ') || (b == '\t');
+	}
+
+	private static byte[] toAscii(String s) {
+		byte[] bytes = new byte[s.length()];
+
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
 
-		return Integer.parseInt(props.getProperty(MjpegFormat.CONTENT_LENGTH));
+		return bytes;
 	}
 }
@@ -24,7 +24,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.imageio.ImageIO;
 
@@ -32,22 +34,83 @@ import javax.imageio.ImageIO;
 /**
  * Container for MJPEG Data Frame.
  *
+ * A frame either owns a byte array, or is a view of bytes that belong to a
+ * reader such as the MjpegChannelReader.  Views are only valid until
+ * release() is called, after which the reader may overwrite the bytes.
+ *
+ * Frames are reference counted.  A new frame has one reference, held by
+ * whoever created it.  Code that keeps a frame beyond the call it was given
+ * in, such as a listener that queues it, calls retain() and later
+ * release().  When the last reference is released, pooled or view storage
+ * goes back to its owner.  A frame that owns its array is never recycled, so
+ * its count is only bookkeeping: it may be retained again after its last
+ * release, as by a listener of a parser that already released it.
+ *
  * @author Jason Thrasher
  */
 public class MjpegFrame {
-	private byte[] mData; //raw bytes of frame
+	private byte[] mData; //raw bytes of frame, lazily copied for views
+	private ByteBuffer mBuffer; //view of the frame bytes, or null
+	private int mLength; //length of the frame data
+	private int mOffset; //position of the view in the owner's storage
+	private MjpegFrameRecycler mRecycler; //owner of the storage, or null
+	private volatile int mRefCount = 1; //references held to this frame
+	private static final AtomicIntegerFieldUpdater REF_COUNT = AtomicIntegerFieldUpdater.newUpdater(MjpegFrame.class,
+			"mRefCount");
 
 	//	private int mHeaderLen;	//length of header data
 	private int mJpegLen; //length of jpeg data
 	private int mSeq; //sequence number
 	private Properties mProps; //header properties
+	private MjpegHeader mHeader; //typed view of the header, created on demand
 
 	public MjpegFrame(byte[] frame, int jpegLen, int sequence) {
 		mData = frame;
+		mLength = frame.length;
 		mJpegLen = jpegLen;
 		mSeq = sequence;
 	}
 
+	/**
+	 * Create a frame that is a view of the given buffer.  The buffer's
+	 * remaining bytes are the frame, and the last jpegLen of them are the
+	 * JPEG data.  No bytes are copied.
+	 *
+	 * @param frame buffer positioned at the start of the frame
+	 * @param jpegLen the length of the JPEG data at the end of the frame
+	 * @param sequence the frame number to bundle with this frame
+	 */
+	public MjpegFrame(ByteBuffer frame, int jpegLen, int sequence) {
+		mBuffer = frame.slice();
+		mLength = mBuffer.remaining();
+		mJpegLen = jpegLen;
+		mSeq = sequence;
+	}
+
+	/**
+	 * Create a frame in an array that is owned by the given recycler, such as
+	 * an array borrowed from an MjpegFramePool.  The array may be longer than
+	 * the frame.
+	 */
+	MjpegFrame(byte[] frame, int length, int jpegLen, int sequence,
+		MjpegFrameRecycler recycler) {
+		mData = frame;
+		mLength = length;
+		mJpegLen = jpegLen;
+		mSeq = sequence;
+		mRecycler = recycler;
+	}
+
+	/**
+	 * Create a view frame whose storage is owned by the given recycler.
+	 */
+	MjpegFrame(ByteBuffer frame, int offset, int jpegLen, int sequence,
+		MjpegFrameRecycler recycler) {
+		this(frame, jpegLen, sequence);
+		mOffset = offset;
+		mRecycler = recycler;
+	}
+
 	/**
 	* Create a data frame given raw JPEG data.
 	 *
@@ -70,6 +133,7 @@ public class MjpegFrame {
 		}
 
 		mData = out.toByteArray();
+		mLength = mData.length;
 	}
 
 	/**
@@ -90,31 +154,155 @@ public class MjpegFrame {
 	}
 
 	public byte[] getJpegBytes() {
-		byte[] jpeg = new byte[mJpegLen];
-		System.arraycopy(mData, mData.length - mJpegLen, jpeg, 0, mJpegLen);
-
-		return jpeg;
+		return copyBytes(mLength - mJpegLen, mJpegLen);
 	}
 
 	public byte[] getHeaderBytes() {
-		byte[] header = new byte[mData.length - mJpegLen];
-		System.arraycopy(mData, 0, header, 0, header.length);
-
-		return header;
+		return copyBytes(0, mLength - mJpegLen);
 	}
 
 	/**
 	 * Get this MJPEG frame with the boundary, properties, and JPEG data bytes.
 	 * Use this method for re-writing the frame to a stream.
 	 *
+	 * For a view frame the bytes are copied out of the view the first time
+	 * this is called.  A pooled frame's array may be longer than the frame,
+	 * so only the first getLength() bytes are valid.
+	 *
 	 * @return frame bytes
 	 */
 	public byte[] getBytes() {
+		if (mData == null) {
+			mData = copyBytes(0, mLength);
+		}
+
 		return mData;
 	}
 
+	/**
+	 * Get the frame bytes without copying.  The returned buffer is positioned
+	 * at the start of the frame, and limited to the end of the JPEG data.
+	 * For a view frame the buffer is only valid until release() is called.
+	 *
+	 * @return frame bytes as a buffer
+	 */
+	public ByteBuffer getBuffer() {
+		if (mBuffer == null) {
+			return ByteBuffer.wrap(mData, 0, mLength);
+		}
+
+		return mBuffer.duplicate();
+	}
+
 	public int getLength() {
-		return mData.length;
+		return mLength;
+	}
+
+	/**
+	 * Get the JPEG data without copying.  The returned buffer is positioned
+	 * at the SOI marker, and limited to the end of the JPEG data.
+	 *
+	 * @return JPEG bytes as a buffer
+	 */
+	public ByteBuffer getJpegBuffer() {
+		ByteBuffer jpeg = getBuffer();
+		jpeg.position(getJpegOffset());
+
+		return jpeg;
+	}
+
+	/**
+	 * Get the position of the first JPEG byte, relative to the start of the
+	 * frame.  For an array frame, the JPEG data is found at this offset in
+	 * getBytes().
+	 *
+	 * @return offset of the JPEG data
+	 */
+	public int getJpegOffset() {
+		return mLength - mJpegLen;
+	}
+
+	/**
+	 * Position of this frame in the storage of its owner.
+	 */
+	int getOffset() {
+		return mOffset;
+	}
+
+	/**
+	 * Add a reference to this frame, which must be matched by a later call
+	 * to release().
+	 *
+	 * @return this frame
+	 * @throws IllegalStateException if the frame is pooled or a view, and was
+	 *         already fully released
+	 */
+	public MjpegFrame retain() {
+		int count;
+
+		do {
+			count = mRefCount;
+
+			if ((count <= 0) && (mRecycler != null)) {
+				throw new IllegalStateException("frame " + mSeq +
+					" was already released");
+			}
+		} while (!REF_COUNT.compareAndSet(this, count, count + 1));
+
+		return this;
+	}
+
+	/**
+	 * Drop a reference to this frame.  When the last reference is released,
+	 * pooled and view frames hand their storage back to its owner, and the
+	 * frame must not be used again.  Releasing a frame that was already fully
+	 * released has no effect.
+	 */
+	public void release() {
+		int count;
+
+		do {
+			count = mRefCount;
+
+			if (count <= 0) {
+				return;
+			}
+		} while (!REF_COUNT.compareAndSet(this, count, count - 1));
+
+		if ((count == 1) && (mRecycler != null)) {
+			mRecycler.recycle(this);
+		}
+	}
+
+	/**
+	 * @return true if every reference to this frame has been released
+	 */
+	public boolean isReleased() {
+		return mRefCount <= 0;
+	}
+
+	/**
+	 * @return the count of references held to this frame
+	 */
+	public int getRefCount() {
+		return mRefCount;
+	}
+
+	/**
+	 * Copy bytes from the frame, regardless of how the frame is stored.
+	 */
+	private byte[] copyBytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+
+		if (mData != null) {
+			System.arraycopy(mData, offset, bytes, 0, length);
+		} else {
+			ByteBuffer view = mBuffer.duplicate();
+			view.position(offset);
+			view.get(bytes);
+		}
+
+		return bytes;
 	}
 
 	/**
@@ -133,21 +321,50 @@ public class MjpegFrame {
 	}
 
 	/**
-	* The "Delta-time" header may be encoded in the MJPEG stream.
+	 * Get a typed view of the frame header.  The header is parsed in place
+	 * from the frame bytes, so for a view frame it is only valid until
+	 * release() is called.
+	 *
+	 * @return the frame header
+	 */
+	public MjpegHeader getHeader() {
+		if (mHeader == null) {
+			mHeader = new MjpegHeader(getBuffer(), 0, getJpegOffset());
+		}
+
+		return mHeader;
+	}
+
+	/**
+	 * The "Delta-time" header may be encoded in the MJPEG stream.
 	 * This value is parsed from the MJPEG frame data, and may not be accurate.
-	* @return
-	*/
+	 *
+	 * @return milliseconds since the previous frame
+	 * @throws NumberFormatException if the header has no Delta-time
+	 */
 	public int getDeltaTime() {
-		return Integer.parseInt(getProperties().getProperty(MjpegFormat.DELTA_TIME));
+		int deltaTime = getHeader().getDeltaTime();
+
+		if (deltaTime == MjpegHeader.UNKNOWN) {
+			throw new NumberFormatException("no " + MjpegFormat.DELTA_TIME +
+				" header");
+		}
+
+		return deltaTime;
 	}
 
+	/**
+	 * Load every header line into Properties.  This creates Strings for the
+	 * whole header; use getHeader() for the standard values.
+	 *
+	 * @return the header properties
+	 */
 	public Properties getProperties() {
 		if (mProps == null) {
 			mProps = new Properties();
 
 			try {
-				mProps.load(new ByteArrayInputStream(mData, 0,
-						mData.length - mJpegLen));
+				mProps.load(new ByteArrayInputStream(getHeaderBytes()));
 			} catch (IOException ioe) {
 				//very unlikely
 				ioe.printStackTrace();
@@ -158,7 +375,9 @@ public class MjpegFrame {
 	}
 
 	public Image getImage() {
-		InputStream is = new ByteArrayInputStream(getJpegBytes());
+		InputStream is = (mData == null)
+			? new ByteArrayInputStream(getJpegBytes())
+			: new ByteArrayInputStream(mData, getJpegOffset(), mJpegLen);
 
 		try {
 			return ImageIO.read(is);
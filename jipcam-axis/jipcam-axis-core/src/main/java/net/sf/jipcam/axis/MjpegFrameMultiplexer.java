@@ -19,11 +19,20 @@
 
 package net.sf.jipcam.axis;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
 import javax.swing.event.EventListenerList;
 
 /**
  * Multiplex event distribution to multiple MjpegFrame event consumers.
  * 
+ * Listeners are normally called in turn on the thread that notifies them.
+ * Listeners added with a queue size are instead called on their own
+ * executor through an AsyncMjpegParserListener, so a slow listener can't
+ * stall the parser or the other listeners.
+ * 
  * @author Jason Thrasher
  * 
  */
@@ -34,6 +43,9 @@ public class MjpegFrameMultiplexer {
 																		// parsing
 																		// events
 
+	private Map mAsyncListeners = new HashMap(); // queued wrapper of each
+												// async listener
+
 	/**
 	 * Add new parse listeners. This is how other code gets notification of new
 	 * MJPEG frames.
@@ -50,7 +62,56 @@ public class MjpegFrameMultiplexer {
 	 * @param listener
 	 */
 	public void removeMjpegParserListener(MjpegParserListener listener) {
-		mListeners.remove(MjpegParserListener.class, listener);
+		AsyncMjpegParserListener async;
+
+		synchronized (mAsyncListeners) {
+			async = (AsyncMjpegParserListener) mAsyncListeners.remove(listener);
+		}
+
+		if (async != null) {
+			mListeners.remove(MjpegParserListener.class, async);
+			async.close();
+		} else {
+			mListeners.remove(MjpegParserListener.class, listener);
+		}
+	}
+
+	/**
+	 * Add a listener that is called on its own executor, through a bounded
+	 * queue. Remove it with removeMjpegParserListener(listener), which also
+	 * releases its queued frames. Adding the listener again replaces its
+	 * queue, and the old one is closed.
+	 * 
+	 * @param listener
+	 * @param size
+	 *            of the listener's queue
+	 * @param policy
+	 *            when the queue is full, one of the MjpegFifo policies
+	 * @param executor
+	 *            to run the listener, or null for a thread of its own
+	 * @return the queue in front of the listener, for its lag metrics
+	 */
+	public AsyncMjpegParserListener addMjpegParserListener(
+			MjpegParserListener listener, int size, int policy,
+			Executor executor) {
+		AsyncMjpegParserListener async = new AsyncMjpegParserListener(
+				listener, size, policy, executor);
+		AsyncMjpegParserListener replaced;
+
+		synchronized (mAsyncListeners) {
+			replaced = (AsyncMjpegParserListener) mAsyncListeners.put(listener,
+					async);
+		}
+
+		if (replaced != null) {
+			// one queue per listener, or it would get every event twice
+			mListeners.remove(MjpegParserListener.class, replaced);
+			replaced.close();
+		}
+
+		mListeners.add(MjpegParserListener.class, async);
+
+		return async;
 	}
 
 	/**
@@ -19,7 +19,11 @@
 
 package net.sf.jipcam.axis;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -32,6 +36,15 @@ import org.apache.logging.log4j.Logger;
  * frame boundary. The input stream can begin mid-frame and this parser will
  * still find the first complete MJPEG data frame.
  * 
+ * When the multipart boundary of the stream is known, frames are split on the
+ * boundary instead of by searching the JPEG data.
+ * 
+ * By default the parser runs on its own thread. Given an Executor, it runs as
+ * a task of the executor instead, such as a virtual thread per task executor
+ * on Java 21. Suspend, resume, and stop use a ReentrantLock rather than
+ * monitors, so a parser waiting to resume doesn't pin a virtual thread to its
+ * carrier.
+ * 
  * Axis camera JPEG images are 4:2:2
  * 
  * @see http://www2.axis.com/files/developer/camera/JPEG_format_1_1.pdf
@@ -42,19 +55,34 @@ public class MjpegFrameParser implements Runnable {
 	private static Logger mLog = LogManager.getLogger(MjpegFrameParser.class); // logging
 																			// mechanism
 
+	private static final int READ_SIZE = 8192; // bytes read per decode
+
 	protected MjpegFrameMultiplexer frameMuxer = new MjpegFrameMultiplexer();
 
 	// protected EventListenerList mListeners = new EventListenerList(); //event
 	// listeners for parsing events
-	private volatile Thread mThread; // thread management
+
+	private Executor mExecutor; // runs the parser, or null for a new thread
 
 	private volatile boolean mThreadSuspended = false; // track thread
 														// suspended or not
 
-	private Object mLock = new Object(); // lock for thread
+	private volatile Run mRun; // stop flag of the current run
+
+	private boolean isActive = false; // started and not yet finished
+
+	private ReentrantLock mLock = new ReentrantLock(); // lock for thread
+
+	private Condition mStateChanged = mLock.newCondition(); // resumed,
+															// stopped, or
+															// finished
 
 	private InputStream mIn;
 
+	private MjpegFramePool mPool; // optional pool of frame arrays
+
+	private String mBoundary; // multipart boundary, or null to find JPEGs
+
 	/**
 	 * Create a new frame parser with the given input stream, and given buffer
 	 * size.
@@ -67,10 +95,39 @@ public class MjpegFrameParser implements Runnable {
 	 *            from any datasource.
 	 */
 	public MjpegFrameParser(InputStream mjpegStream) {
+		this(mjpegStream, (mjpegStream instanceof MultipartInputStream) ?
+				((MultipartInputStream) mjpegStream).getBoundary() : null);
+	}
+
+	/**
+	 * Create a new frame parser that splits frames on the multipart boundary
+	 * of the stream, using a MultipartDecoder. Streams from CameraAPI carry
+	 * their boundary, and are split this way by the other constructor.
+	 * 
+	 * @param mjpegStream
+	 *            from any datasource.
+	 * @param boundary
+	 *            of the stream, or null to find frames by their JPEG markers
+	 */
+	public MjpegFrameParser(InputStream mjpegStream, String boundary) {
 		mIn = mjpegStream;
+		mBoundary = boundary;
 		mThreadSuspended = false;
 	}
 
+	/**
+	 * Parse frames into arrays borrowed from the given pool. The parser
+	 * releases each frame after all listeners have been notified, so a
+	 * listener that keeps a frame must call MjpegFrame.retain(), and release
+	 * it when done. Set this before starting the parser.
+	 * 
+	 * @param pool
+	 *            to borrow frame arrays from, or null to allocate
+	 */
+	public void setFramePool(MjpegFramePool pool) {
+		mPool = pool;
+	}
+
 	/**
 	 * Add new parse listeners. This is how other code gets notification of new
 	 * MJPEG frames.
@@ -108,6 +165,18 @@ public class MjpegFrameParser implements Runnable {
 //		}
 //	}
 
+	/**
+	 * Run the parser as a task of the given executor, instead of on a new
+	 * thread. On Java 21, Executors.newVirtualThreadPerTaskExecutor() runs
+	 * each parser on a virtual thread. Set this before starting the parser.
+	 * 
+	 * @param executor
+	 *            to run the parser, or null to start a new thread
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+
 	/**
 	 * Start the parser thread in a blocking fashion. Parser will notify all
 	 * listeners of MJPEG parse events. This call will block until the end of
@@ -116,120 +185,263 @@ public class MjpegFrameParser implements Runnable {
 	public void parse() {
 		mLog.log(Level.DEBUG, "parse called");
 		start();
-
-		try {
-			mThread.join(); // wait until parsing is complete before returning
-		} catch (InterruptedException interE) {
-			interE.printStackTrace();
-		}
+		join(); // wait until parsing is complete before returning
 	}
 
 	/**
-	 * Start the parsing thread.
+	 * Start the parsing thread, or submit the parser to its executor.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the parser is running, or stopped but still blocked in a
+	 *             read
 	 */
 	public void start() {
 		mLog.log(Level.DEBUG, "starting parser thread");
 
-		synchronized (mLock) {
-			if (mThread == null) {
-				mThread = new Thread(this, this.getClass().getName());
+		mLock.lock();
+
+		try {
+			final Run run = begin();
+			Runnable task = new Runnable() {
+				public void run() {
+					MjpegFrameParser.this.run(run);
+				}
+			};
+
+			if (mExecutor != null) {
+				try {
+					mExecutor.execute(task);
+				} catch (RuntimeException re) {
+					isActive = false; // rejected by the executor
+					throw re;
+				}
+			} else {
+				Thread thread = new Thread(task, this.getClass().getName());
 
 				// allow to exit cleanly if the VM goes down
-				mThread.setDaemon(true);
+				thread.setDaemon(true);
+				thread.start();
 			}
 
-			mThread.start();
 			mLog.log(Level.DEBUG, "started thread");
-			mLock.notify();
+		} finally {
+			mLock.unlock();
 		}
 	}
 
 	public void stop() {
 		mLog.log(Level.DEBUG, "stopping parser thread");
 
-		synchronized (mLock) {
-			mThread = null;
-			mLock.notify();
+		mLock.lock();
+
+		try {
+			if (mRun != null) {
+				mRun.isStopped = true;
+			}
+
+			mStateChanged.signalAll();
+		} finally {
+			mLock.unlock();
 		}
 	}
 
 	public void suspend() {
-		synchronized (mLock) {
+		mLock.lock();
+
+		try {
 			mThreadSuspended = true;
+		} finally {
+			mLock.unlock();
 		}
 	}
 
 	public void resume() {
-		synchronized (mLock) {
+		mLock.lock();
+
+		try {
 			mThreadSuspended = false;
-			mLock.notify();
+			mStateChanged.signalAll();
+		} finally {
+			mLock.unlock();
 		}
 	}
 
 	public boolean isAlive() {
-		boolean alive;
+		mLock.lock();
 
-		synchronized (mLock) {
-			alive = (mThread == null) ? false : mThread.isAlive();
-			mLock.notify();
+		try {
+			return isActive;
+		} finally {
+			mLock.unlock();
 		}
-
-		return alive;
 	}
 
+	/**
+	 * Wait until the parser has finished.
+	 */
 	public void join() {
+		mLock.lock();
+
 		try {
-			mThread.join(); // wait until parsing is complete before returning
+			while (isActive) {
+				mStateChanged.await();
+			}
 		} catch (InterruptedException interE) {
 			interE.printStackTrace();
+		} finally {
+			mLock.unlock();
 		}
 	}
 
 	/**
-	 * Runnable method for the new thread.
+	 * Wait while the parser is suspended.
 	 */
-	public void run() {
-		Thread thread = null;
+	private void awaitResume(Run run) throws InterruptedException {
+		mLock.lock();
 
-		synchronized (mLock) {
-			thread = Thread.currentThread();
+		try {
+			while (mThreadSuspended && !run.isStopped) {
+				mStateChanged.await();
+			}
+		} finally {
+			mLock.unlock();
 		}
+	}
+
+	/**
+	 * Parse on the calling thread, as parse() does.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the parser is running
+	 */
+	public void run() {
+		Run run;
+		mLock.lock();
 
 		try {
-			MjpegInputStream in = new MjpegInputStream(mIn);
-			MjpegFrame frame;
+			run = begin();
+		} finally {
+			mLock.unlock();
+		}
 
-			// main thread loop
-			while (mThread == thread) {
-				try {
-					// start creating the MjpegFrame
-					frame = in.readMjpegFrame();
-
-					if (mLog.isDebugEnabled()) {
-						mLog
-								.debug("mjpeg frame count = "
-										+ frame.getSequence());
-					}
-
-					// notify all listeners
-					// notifyListeners(new MjpegParserEvent(this, frame));
-					frameMuxer
-							.notifyListeners(new MjpegParserEvent(this, frame));
-
-					// handle suspend/resume/stop
-					synchronized (mLock) {
-						while (mThreadSuspended && (mThread == thread)) {
-							mLock.wait();
-						}
-					}
-				} catch (InterruptedException interE) {
-					interE.printStackTrace();
-				}
+		run(run);
+	}
+
+	/**
+	 * Mark the parser active for a new run. Call with the lock held.
+	 */
+	private Run begin() {
+		if (isActive) {
+			throw new IllegalStateException("parser already running");
+		}
+
+		isActive = true;
+		mRun = new Run();
+
+		return mRun;
+	}
+
+	private void run(Run run) {
+		try {
+			if (mBoundary != null) {
+				decodeParts(run);
+			} else {
+				readFrames(run);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			mLock.lock();
+
+			try {
+				isActive = false;
+				mStateChanged.signalAll();
+			} finally {
+				mLock.unlock();
+			}
 		}
 
 		mLog.log(Level.DEBUG, "thread stopped");
 	}
+
+	/**
+	 * Read frames by finding the JPEG images in the stream.
+	 */
+	private void readFrames(Run run) throws IOException {
+		MjpegInputStream in = new MjpegInputStream(mIn);
+		in.setFramePool(mPool);
+		MjpegFrame frame;
+
+		// main thread loop
+		while (!run.isStopped) {
+			try {
+				// start creating the MjpegFrame
+				frame = in.readMjpegFrame();
+
+				if (mLog.isDebugEnabled()) {
+					mLog
+							.debug("mjpeg frame count = "
+									+ frame.getSequence());
+				}
+
+				// notify all listeners
+				// notifyListeners(new MjpegParserEvent(this, frame));
+				try {
+					frameMuxer.notifyListeners(new MjpegParserEvent(this,
+							frame));
+				} finally {
+					// listeners retain the frame if they keep it
+					frame.release();
+				}
+
+				// handle suspend/resume/stop
+				awaitResume(run);
+			} catch (InterruptedException interE) {
+				interE.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Read frames by splitting the stream on its multipart boundary.
+	 */
+	private void decodeParts(Run run) throws IOException {
+		MultipartDecoder decoder = new MultipartDecoder(mBoundary);
+		decoder.setFramePool(mPool);
+		decoder.addMjpegParserListener(new MjpegParserListener() {
+			public void onMjpegParserEvent(MjpegParserEvent event) {
+				frameMuxer.notifyListeners(new MjpegParserEvent(
+						MjpegFrameParser.this, event.getMjpegFrame()));
+			}
+		});
+
+		byte[] buf = new byte[READ_SIZE];
+		int count;
+
+		// main thread loop
+		while (!run.isStopped && !decoder.isComplete()
+				&& ((count = mIn.read(buf)) >= 0)) {
+			decoder.decode(buf, 0, count);
+
+			try {
+				// handle suspend/resume/stop
+				awaitResume(run);
+			} catch (InterruptedException interE) {
+				interE.printStackTrace();
+			}
+		}
+
+		if (mLog.isDebugEnabled()) {
+			mLog.debug("decoded " + decoder.getPartCount() + " parts, "
+					+ decoder.getResyncCount() + " resyncs");
+		}
+	}
+
+	/**
+	 * One run of the parser. A run stopped while blocked in a read ends
+	 * after it, even if the parser is started again.
+	 */
+	private static class Run {
+		volatile boolean isStopped = false;
+	}
 }
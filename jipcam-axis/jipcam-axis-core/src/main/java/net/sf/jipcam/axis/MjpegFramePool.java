@@ -0,0 +1,180 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.util.LinkedList;
+
+
+/**
+ * Pool of byte arrays for MJPEG frame data.  Arrays are grouped in size
+ * classes of powers of two, so a frame borrows the smallest class that fits
+ * it.  The pool keeps at most a fixed number of idle bytes; arrays returned
+ * beyond that are left to the garbage collector.
+ *
+ * Arrays come back to the pool when the last reference to their MjpegFrame
+ * is released.  Parsers hold one reference while notifying listeners, so a
+ * listener that keeps a frame after its event returns must retain() it, and
+ * release() it when done.
+ *
+ * This class is thread safe.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegFramePool implements MjpegFrameRecycler {
+	/**
+	 * Default limit for idle bytes held by the pool.
+	 */
+	public static int DEFAULT_MAX_BYTES = 32 * MjpegFormat.FRAME_MAX_LENGTH;
+
+	private static final int MIN_SHIFT = 10; //smallest class is 1 KB
+	private static final int MAX_SHIFT = 30; //largest class is 1 GB
+
+	private LinkedList[] mFree = new LinkedList[MAX_SHIFT + 1]; //idle arrays per class
+	private long mMaxBytes; //limit of idle bytes
+	private long mIdleBytes = 0; //bytes currently idle in the pool
+	private long mHits = 0; //acquires served from the pool
+	private long mMisses = 0; //acquires that allocated
+
+	/**
+	 * Create a pool with the default limit of idle bytes.
+	 */
+	public MjpegFramePool() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Create a pool.
+	 *
+	 * @param maxBytes limit of idle bytes kept for reuse
+	 */
+	public MjpegFramePool(long maxBytes) {
+		mMaxBytes = maxBytes;
+
+		for (int i = 0; i < mFree.length; i++) {
+			mFree[i] = new LinkedList();
+		}
+	}
+
+	/**
+	 * Borrow an array that can hold at least the given number of bytes.  The
+	 * array may be longer than requested.
+	 *
+	 * @param length in bytes
+	 * @return an array from the pool, or a new one
+	 */
+	public byte[] acquire(int length) {
+		int shift = sizeClass(length);
+
+		if (shift <= MAX_SHIFT) {
+			synchronized (this) {
+				if (!mFree[shift].isEmpty()) {
+					byte[] array = (byte[]) mFree[shift].removeFirst();
+					mIdleBytes -= array.length;
+					mHits++;
+
+					return array;
+				}
+
+				mMisses++;
+			}
+
+			return new byte[1 << shift];
+		}
+
+		return new byte[length];
+	}
+
+	/**
+	 * Create a pooled frame for frame data that was read into an acquired
+	 * array.  The array goes back to the pool when the frame is released.
+	 *
+	 * @param frame array from acquire()
+	 * @param length of the frame data in the array
+	 * @param jpegLen length of the jpeg data at the end of the frame data
+	 * @param sequence the frame number to bundle with this frame
+	 * @return the frame, with one reference held by the caller
+	 */
+	public MjpegFrame createFrame(byte[] frame, int length, int jpegLen,
+		int sequence) {
+		return new MjpegFrame(frame, length, jpegLen, sequence, this);
+	}
+
+	/**
+	 * Return an array to the pool.  Arrays that aren't a pool size class, or
+	 * that would push the pool over its limit, are dropped.
+	 *
+	 * @param array to return
+	 */
+	public void release(byte[] array) {
+		int shift = sizeClass(array.length);
+
+		if ((shift > MAX_SHIFT) || ((1 << shift) != array.length)) {
+			return;
+		}
+
+		synchronized (this) {
+			if ((mIdleBytes + array.length) <= mMaxBytes) {
+				mFree[shift].addFirst(array); //reuse the most recent, it's warm
+				mIdleBytes += array.length;
+			}
+		}
+	}
+
+	/**
+	 * Return a released frame's array to the pool.
+	 */
+	public void recycle(MjpegFrame frame) {
+		release(frame.getBytes());
+	}
+
+	/**
+	 * @return bytes currently idle in the pool
+	 */
+	public synchronized long getIdleBytes() {
+		return mIdleBytes;
+	}
+
+	/**
+	 * @return count of acquires that reused a pooled array
+	 */
+	public synchronized long getHits() {
+		return mHits;
+	}
+
+	/**
+	 * @return count of acquires that allocated a new array
+	 */
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+
+	/**
+	 * Get the size class for a length, as the power of two that fits it.
+	 */
+	private static int sizeClass(int length) {
+		int shift = MIN_SHIFT;
+
+		while ((shift <= MAX_SHIFT) && ((1 << shift) < length)) {
+			shift++;
+		}
+
+		return shift;
+	}
+}
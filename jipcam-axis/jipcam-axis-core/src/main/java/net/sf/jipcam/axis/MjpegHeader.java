@@ -0,0 +1,262 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Typed view of an MJPEG frame header, such as:
+ *
+ * <pre>
+ * --myboundary
+ * Content-Type: image/jpeg
+ * Content-Length: 12345
+ * Delta-time: 100
+ * </pre>
+ *
+ * The header bytes are parsed in place the first time a value is asked for.
+ * Numbers are parsed without creating any objects; Strings are only created
+ * when getContentType() or getBoundary() is called.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegHeader {
+	/**
+	 * Value of a numeric header that isn't present.
+	 */
+	public static final int UNKNOWN = -1;
+
+	private ByteBuffer mHeader; //bytes of the header
+	private int mFrom; //index of the first header byte
+	private int mTo; //index after the last header byte
+	private volatile boolean isParsed = false;
+
+	private int mContentLength = UNKNOWN;
+	private int mDeltaTime = UNKNOWN;
+	private int mTypeFrom = -1; //range of the Content-Type value
+	private int mTypeTo = -1;
+	private int mBoundaryFrom = -1; //range of the boundary line
+	private int mBoundaryTo = -1;
+	private String mContentType; //created on demand
+	private String mBoundary; //created on demand
+
+	/**
+	 * Create a view of the header bytes in the given range.  The bytes must
+	 * not change while the view is used.
+	 *
+	 * @param header containing the header
+	 * @param from index of the first header byte
+	 * @param to index after the last header byte
+	 */
+	public MjpegHeader(ByteBuffer header, int from, int to) {
+		mHeader = header;
+		mFrom = from;
+		mTo = to;
+	}
+
+	/**
+	 * @return the Content-Length, or UNKNOWN if not present
+	 */
+	public int getContentLength() {
+		parse();
+
+		return mContentLength;
+	}
+
+	/**
+	 * @return the Delta-time in milliseconds, or UNKNOWN if not present
+	 */
+	public int getDeltaTime() {
+		parse();
+
+		return mDeltaTime;
+	}
+
+	/**
+	 * @return the Content-Type, or null if not present
+	 */
+	public String getContentType() {
+		parse();
+
+		if ((mContentType == null) && (mTypeFrom >= 0)) {
+			mContentType = toString(mTypeFrom, mTypeTo);
+		}
+
+		return mContentType;
+	}
+
+	/**
+	 * Get the boundary delimiter line, including its leading dashes.
+	 *
+	 * @return the boundary, or null if not present
+	 */
+	public String getBoundary() {
+		parse();
+
+		if ((mBoundary == null) && (mBoundaryFrom >= 0)) {
+			mBoundary = toString(mBoundaryFrom, mBoundaryTo);
+		}
+
+		return mBoundary;
+	}
+
+	/**
+	 * Test the boundary line against a boundary, without creating a String.
+	 * The leading dashes are not compared, so "myboundary" and
+	 * "--myboundary" both match a "--myboundary" line.
+	 *
+	 * @param boundary to compare, in ASCII
+	 * @return true if the header's boundary is the given boundary
+	 */
+	public boolean isBoundary(byte[] boundary) {
+		parse();
+
+		if (mBoundaryFrom < 0) {
+			return false;
+		}
+
+		int from = skipDashes(mHeader, mBoundaryFrom, mBoundaryTo);
+		int start = skipDashes(ByteBuffer.wrap(boundary), 0, boundary.length);
+		int length = boundary.length - start;
+
+		if ((mBoundaryTo - from) != length) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (mHeader.get(from + i) != boundary[start + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Walk the header lines once, and note the known values.
+	 */
+	private void parse() {
+		if (isParsed) {
+			return;
+		}
+
+		int line = mFrom;
+
+		while (line < mTo) {
+			int end = MjpegFormat.getEndOfLine(mHeader, line, mTo);
+
+			if ((end - line) >= 2 && (mHeader.get(line) == '-') &&
+					(mHeader.get(line + 1) == '-')) {
+				if (mBoundaryFrom < 0) {
+					mBoundaryFrom = line;
+					mBoundaryTo = end;
+				}
+			} else {
+				parseLine(line, end);
+			}
+
+			//next line
+			while ((line < mTo) && (mHeader.get(line) != '\n')) {
+				line++;
+			}
+
+			line++;
+		}
+
+		isParsed = true;
+	}
+
+	/**
+	 * Note the value of a known "Name: value" line.
+	 */
+	private void parseLine(int from, int to) {
+		if (MjpegFormat.matchesIgnoreCase(mHeader, from, to,
+					MjpegFormat.CONTENT_LENGTH_BYTES)) {
+			mContentLength = parseNumber(from +
+					MjpegFormat.CONTENT_LENGTH_BYTES.length, to);
+		} else if (MjpegFormat.matchesIgnoreCase(mHeader, from, to,
+					MjpegFormat.DELTA_TIME_BYTES)) {
+			mDeltaTime = parseNumber(from +
+					MjpegFormat.DELTA_TIME_BYTES.length, to);
+		} else if (MjpegFormat.matchesIgnoreCase(mHeader, from, to,
+					MjpegFormat.CONTENT_TYPE_BYTES)) {
+			int value = getValue(from + MjpegFormat.CONTENT_TYPE_BYTES.length,
+					to);
+
+			if (value >= 0) {
+				mTypeFrom = value;
+				mTypeTo = to;
+			}
+		}
+	}
+
+	/**
+	 * Parse the number after a header name.
+	 *
+	 * @return the number, or UNKNOWN if the value isn't a number
+	 */
+	private int parseNumber(int from, int to) {
+		int value = getValue(from, to);
+
+		if (value < 0) {
+			return UNKNOWN;
+		}
+
+		try {
+			return MjpegFormat.parseInt(mHeader, value, to);
+		} catch (NumberFormatException nfe) {
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Find the value after the separator that follows a header name.
+	 *
+	 * @return index of the value, or -1 if there's no separator
+	 */
+	private int getValue(int from, int to) {
+		int i = MjpegFormat.skipSpaces(mHeader, from, to);
+
+		if ((i < to) && ((mHeader.get(i) == ':') || (mHeader.get(i) == '='))) {
+			return MjpegFormat.skipSpaces(mHeader, i + 1, to);
+		}
+
+		return -1;
+	}
+
+	private String toString(int from, int to) {
+		char[] chars = new char[to - from];
+
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) (mHeader.get(from + i) & 0xFF);
+		}
+
+		return new String(chars);
+	}
+
+	private static int skipDashes(ByteBuffer buf, int from, int to) {
+		while ((from < to) && (buf.get(from) == '-')) {
+			from++;
+		}
+
+		return from;
+	}
+}
@@ -0,0 +1,342 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Ingest engine for many MJPEG cameras at once.  Instead of a thread per
+ * camera blocking on an InputStream, each camera is a non-blocking socket
+ * registered with one of a few selector threads.  The bytes read are passed
+ * to an incremental MultipartDecoder, and frames are delivered as
+ * MjpegParserEvents to the listeners of each MjpegIngestStream.
+ *
+ * Listeners are called on a selector thread, which serves many cameras, so
+ * they must return quickly.  Only HTTP basic authentication is supported.
+ *
+ * A stream that reads nothing for the idle timeout, while connecting or
+ * after, fails, so a camera that hangs doesn't hold its socket for good.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegIngestEngine {
+	private static Logger mLog = LogManager.getLogger(MjpegIngestEngine.class); //logging mechanism
+
+	private static final int READ_SIZE = 64 * 1024; //bytes read per select
+
+	/**
+	 * Default milliseconds a stream may read nothing before it fails.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	private SelectorLoop[] mLoops;
+	private AtomicInteger mNext = new AtomicInteger(); //round robin over the loops
+	private MjpegFramePool mPool;
+	private AtomicInteger mStreamCount = new AtomicInteger(); //open streams
+	private volatile long mIdleTimeout = DEFAULT_IDLE_TIMEOUT; //milliseconds
+	private volatile boolean isRunning = false;
+
+	/**
+	 * Create an engine with a selector thread per processor.
+	 *
+	 * @throws IOException if a selector can't be opened
+	 */
+	public MjpegIngestEngine() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an engine.
+	 *
+	 * @param selectorCount number of selector threads
+	 * @throws IOException if a selector can't be opened
+	 */
+	public MjpegIngestEngine(int selectorCount) throws IOException {
+		mLoops = new SelectorLoop[Math.max(1, selectorCount)];
+
+		for (int i = 0; i < mLoops.length; i++) {
+			mLoops[i] = new SelectorLoop(i);
+		}
+	}
+
+	/**
+	 * Create frames in arrays borrowed from the given pool.  Set this before
+	 * adding streams.
+	 *
+	 * @param pool to borrow frame arrays from, or null to allocate
+	 */
+	public void setFramePool(MjpegFramePool pool) {
+		mPool = pool;
+	}
+
+	/**
+	 * @param millis a stream may read nothing before it fails, or 0 for no
+	 *        limit
+	 */
+	public void setIdleTimeout(long millis) {
+		mIdleTimeout = millis;
+
+		//the selectors check on the new interval
+		for (int i = 0; i < mLoops.length; i++) {
+			mLoops[i].mSelector.wakeup();
+		}
+	}
+
+	public long getIdleTimeout() {
+		return mIdleTimeout;
+	}
+
+	/**
+	 * Start the selector threads.
+	 */
+	public void start() {
+		mLog.log(Level.DEBUG, "starting " + mLoops.length + " selector threads");
+		isRunning = true;
+
+		for (int i = 0; i < mLoops.length; i++) {
+			mLoops[i].start();
+		}
+	}
+
+	/**
+	 * Stop the selector threads, and close every stream.
+	 */
+	public void stop() {
+		mLog.log(Level.DEBUG, "stopping selector threads");
+		isRunning = false;
+
+		for (int i = 0; i < mLoops.length; i++) {
+			mLoops[i].mSelector.wakeup();
+		}
+
+		for (int i = 0; i < mLoops.length; i++) {
+			mLoops[i].join();
+		}
+	}
+
+	/**
+	 * Connect to the MJPEG stream of a camera.
+	 *
+	 * @param api for the camera, whose credentials are used
+	 * @param cameraNumber to request, the first camera is always "1"
+	 * @param listener for the camera's frames
+	 * @return the stream
+	 * @throws IOException if the connection can't be started
+	 */
+	public MjpegIngestStream addCamera(CameraAPI api, int cameraNumber,
+		MjpegParserListener listener) throws IOException {
+		return addStream(api.getMjpegUrl(cameraNumber), api.getCredentials(),
+			listener);
+	}
+
+	/**
+	 * Connect to an MJPEG stream.
+	 *
+	 * @param url of the stream
+	 * @param username to login with, or null
+	 * @param password to login with, or null
+	 * @param listener for the stream's frames
+	 * @return the stream
+	 * @throws IOException if the connection can't be started
+	 */
+	public MjpegIngestStream addStream(URL url, String username,
+		String password, MjpegParserListener listener) throws IOException {
+		UsernamePasswordCredentials credentials = null;
+
+		if ((username != null) && (password != null)) {
+			credentials = new UsernamePasswordCredentials(username, password);
+		}
+
+		return addStream(url, credentials, listener);
+	}
+
+	/**
+	 * @return count of streams added and not yet closed
+	 */
+	public int getStreamCount() {
+		return mStreamCount.get();
+	}
+
+	private MjpegIngestStream addStream(URL url,
+		UsernamePasswordCredentials credentials, MjpegParserListener listener)
+		throws IOException {
+		MjpegIngestStream stream = new MjpegIngestStream(url, credentials,
+				mPool, mStreamCount);
+
+		if (listener != null) {
+			stream.addMjpegParserListener(listener);
+		}
+
+		boolean isConnected = stream.connect();
+		SelectorLoop loop = mLoops[(mNext.getAndIncrement() & 0x7FFFFFFF) % mLoops.length];
+		loop.register(stream, isConnected);
+
+		return stream;
+	}
+
+	/**
+	 * A selector thread, serving a share of the streams.
+	 */
+	private class SelectorLoop implements Runnable {
+		private Selector mSelector;
+		private Thread mThread;
+		private ConcurrentLinkedQueue mPending = new ConcurrentLinkedQueue(); //streams to register
+		private ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_SIZE); //shared by the streams
+
+		SelectorLoop(int index) throws IOException {
+			mSelector = Selector.open();
+			mThread = new Thread(this,
+					MjpegIngestEngine.class.getName() + "-" + index);
+
+			// allow to exit cleanly if the VM goes down
+			mThread.setDaemon(true);
+		}
+
+		void start() {
+			mThread.start();
+		}
+
+		void join() {
+			try {
+				mThread.join();
+			} catch (InterruptedException interE) {
+				interE.printStackTrace();
+			}
+		}
+
+		/**
+		 * Hand a stream to the selector thread.
+		 */
+		void register(MjpegIngestStream stream, boolean isConnected) {
+			mPending.add(new Object[] { stream, Boolean.valueOf(isConnected) });
+			mSelector.wakeup();
+		}
+
+		public void run() {
+			long checked = System.nanoTime(); //last check for idle streams
+
+			try {
+				while (isRunning) {
+					registerPending();
+
+					// check twice per timeout, to fail a stream within half
+					long timeout = mIdleTimeout;
+					long interval = Math.max(1, timeout / 2);
+
+					if (timeout > 0) {
+						mSelector.select(interval);
+					} else {
+						mSelector.select();
+					}
+
+					Iterator keys = mSelector.selectedKeys().iterator();
+
+					while (keys.hasNext()) {
+						SelectionKey key = (SelectionKey) keys.next();
+						keys.remove();
+
+						if (key.isValid()) {
+							((MjpegIngestStream) key.attachment()).handle(key,
+								mReadBuffer);
+						}
+					}
+
+					long now = System.nanoTime();
+
+					if ((timeout > 0) &&
+							((now - checked) >= (interval * 1000000L))) {
+						closeIdle(now, timeout);
+						checked = now;
+					}
+				}
+			} catch (IOException ioe) {
+				mLog.error("selector failed", ioe);
+			} catch (RuntimeException re) {
+				mLog.error("selector failed", re);
+			} finally {
+				//the streams can't be read without this thread
+				closeAll();
+				mLog.log(Level.DEBUG, "thread stopped");
+			}
+		}
+
+		private void registerPending() {
+			Object[] pending;
+
+			while ((pending = (Object[]) mPending.poll()) != null) {
+				MjpegIngestStream stream = (MjpegIngestStream) pending[0];
+				int ops = ((Boolean) pending[1]).booleanValue()
+					? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+
+				try {
+					stream.getChannel().register(mSelector, ops, stream);
+				} catch (ClosedChannelException cce) {
+					//closed before it was registered
+				}
+			}
+		}
+
+		/**
+		 * Fail the streams that have read nothing for the timeout.
+		 */
+		private void closeIdle(long now, long timeout) {
+			Iterator keys = mSelector.keys().iterator();
+
+			while (keys.hasNext()) {
+				MjpegIngestStream stream = (MjpegIngestStream) ((SelectionKey) keys.next()).attachment();
+
+				if ((now - stream.getLastRead()) >= (timeout * 1000000L)) {
+					stream.fail(new IOException("nothing read for " + timeout +
+							" ms from " + stream.getUrl()));
+				}
+			}
+		}
+
+		private void closeAll() {
+			registerPending();
+
+			Iterator keys = mSelector.keys().iterator();
+
+			while (keys.hasNext()) {
+				((MjpegIngestStream) ((SelectionKey) keys.next()).attachment()).close();
+			}
+
+			try {
+				mSelector.close();
+			} catch (IOException ioe) {
+				mLog.debug("error closing selector", ioe);
+			}
+		}
+	}
+}
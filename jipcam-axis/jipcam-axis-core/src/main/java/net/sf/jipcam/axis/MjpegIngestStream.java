@@ -0,0 +1,421 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.BasicScheme;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * One camera connection of an MjpegIngestEngine.  The stream sends an HTTP
+ * GET for the MJPEG URL over a non-blocking socket, reads the response
+ * headers for the boundary and transfer encoding, and passes the body to a
+ * MultipartDecoder.  Listeners receive MjpegParserEvents whose source is
+ * this stream.  A response that gives no boundary fails the stream.
+ *
+ * All I/O is done by the engine's selector thread, so listeners are called
+ * on that thread and must return quickly; slow consumers should hand frames
+ * off, for example to an MjpegFifo.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegIngestStream {
+	private static Logger mLog = LogManager.getLogger(MjpegIngestStream.class); //logging mechanism
+
+	private static final int MAX_RESPONSE_HEADER = 8192; //longest HTTP response header
+
+	protected MjpegFrameMultiplexer frameMuxer = new MjpegFrameMultiplexer();
+
+	private URL mUrl;
+	private ByteBuffer mRequest; //HTTP request, sent once connected
+	private SocketChannel mChannel;
+	private byte[] mResponse = new byte[512]; //HTTP response header
+	private int mResponseLength = 0;
+	private MultipartDecoder mDecoder; //created when the response header is read
+	private MjpegFramePool mPool;
+	private volatile boolean isOpen = false;
+	private volatile IOException mFailure; //why the stream closed, if it failed
+	private volatile long mBytesRead = 0;
+	private volatile long mLastRead; //nanoTime of the connect, or last read
+	private AtomicInteger mStreamCount; //open streams of the engine
+	private AtomicBoolean isCounted = new AtomicBoolean(false); //in the count
+
+	/**
+	 * Create a stream for the given URL.
+	 *
+	 * @param url of the MJPEG stream
+	 * @param credentials for basic authentication, or null
+	 * @param pool to borrow frame arrays from, or null to allocate
+	 * @param streamCount of the engine, counting this stream while it's open
+	 */
+	MjpegIngestStream(URL url, UsernamePasswordCredentials credentials,
+		MjpegFramePool pool, AtomicInteger streamCount) {
+		mUrl = url;
+		mPool = pool;
+		mStreamCount = streamCount;
+		mRequest = createRequest(url, credentials);
+	}
+
+	/**
+	 * Add new parse listeners. This is how other code gets notification of
+	 * new MJPEG frames.
+	 *
+	 * @param listener
+	 */
+	public void addMjpegParserListener(MjpegParserListener listener) {
+		frameMuxer.addMjpegParserListener(listener);
+	}
+
+	/**
+	 * Allow removal of listeners.
+	 *
+	 * @param listener
+	 */
+	public void removeMjpegParserListener(MjpegParserListener listener) {
+		frameMuxer.removeMjpegParserListener(listener);
+	}
+
+	/**
+	 * @return the MJPEG URL of this stream
+	 */
+	public URL getUrl() {
+		return mUrl;
+	}
+
+	/**
+	 * @return true until the stream ends, fails, or is closed
+	 */
+	public boolean isOpen() {
+		return isOpen;
+	}
+
+	/**
+	 * @return the error that closed the stream, or null
+	 */
+	public IOException getFailure() {
+		return mFailure;
+	}
+
+	/**
+	 * @return count of bytes read from the camera
+	 */
+	public long getBytesRead() {
+		return mBytesRead;
+	}
+
+	/**
+	 * @return count of frames sent to listeners
+	 */
+	public long getFrameCount() {
+		MultipartDecoder decoder = mDecoder;
+
+		return (decoder == null) ? 0 : decoder.getPartCount();
+	}
+
+	/**
+	 * Close the connection.  This may be called from any thread.
+	 */
+	public void close() {
+		isOpen = false;
+
+		if (isCounted.compareAndSet(true, false)) {
+			mStreamCount.decrementAndGet();
+		}
+
+		try {
+			if (mChannel != null) {
+				mChannel.close(); //also cancels the selection key
+			}
+		} catch (IOException ioe) {
+			mLog.debug("error closing " + mUrl, ioe);
+		}
+	}
+
+	/**
+	 * Start a non-blocking connect to the camera.
+	 *
+	 * @return true if the connection completed at once
+	 */
+	boolean connect() throws IOException {
+		int port = (mUrl.getPort() < 0) ? mUrl.getDefaultPort() : mUrl.getPort();
+
+		mChannel = SocketChannel.open();
+		mLastRead = System.nanoTime();
+		isOpen = true;
+
+		if (isCounted.compareAndSet(false, true)) {
+			mStreamCount.incrementAndGet();
+		}
+
+		try {
+			mChannel.configureBlocking(false);
+
+			return mChannel.connect(new InetSocketAddress(mUrl.getHost(), port));
+		} catch (IOException ioe) {
+			fail(ioe);
+			throw ioe;
+		}
+	}
+
+	SocketChannel getChannel() {
+		return mChannel;
+	}
+
+	/**
+	 * @return System.nanoTime() of the last read, or of the connect
+	 */
+	long getLastRead() {
+		return mLastRead;
+	}
+
+	/**
+	 * Handle the selected operations for this stream.
+	 *
+	 * @param key of this stream's channel
+	 * @param buffer for reading, shared by the streams of a selector
+	 */
+	void handle(SelectionKey key, ByteBuffer buffer) {
+		try {
+			if (key.isConnectable() && mChannel.finishConnect()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+
+			if (key.isValid() && key.isWritable()) {
+				mChannel.write(mRequest);
+
+				if (!mRequest.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+
+			if (key.isValid() && key.isReadable()) {
+				read(buffer);
+			}
+		} catch (IOException ioe) {
+			fail(ioe);
+		} catch (RuntimeException re) {
+			//a bug, or a listener's, breaks this stream, not its selector
+			mLog.error("MJPEG stream failed: " + mUrl, re);
+
+			IOException ioe = new IOException(re.toString());
+			ioe.initCause(re);
+			fail(ioe);
+		}
+	}
+
+	/**
+	 * Close the stream because of an error.
+	 */
+	void fail(IOException ioe) {
+		if (isOpen) {
+			mLog.warn("MJPEG stream failed: " + mUrl + ", " + ioe.getMessage());
+			mFailure = ioe;
+		}
+
+		close();
+	}
+
+	/**
+	 * Read what's available and decode it.
+	 */
+	private void read(ByteBuffer buffer) throws IOException {
+		buffer.clear();
+
+		int count = mChannel.read(buffer);
+
+		if (count < 0) {
+			mLog.debug("end of MJPEG stream: " + mUrl);
+			close();
+
+			return;
+		}
+
+		mBytesRead += count;
+		mLastRead = System.nanoTime();
+		buffer.flip();
+
+		if (mDecoder == null) {
+			readResponseHeader(buffer);
+		}
+
+		if (mDecoder != null) {
+			mDecoder.decode(buffer);
+
+			if (mDecoder.isComplete()) {
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Collect the HTTP response header, and create the decoder when it's
+	 * complete.  Bytes after the header are left in the buffer.
+	 */
+	private void readResponseHeader(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (mResponseLength == mResponse.length) {
+				if (mResponse.length >= MAX_RESPONSE_HEADER) {
+					throw new IOException("HTTP response header too long");
+				}
+
+				byte[] response = new byte[mResponse.length * 2];
+				System.arraycopy(mResponse, 0, response, 0, mResponseLength);
+				mResponse = response;
+			}
+
+			byte b = buffer.get();
+			mResponse[mResponseLength++] = b;
+
+			if ((b == '\n') && (mResponseLength >= 2) &&
+					((mResponse[mResponseLength - 2] == '\n') ||
+					((mResponseLength >= 4) &&
+					(mResponse[mResponseLength - 2] == '\r') &&
+					(mResponse[mResponseLength - 3] == '\n')))) {
+				parseResponseHeader(new String(mResponse, 0, mResponseLength,
+						"ISO-8859-1"));
+
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check the status, and set up the decoder for the response body.
+	 */
+	private void parseResponseHeader(String header) throws IOException {
+		StringTokenizer lines = new StringTokenizer(header, "\r\n");
+		StringTokenizer status = new StringTokenizer(lines.hasMoreTokens()
+				? lines.nextToken() : "", " ");
+		int code = -1;
+
+		try {
+			status.nextToken(); //HTTP version
+			code = Integer.parseInt(status.nextToken());
+		} catch (RuntimeException re) {
+			throw new IOException("malformed HTTP status from " + mUrl);
+		}
+
+		if (code != CameraAPI.HTTP_OK) {
+			throw new IOException("HTTP " + code + " from " + mUrl);
+		}
+
+		String boundary = null;
+		boolean isChunked = false;
+
+		while (lines.hasMoreTokens()) {
+			String line = lines.nextToken();
+			int colon = line.indexOf(':');
+
+			if (colon < 0) {
+				continue;
+			}
+
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+
+			if (name.equalsIgnoreCase(MjpegFormat.CONTENT_TYPE)) {
+				boundary = parseBoundary(value);
+			} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+				isChunked = value.toLowerCase().indexOf("chunked") >= 0;
+			}
+		}
+
+		if (boundary == null) {
+			// a guessed boundary would find no frames, and never fail
+			throw new IOException("no multipart boundary from " + mUrl);
+		}
+
+		mDecoder = new MultipartDecoder(boundary);
+		mDecoder.setChunked(isChunked);
+		mDecoder.setFramePool(mPool);
+		mDecoder.addMjpegParserListener(new MjpegParserListener() {
+				public void onMjpegParserEvent(MjpegParserEvent event) {
+					frameMuxer.notifyListeners(new MjpegParserEvent(
+							MjpegIngestStream.this, event.getMjpegFrame()));
+				}
+			});
+		mResponse = null; //no longer needed
+	}
+
+	/**
+	 * Get the boundary parameter of a Content-Type value.
+	 */
+	private static String parseBoundary(String contentType) {
+		StringTokenizer params = new StringTokenizer(contentType, ";");
+
+		while (params.hasMoreTokens()) {
+			String param = params.nextToken().trim();
+
+			if (param.regionMatches(true, 0, "boundary=", 0, 9)) {
+				String boundary = param.substring(9).trim();
+
+				if (boundary.startsWith("\"") && boundary.endsWith("\"") &&
+						(boundary.length() > 1)) {
+					boundary = boundary.substring(1, boundary.length() - 1);
+				}
+
+				return (boundary.length() > 0) ? boundary : null;
+			}
+		}
+
+		return null;
+	}
+
+	private static ByteBuffer createRequest(URL url,
+		UsernamePasswordCredentials credentials) {
+		String path = (url.getFile().length() == 0) ? "/" : url.getFile();
+		StringBuffer request = new StringBuffer();
+		request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(url.getHost());
+
+		if (url.getPort() >= 0) {
+			request.append(':').append(url.getPort());
+		}
+
+		request.append("\r\n");
+
+		if (credentials != null) {
+			request.append("Authorization: ")
+				   .append(BasicScheme.authenticate(credentials, "ISO-8859-1"))
+				   .append("\r\n");
+		}
+
+		request.append("Connection: close\r\n\r\n");
+
+		try {
+			return ByteBuffer.wrap(request.toString().getBytes("ISO-8859-1"));
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee.getMessage());
+		}
+	}
+}
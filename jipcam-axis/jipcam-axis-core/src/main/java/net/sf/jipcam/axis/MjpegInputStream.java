@@ -27,6 +27,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -54,6 +55,12 @@ public class MjpegInputStream extends DataInputStream {
 	protected int mContentLength = -1;
 	protected boolean isContentLengthAvailable = false;
 	protected boolean isFirstPass = true;
+	protected MjpegFramePool mPool = null; //optional source of frame arrays
+	private JpegScanner mScanner = new JpegScanner(); //end of image search
+	private byte[] mHeader = new byte[MjpegFormat.HEADER_MAX_LENGTH]; //reused header bytes
+	private ByteBuffer mHeaderBuffer = ByteBuffer.wrap(mHeader); //wraps mHeader for parsing
+	private byte[] mScratch; //bulk read buffer for the end of image search
+	private ByteBuffer mScratchBuffer; //wraps mScratch for the scanner
 
 	/**
 	* Wrap the given input stream with the MjpegInputStream.  Internal buffers
@@ -65,6 +72,17 @@ public class MjpegInputStream extends DataInputStream {
 		super(new BufferedInputStream(in, MjpegFormat.FRAME_MAX_LENGTH));
 	}
 
+	/**
+	 * Read frames into arrays borrowed from the given pool, instead of
+	 * allocating an array per frame.  Each frame's array goes back to the
+	 * pool when the frame is released.
+	 *
+	 * @param pool to borrow frame arrays from, or null to allocate
+	 */
+	public void setFramePool(MjpegFramePool pool) {
+		mPool = pool;
+	}
+
 	/**
 	* Read the next MjpegFrame from the stream.
 	 *
@@ -84,11 +102,8 @@ public class MjpegInputStream extends DataInputStream {
 			isFirstPass = false; //do this once
 			reset();
 
-			byte[] header = new byte[headerLen];
-			readFully(header);
-
 			try {
-				mContentLength = MjpegFormat.parseContentLength(header);
+				mContentLength = readContentLength(headerLen);
 				isContentLengthAvailable = true; //flag for more efficientcy
 			} catch (NumberFormatException nfe) {
 				mLog.warn(
@@ -99,29 +114,44 @@ public class MjpegInputStream extends DataInputStream {
 
 		reset();
 
+		boolean isContentLengthFound = false;
+
 		if (isContentLengthAvailable) {
 			//the fast way
-			byte[] header = new byte[headerLen];
-			readFully(header);
-
 			try {
-				mContentLength = MjpegFormat.parseContentLength(header);
-			} catch (NullPointerException npe) {
+				mContentLength = readContentLength(headerLen);
+				isContentLengthFound = true;
+			} catch (NumberFormatException nfe) {
 				mLog.warn(
 					"couldn't parse content length, failover to jpeg EOF search");
-				mContentLength = MjpegFormat.getEndOfSeqeunce(this,
-						JpegFormat.EOF_MARKER); //position of first byte after the jpeg
+				reset();
 			}
+		}
 
-			//(JpegFormat.EOF_MARKER); //position of first byte after the jpeg
-		} else {
-			//the slow way, because we have to test (if/then) every byte!
-			mContentLength = MjpegFormat.getEndOfSeqeunce(this,
-					JpegFormat.EOF_MARKER); //position of first byte AFTER the jpeg
+		if (!isContentLengthFound) {
+			//the slow way, search the image for its end
+			mContentLength = findJpegLength(headerLen);
 		}
 
 		//create frame array
-		byte[] frameData = new byte[headerLen + mContentLength];
+		int frameLen = headerLen + mContentLength;
+
+		if (mPool != null) {
+			byte[] frameData = mPool.acquire(frameLen);
+			reset();
+
+			try {
+				readFully(frameData, 0, frameLen);
+			} catch (IOException ioe) {
+				mPool.release(frameData);
+				throw ioe;
+			}
+
+			return mPool.createFrame(frameData, frameLen, mContentLength,
+				mSequence++);
+		}
+
+		byte[] frameData = new byte[frameLen];
 		reset();
 		readFully(frameData);
 
@@ -129,25 +159,97 @@ public class MjpegInputStream extends DataInputStream {
 	}
 
 	/**
-	* Unit test against an MJPG raw file from the Axis camera.
+	 * Read the frame header into the reused header array, and parse its
+	 * Content-Length in place.
 	 *
-	* @param args
+	 * @param headerLen position of the SOI marker in the frame
+	 * @return the Content-Length
+	 * @throws NumberFormatException if the header has no Content-Length
+	 */
+	private int readContentLength(int headerLen)
+		throws IOException, NumberFormatException {
+		if (mHeader.length < headerLen) {
+			mHeader = new byte[headerLen];
+			mHeaderBuffer = ByteBuffer.wrap(mHeader);
+		}
+
+		readFully(mHeader, 0, headerLen);
+
+		return MjpegFormat.parseContentLength(mHeaderBuffer, 0, headerLen);
+	}
+
+	/**
+	 * Find the length of the JPEG image by scanning its markers.  The stream
+	 * must be at the start of the frame, and is read in bulk into a scratch
+	 * buffer, so callers must reset() to the frame start afterwards.
+	 *
+	 * @param headerLen position of the SOI marker in the frame
+	 * @return the length of the JPEG image
+	 */
+	private int findJpegLength(int headerLen) throws IOException {
+		if ((mScratch == null) ||
+				(mScratch.length != MjpegFormat.FRAME_MAX_LENGTH)) {
+			mScratch = new byte[MjpegFormat.FRAME_MAX_LENGTH];
+			mScratchBuffer = ByteBuffer.wrap(mScratch);
+		}
+
+		mScanner.reset(headerLen);
+
+		int filled = 0;
+		int end;
+
+		while ((end = mScanner.scan(mScratchBuffer, 0, filled)) < 0) {
+			if (filled == mScratch.length) {
+				throw new IOException("no JPEG end of image within " +
+					mScratch.length + " bytes");
+			}
+
+			int count = read(mScratch, filled, mScratch.length - filled);
+
+			if (count < 0) {
+				throw new EOFException("end of MJPEG stream");
+			}
+
+			filled += count;
+		}
+
+		return end - headerLen;
+	}
+
+	/**
+	* Read an MJPEG file, such as a raw capture from an Axis camera, and print
+	 * the frame rate it was parsed at.  If an output directory is given, each
+	 * frame's JPEG is written there.  For repeatable measurements, use the
+	 * jipcam-axis-benchmarks module instead.
+	 *
+	* @param args the MJPEG file, and optionally the output directory
 	*/
 	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println(
+				"usage: MjpegInputStream <mjpeg file> [jpeg output dir]");
+
+			return;
+		}
+
 		long elapsed;
 		long start = System.currentTimeMillis();
 		int count = 0;
 
 		try {
-			File file = new File("D:/dev/axis/data/lost_girl.mjpeg");
+			File file = new File(args[0]);
+			File outDir = (args.length > 1) ? new File(args[1]) : null;
 			MjpegInputStream in = new MjpegInputStream(new FileInputStream(file));
 			MjpegFrame frame = null;
 
 			while ((frame = in.readMjpegFrame()) != null) {
-				FileOutputStream out = new FileOutputStream(new File("jpeg-" +
-							count + ".jpg"));
-				out.write(frame.getJpegBytes());
-				out.close();
+				if (outDir != null) {
+					FileOutputStream out = new FileOutputStream(new File(
+								outDir, "jpeg-" + count + ".jpg"));
+					out.write(frame.getJpegBytes());
+					out.close();
+				}
+
 				count++;
 			}
 		} catch (EOFException eof) {
@@ -156,7 +258,7 @@ public class MjpegInputStream extends DataInputStream {
 			e.printStackTrace();
 		}
 
-		elapsed = System.currentTimeMillis() - start;
+		elapsed = Math.max(1, System.currentTimeMillis() - start);
 		System.out.println("elapsed = " + elapsed);
 		System.out.println("frame count = " + count);
 		System.out.println("fps = " + ((count * 1000) / elapsed));
@@ -0,0 +1,701 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Incremental decoder for multipart/x-mixed-replace MJPEG streams.  Bytes
+ * are pushed in as they arrive from the connection, in pieces of any size,
+ * and each part is sent to the listeners as an MjpegFrame as soon as it is
+ * complete.  Parts are split on the boundary of the connection, as given by
+ * the Content-Type of the HTTP response, not by searching the JPEG data.
+ *
+ * When a part has a Content-Length, its body is skipped over without being
+ * examined.  Otherwise the body ends at the next delimiter, which is found
+ * with a Boyer-Moore-Horspool search that skips most of the body bytes.  If
+ * the data after a part isn't a delimiter, or a part grows past the maximum
+ * length, the data is counted as corrupt and the decoder resynchronizes on
+ * the next delimiter.
+ *
+ * Bodies sent with chunked transfer encoding can be decoded directly, for
+ * callers that read the raw connection.
+ *
+ * The decoder releases each frame after all listeners have been notified,
+ * so a listener that keeps a frame must call MjpegFrame.retain(), and
+ * release it when done.
+ *
+ * This class is not thread safe; bytes must be decoded from one thread.
+ *
+ * @see http://www.w3.org/Protocols/rfc1341/7_2_Multipart.html
+ * @author Jason Thrasher
+ */
+public class MultipartDecoder {
+	private static Logger mLog = LogManager.getLogger(MultipartDecoder.class); //logging mechanism
+
+	//part states
+	private static final int SEARCH = 0; //looking for a delimiter
+	private static final int HEADERS = 1; //reading the headers of a part
+	private static final int BODY = 2; //reading a body of known length
+	private static final int BODY_SEARCH = 3; //reading a body up to the next delimiter
+	private static final int AFTER_BODY = 4; //expecting the delimiter after a body
+	private static final int DONE = 5; //close delimiter was found
+
+	//chunked transfer states
+	private static final int CHUNK_SIZE = 0; //reading the chunk size line
+	private static final int CHUNK_DATA = 1; //reading chunk data
+	private static final int CHUNK_END = 2; //reading the CRLF after chunk data
+	private static final int CHUNK_TRAILER = 3; //reading trailer lines
+	private static final int CHUNK_DONE = 4; //last chunk was read
+
+	private static final int INITIAL_CAPACITY = 16 * 1024; //grows to fit a part
+	private static final int MAX_HEADER_LENGTH = 1024; //longest part header
+	private static final int MAX_CHUNK_SIZE = 0x7FFFFFF; //largest chunk accepted
+
+	protected MjpegFrameMultiplexer frameMuxer = new MjpegFrameMultiplexer();
+
+	private String mBoundary; //boundary of the connection
+	private byte[] mDelimiter; //"--" followed by the boundary
+	private int[] mSkip = new int[256]; //Horspool shift for each byte value
+	private byte[] mBuf = new byte[INITIAL_CAPACITY]; //undecoded bytes
+	private ByteBuffer mView = ByteBuffer.wrap(mBuf); //wraps mBuf for header parsing
+	private byte[] mScratch; //copy of bytes from a direct buffer
+	private int mEnd = 0; //index after the last byte in mBuf
+	private int mScan = 0; //where the next search continues
+	private int mPartStart = 0; //start of the current part's delimiter
+	private int mHeaderEnd = 0; //start of the current part's body
+	private int mBodyEnd = 0; //end of a body of known length
+	private int mState = SEARCH;
+	private int mMaxPartLength = MjpegFormat.FRAME_MAX_LENGTH;
+
+	private boolean isChunked = false;
+	private int mChunkState = CHUNK_SIZE;
+	private int mChunkRemaining = 0; //bytes left in the chunk, or the size being read
+	private boolean isChunkExtension = false; //skipping a chunk extension
+	private int mTrailerLineLength = 0; //bytes in the current trailer line
+
+	private MjpegFramePool mPool; //optional source of frame arrays
+	private int mSequence = 0;
+	private long mParts = 0; //parts sent to listeners
+	private long mResyncs = 0; //times corrupt data was skipped
+
+	/**
+	 * Create a decoder for the given boundary.  The leading dashes of the
+	 * boundary are optional, so "myboundary" and "--myboundary" both match
+	 * "--myboundary" delimiter lines.
+	 *
+	 * @param boundary of the connection, from the Content-Type header
+	 */
+	public MultipartDecoder(String boundary) {
+		int start = 0;
+
+		while ((start < boundary.length()) && (boundary.charAt(start) == '-')) {
+			start++;
+		}
+
+		if (start == boundary.length()) {
+			throw new IllegalArgumentException("empty boundary: " + boundary);
+		}
+
+		mBoundary = boundary;
+		mDelimiter = new byte[(boundary.length() - start) + 2];
+		mDelimiter[0] = '-';
+		mDelimiter[1] = '-';
+
+		for (int i = start; i < boundary.length(); i++) {
+			mDelimiter[(i - start) + 2] = (byte) boundary.charAt(i);
+		}
+
+		//Horspool shift table
+		int last = mDelimiter.length - 1;
+
+		for (int i = 0; i < mSkip.length; i++) {
+			mSkip[i] = mDelimiter.length;
+		}
+
+		for (int i = 0; i < last; i++) {
+			mSkip[mDelimiter[i] & 0xFF] = last - i;
+		}
+	}
+
+	/**
+	 * @return the boundary that parts are split on
+	 */
+	public String getBoundary() {
+		return mBoundary;
+	}
+
+	/**
+	 * Decode the bytes as a body sent with chunked transfer encoding.  Set
+	 * this before decoding any bytes.
+	 *
+	 * @param chunked true if the bytes are chunked
+	 */
+	public void setChunked(boolean chunked) {
+		isChunked = chunked;
+	}
+
+	/**
+	 * Set the longest part accepted.  Longer parts are dropped as corrupt.
+	 *
+	 * @param length in bytes
+	 */
+	public void setMaxPartLength(int length) {
+		mMaxPartLength = length;
+	}
+
+	/**
+	 * Create frames in arrays borrowed from the given pool.
+	 *
+	 * @param pool to borrow frame arrays from, or null to allocate
+	 */
+	public void setFramePool(MjpegFramePool pool) {
+		mPool = pool;
+	}
+
+	/**
+	 * Add new parse listeners, which are notified of each part.
+	 *
+	 * @param listener
+	 */
+	public void addMjpegParserListener(MjpegParserListener listener) {
+		frameMuxer.addMjpegParserListener(listener);
+	}
+
+	/**
+	 * Allow removal of listeners.
+	 *
+	 * @param listener
+	 */
+	public void removeMjpegParserListener(MjpegParserListener listener) {
+		frameMuxer.removeMjpegParserListener(listener);
+	}
+
+	/**
+	 * Decode the remaining bytes of the buffer.  Listeners are notified of
+	 * every part that the bytes complete.
+	 *
+	 * @param in bytes from the connection, which are all consumed
+	 * @throws IOException if the chunked transfer encoding is corrupt
+	 */
+	public void decode(ByteBuffer in) throws IOException {
+		if (in.hasArray()) {
+			decode(in.array(), in.arrayOffset() + in.position(), in.remaining());
+			in.position(in.limit());
+
+			return;
+		}
+
+		if (mScratch == null) {
+			mScratch = new byte[8192];
+		}
+
+		while (in.hasRemaining()) {
+			int count = Math.min(in.remaining(), mScratch.length);
+			in.get(mScratch, 0, count);
+			decode(mScratch, 0, count);
+		}
+	}
+
+	/**
+	 * Decode a range of bytes.  Listeners are notified of every part that
+	 * the bytes complete.
+	 *
+	 * @param bytes from the connection
+	 * @param offset of the first byte
+	 * @param length of the bytes
+	 * @throws IOException if the chunked transfer encoding is corrupt
+	 */
+	public void decode(byte[] bytes, int offset, int length)
+		throws IOException {
+		if (isChunked) {
+			dechunk(bytes, offset, length);
+		} else {
+			append(bytes, offset, length);
+		}
+
+		process();
+	}
+
+	/**
+	 * @return true if the close delimiter, or the last chunk, was decoded
+	 */
+	public boolean isComplete() {
+		return (mState == DONE) || (isChunked && (mChunkState == CHUNK_DONE));
+	}
+
+	/**
+	 * @return count of parts sent to listeners
+	 */
+	public long getPartCount() {
+		return mParts;
+	}
+
+	/**
+	 * @return count of times corrupt data was skipped to find a delimiter
+	 */
+	public long getResyncCount() {
+		return mResyncs;
+	}
+
+	/**
+	 * Strip the chunked transfer encoding, and append the chunk data.
+	 */
+	private void dechunk(byte[] bytes, int offset, int length)
+		throws IOException {
+		int end = offset + length;
+
+		while (offset < end) {
+			switch (mChunkState) {
+			case CHUNK_SIZE: {
+				byte b = bytes[offset++];
+
+				if (b == '\n') {
+					mChunkState = (mChunkRemaining == 0) ? CHUNK_TRAILER
+							: CHUNK_DATA;
+					isChunkExtension = false;
+					mTrailerLineLength = 0;
+				} else if (b == ';') {
+					isChunkExtension = true;
+				} else if (!isChunkExtension && (b != '\r') && (b != ' ') &&
+						(b != '\t')) {
+					int digit = Character.digit((char) b, 16);
+
+					if ((digit < 0) || (mChunkRemaining > (MAX_CHUNK_SIZE >> 4))) {
+						throw new IOException("bad chunk size");
+					}
+
+					mChunkRemaining = (mChunkRemaining << 4) + digit;
+				}
+
+				break;
+			}
+
+			case CHUNK_DATA: {
+				int count = Math.min(end - offset, mChunkRemaining);
+				append(bytes, offset, count);
+				offset += count;
+				mChunkRemaining -= count;
+
+				if (mChunkRemaining == 0) {
+					mChunkState = CHUNK_END;
+				}
+
+				break;
+			}
+
+			case CHUNK_END:
+
+				if (bytes[offset++] == '\n') {
+					mChunkState = CHUNK_SIZE;
+				}
+
+				break;
+
+			case CHUNK_TRAILER: {
+				byte b = bytes[offset++];
+
+				if (b == '\n') {
+					if (mTrailerLineLength == 0) {
+						mChunkState = CHUNK_DONE;
+					}
+
+					mTrailerLineLength = 0;
+				} else if (b != '\r') {
+					mTrailerLineLength++;
+				}
+
+				break;
+			}
+
+			default:
+				offset = end; //nothing follows the last chunk
+			}
+		}
+	}
+
+	/**
+	 * Append bytes to the buffer, decoding parts whenever it fills.
+	 */
+	private void append(byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			if (mEnd == mBuf.length) {
+				process();
+				compact();
+
+				if (mEnd == mBuf.length) {
+					grow();
+				}
+			}
+
+			int count = Math.min(length, mBuf.length - mEnd);
+			System.arraycopy(bytes, offset, mBuf, mEnd, count);
+			mEnd += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Move the bytes still needed to the front of the buffer.
+	 */
+	private void compact() {
+		int origin;
+
+		switch (mState) {
+		case HEADERS:
+		case BODY:
+		case BODY_SEARCH:
+			origin = mPartStart;
+
+			break;
+
+		case DONE:
+			origin = mEnd;
+
+			break;
+
+		default:
+			origin = mScan;
+		}
+
+		if (origin > 0) {
+			System.arraycopy(mBuf, origin, mBuf, 0, mEnd - origin);
+			mEnd -= origin;
+			mScan -= origin;
+			mPartStart -= origin;
+			mHeaderEnd -= origin;
+			mBodyEnd -= origin;
+		}
+	}
+
+	private void grow() {
+		byte[] buf = new byte[mBuf.length * 2];
+		System.arraycopy(mBuf, 0, buf, 0, mEnd);
+		mBuf = buf;
+		mView = ByteBuffer.wrap(mBuf);
+	}
+
+	/**
+	 * Decode as many parts as the buffered bytes allow.
+	 */
+	private void process() {
+		boolean isProgress = true;
+
+		while (isProgress) {
+			switch (mState) {
+			case SEARCH:
+				isProgress = search();
+
+				break;
+
+			case HEADERS:
+				isProgress = readHeaders();
+
+				break;
+
+			case BODY:
+				isProgress = readBody();
+
+				break;
+
+			case BODY_SEARCH:
+				isProgress = searchBody();
+
+				break;
+
+			case AFTER_BODY:
+				isProgress = readDelimiter();
+
+				break;
+
+			default:
+				mScan = mEnd; //ignore the epilogue
+				isProgress = false;
+			}
+		}
+	}
+
+	/**
+	 * Look for the first delimiter, skipping a preamble or corrupt data.
+	 */
+	private boolean search() {
+		int found = indexOf(mScan, mEnd);
+
+		if (found < 0) {
+			mScan = Math.max(mScan, (mEnd - mDelimiter.length) + 1);
+
+			return false;
+		}
+
+		startPart(found);
+
+		return true;
+	}
+
+	/**
+	 * Read the headers of a part, up to the blank line.
+	 */
+	private boolean readHeaders() {
+		int i = mScan;
+
+		//a close delimiter ends the stream
+		if ((i + 2) > mEnd) {
+			return false;
+		}
+
+		if ((mBuf[i] == '-') && (mBuf[i + 1] == '-')) {
+			mState = DONE;
+			mLog.debug("close delimiter after " + mParts + " parts");
+
+			return true;
+		}
+
+		//the headers end with an empty line
+		for (; i < mEnd; i++) {
+			if (mBuf[i] != '\n') {
+				continue;
+			}
+
+			if (((i + 1) < mEnd) && (mBuf[i + 1] == '\n')) {
+				mHeaderEnd = i + 2;
+
+				break;
+			}
+
+			if (((i + 2) < mEnd) && (mBuf[i + 1] == '\r') &&
+					(mBuf[i + 2] == '\n')) {
+				mHeaderEnd = i + 3;
+
+				break;
+			}
+		}
+
+		if (i == mEnd) {
+			if ((mEnd - mPartStart) > MAX_HEADER_LENGTH) {
+				resync(mScan, "no end of part headers"); //past the delimiter
+
+				return true;
+			}
+
+			return false;
+		}
+
+		int length = new MjpegHeader(mView, mPartStart, mHeaderEnd)
+			.getContentLength();
+
+		if (length > mMaxPartLength) {
+			resync(mHeaderEnd, "part too long: " + length);
+		} else if (length >= 0) {
+			mBodyEnd = mHeaderEnd + length;
+			mState = BODY;
+		} else {
+			mScan = mHeaderEnd;
+			mState = BODY_SEARCH;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Wait for a body of known length, and send it.
+	 */
+	private boolean readBody() {
+		if (mEnd < mBodyEnd) {
+			return false;
+		}
+
+		sendPart(mBodyEnd);
+		mScan = mBodyEnd;
+		mState = AFTER_BODY;
+
+		return true;
+	}
+
+	/**
+	 * Search for the delimiter that ends a body of unknown length.
+	 */
+	private boolean searchBody() {
+		int found = indexOf(mScan, mEnd);
+
+		if (found < 0) {
+			mScan = Math.max(mScan, (mEnd - mDelimiter.length) + 1);
+
+			if ((mEnd - mHeaderEnd) > mMaxPartLength) {
+				resync(mScan, "no delimiter within " + mMaxPartLength +
+					" bytes");
+
+				return true;
+			}
+
+			return false;
+		}
+
+		//the CRLF before the delimiter belongs to the delimiter
+		int line = lineStart(found);
+		int end = line;
+
+		if ((end > mHeaderEnd) && (mBuf[end - 1] == '\n')) {
+			end--;
+		}
+
+		if ((end > mHeaderEnd) && (mBuf[end - 1] == '\r')) {
+			end--;
+		}
+
+		sendPart(end);
+		startPart(found);
+
+		return true;
+	}
+
+	/**
+	 * Check that the next delimiter follows a body of known length.
+	 */
+	private boolean readDelimiter() {
+		int i = mScan;
+
+		while ((i < mEnd) && ((mBuf[i] == '\r') || (mBuf[i] == '\n'))) {
+			i++;
+		}
+
+		mScan = i;
+
+		int dashes = i;
+
+		while ((dashes < mEnd) && (mBuf[dashes] == '-')) {
+			dashes++;
+		}
+
+		//the delimiter starts with the last two dashes
+		int delimiter = Math.max(i, dashes - 2);
+		int count = Math.min(mEnd - delimiter, mDelimiter.length);
+
+		for (int j = 0; j < count; j++) {
+			if (mBuf[delimiter + j] != mDelimiter[j]) {
+				resync(i, "no delimiter after part " + (mSequence - 1));
+
+				return true;
+			}
+		}
+
+		if (count < mDelimiter.length) {
+			return false; //need more bytes
+		}
+
+		startPart(delimiter);
+
+		return true;
+	}
+
+	/**
+	 * Start reading the part at the delimiter.
+	 */
+	private void startPart(int delimiter) {
+		mPartStart = lineStart(delimiter);
+		mScan = delimiter + mDelimiter.length;
+		mState = HEADERS;
+	}
+
+	/**
+	 * Drop the current part, and search for the next delimiter.
+	 */
+	private void resync(int from, String reason) {
+		mResyncs++;
+		mLog.warn("corrupt MJPEG data, " + reason);
+		mScan = from;
+		mState = SEARCH;
+	}
+
+	/**
+	 * Back up from a delimiter over extra leading dashes.
+	 */
+	private int lineStart(int delimiter) {
+		int start = delimiter;
+
+		while ((start > 0) && (mBuf[start - 1] == '-')) {
+			start--;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Find the delimiter with a Boyer-Moore-Horspool search, which skips up
+	 * to the delimiter length for each byte tested.
+	 *
+	 * @return index of the delimiter, or -1 if not found
+	 */
+	private int indexOf(int from, int to) {
+		int last = mDelimiter.length - 1;
+		int i = from + last;
+
+		while (i < to) {
+			int j = last;
+			int k = i;
+
+			while (mBuf[k] == mDelimiter[j]) {
+				if (j == 0) {
+					return k;
+				}
+
+				j--;
+				k--;
+			}
+
+			i += mSkip[mBuf[i] & 0xFF];
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Copy the current part into a frame, and notify the listeners.
+	 */
+	private void sendPart(int bodyEnd) {
+		int length = bodyEnd - mPartStart;
+		int jpegLen = bodyEnd - mHeaderEnd;
+		MjpegFrame frame;
+
+		if (mPool != null) {
+			byte[] data = mPool.acquire(length);
+			System.arraycopy(mBuf, mPartStart, data, 0, length);
+			frame = mPool.createFrame(data, length, jpegLen, mSequence++);
+		} else {
+			byte[] data = new byte[length];
+			System.arraycopy(mBuf, mPartStart, data, 0, length);
+			frame = new MjpegFrame(data, jpegLen, mSequence++);
+		}
+
+		mParts++;
+
+		try {
+			frameMuxer.notifyListeners(new MjpegParserEvent(this, frame));
+		} finally {
+			//listeners retain the frame if they keep it
+			frame.release();
+		}
+	}
+}
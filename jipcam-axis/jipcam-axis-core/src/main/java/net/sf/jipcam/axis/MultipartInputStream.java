@@ -0,0 +1,62 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+
+/**
+ * Body of a multipart HTTP response, which carries the boundary given by
+ * the response's Content-Type.  Each connection has its own boundary, so
+ * parsers read it from the stream instead of from shared state.
+ *
+ * The body is read through a BufferedInputStream of its own, rather than by
+ * extending one: on Java 21 a plain BufferedInputStream locks with a
+ * ReentrantLock, but a subclass still synchronizes, which pins a virtual
+ * thread to its carrier while it reads from the camera.
+ *
+ * @see MultipartDecoder
+ * @author Jason Thrasher
+ */
+public class MultipartInputStream extends FilterInputStream {
+	private String mBoundary;
+
+	/**
+	 * Wrap a response body.
+	 *
+	 * @param in the response body
+	 * @param boundary from the response's Content-Type, or null if it gave
+	 *        none
+	 */
+	public MultipartInputStream(InputStream in, String boundary) {
+		super(new BufferedInputStream(in));
+		mBoundary = boundary;
+	}
+
+	/**
+	 * @return the boundary that separates the parts of this stream, or null
+	 *         if the response didn't give one
+	 */
+	public String getBoundary() {
+		return mBoundary;
+	}
+}
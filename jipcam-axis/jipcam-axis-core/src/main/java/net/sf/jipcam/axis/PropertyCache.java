@@ -0,0 +1,414 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Cache of a camera's properties, as answered by getparam.cgi.
+ *
+ * Each group of properties, like root.Image, is cached on its own, and the
+ * group of all properties is ALL.  A group is also answered from a fresh
+ * snapshot of all properties, without asking the camera.
+ *
+ * A snapshot is fresh for the time to live.  After that it is stale: the
+ * stale snapshot is still returned, and refreshed in the background, for up
+ * to the max stale time; past that, the caller waits for a new snapshot.  So
+ * a monitor that reads properties on a schedule never waits on a slow
+ * camera once the first snapshot is loaded.
+ *
+ * Loads are single flight: callers that want the same group while it is
+ * loading wait for that load, rather than sending requests of their own, and
+ * at most one background refresh of a group runs at a time.
+ *
+ * Each snapshot is indexed by a PropertyIndex as it is loaded, for lookups
+ * by name in any case.
+ *
+ * By default snapshots never expire, as the cache of CameraAPI always did.
+ * Snapshots returned must not be modified.  This class is thread safe.
+ *
+ * @author Jason Thrasher
+ */
+public class PropertyCache {
+	/**
+	 * The group of all properties.
+	 */
+	public static final String ALL = "";
+
+	/**
+	 * Time to live, or max stale time, of snapshots that never expire.
+	 */
+	public static final long NO_EXPIRY = -1;
+
+	private static Logger mLog = LogManager.getLogger(PropertyCache.class);
+
+	private static Executor mSharedExecutor; //refreshes of every cache, by default
+
+	private Loader mLoader;
+	private volatile long mTtl = NO_EXPIRY; //milliseconds
+	private volatile long mMaxStale = NO_EXPIRY; //milliseconds past the ttl
+	private volatile Executor mExecutor; //runs refreshes, or null for the shared one
+	private ConcurrentHashMap mSnapshots = new ConcurrentHashMap(); //group to Snapshot
+	private ConcurrentHashMap mLoads = new ConcurrentHashMap(); //group to FutureTask
+	private AtomicLong mGeneration = new AtomicLong(); //of the snapshots, by invalidate()
+	private AtomicLong mLoadCount = new AtomicLong();
+
+	/**
+	 * Loads the properties of a group from the camera.
+	 */
+	public interface Loader {
+		/**
+		 * @param group of the properties, or ALL
+		 * @return the properties
+		 * @throws IOException if the camera can't be read
+		 */
+		Properties load(String group) throws IOException;
+	}
+
+	/**
+	 * @param loader of the properties
+	 */
+	public PropertyCache(Loader loader) {
+		mLoader = loader;
+	}
+
+	/**
+	 * Set how long snapshots are used.
+	 *
+	 * @param ttl milliseconds a snapshot is fresh, or NO_EXPIRY
+	 * @param maxStale milliseconds after that a stale snapshot is returned
+	 *        while it is refreshed, 0 to always wait for a new one, or
+	 *        NO_EXPIRY to return it however old it is
+	 */
+	public void setTtl(long ttl, long maxStale) {
+		mTtl = ttl;
+		mMaxStale = maxStale;
+	}
+
+	public long getTtl() {
+		return mTtl;
+	}
+
+	public long getMaxStale() {
+		return mMaxStale;
+	}
+
+	/**
+	 * Refresh stale snapshots on the given executor.
+	 *
+	 * @param executor of the refreshes, or null for a pool of daemon threads
+	 *        shared by every cache
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+
+	/**
+	 * @return count of loads from the camera, in the foreground or not
+	 */
+	public long getLoadCount() {
+		return mLoadCount.get();
+	}
+
+	/**
+	 * Get a group of properties.
+	 *
+	 * @param group like root.Image, or ALL
+	 * @return the properties, which must not be modified
+	 * @throws IOException if the properties had to be loaded, and couldn't be
+	 */
+	public Properties get(String group) throws IOException {
+		return getSnapshot(group).mProperties;
+	}
+
+	/**
+	 * Get a group of properties, indexed by name.
+	 *
+	 * @param group like root.Image, or ALL
+	 * @return the index of the properties
+	 * @throws IOException if the properties had to be loaded, and couldn't be
+	 */
+	public PropertyIndex getIndex(String group) throws IOException {
+		return getSnapshot(group).mIndex;
+	}
+
+	private Snapshot getSnapshot(String group) throws IOException {
+		if (group == null) {
+			group = ALL;
+		}
+
+		long now = System.nanoTime();
+		long generation = mGeneration.get();
+		Snapshot snapshot = (Snapshot) mSnapshots.get(group);
+
+		if (((snapshot == null) || !isFresh(snapshot, now))
+				&& !group.equals(ALL)) {
+			// a fresh snapshot of everything has every group
+			Snapshot all = (Snapshot) mSnapshots.get(ALL);
+
+			if ((all != null) && isFresh(all, now)) {
+				snapshot = all.select(group);
+				mSnapshots.put(group, snapshot);
+
+				if (mGeneration.get() != generation) {
+					mSnapshots.remove(group, snapshot); // invalidated meanwhile
+				}
+			}
+		}
+
+		if (snapshot != null) {
+			if (isFresh(snapshot, now)) {
+				return snapshot;
+			}
+
+			if (isServable(snapshot, now)) {
+				refresh(group);
+
+				return snapshot;
+			}
+		}
+
+		return load(group);
+	}
+
+	/**
+	 * Drop every snapshot, as after the camera's properties are changed.
+	 * Loads already running don't cache what they load.
+	 */
+	public void invalidate() {
+		mGeneration.incrementAndGet();
+		mSnapshots.clear();
+	}
+
+	/**
+	 * Change properties in every snapshot, as after the camera has set them,
+	 * without loading the snapshots again.  A property is matched by name in
+	 * any case, and one a snapshot lacks is added to the snapshots of its
+	 * groups.  The snapshots keep their age.  Loads already running don't
+	 * cache what they load, since it may be older than the change.
+	 *
+	 * @param properties names to values
+	 */
+	public void update(Map properties) {
+		mGeneration.incrementAndGet();
+
+		for (Iterator i = mSnapshots.entrySet().iterator(); i.hasNext();) {
+			Map.Entry entry = (Map.Entry) i.next();
+			String group = (String) entry.getKey();
+			Snapshot snapshot = (Snapshot) entry.getValue();
+
+			// a newer snapshot put meanwhile is kept
+			mSnapshots.replace(group, snapshot, snapshot.update(group,
+				properties));
+		}
+	}
+
+	private boolean isFresh(Snapshot snapshot, long now) {
+		return (mTtl < 0) || ((now - snapshot.mLoaded) < (mTtl * 1000000L));
+	}
+
+	private boolean isServable(Snapshot snapshot, long now) {
+		return (mMaxStale < 0)
+				|| ((now - snapshot.mLoaded) < ((mTtl + mMaxStale) * 1000000L));
+	}
+
+	/**
+	 * Load a group, or wait for the load that is running.
+	 */
+	private Snapshot load(String group) throws IOException {
+		FutureTask load = newLoad(group);
+		FutureTask running = (FutureTask) mLoads.putIfAbsent(group, load);
+
+		if (running == null) {
+			running = load;
+			run(group, load);
+		}
+
+		try {
+			return (Snapshot) running.get();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) {
+				throw (IOException) ee.getCause();
+			}
+
+			throw new IOException("could not load properties: " + ee.getCause());
+		} catch (InterruptedException ie) {
+			throw new IOException("interrupted loading properties");
+		}
+	}
+
+	/**
+	 * Load a group in the background, unless it is loading.
+	 */
+	private void refresh(final String group) {
+		final FutureTask load = newLoad(group);
+
+		if (mLoads.putIfAbsent(group, load) != null) {
+			return;
+		}
+
+		try {
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					PropertyCache.this.run(group, load);
+
+					try {
+						load.get();
+					} catch (Exception e) {
+						mLog.warn("could not refresh properties " + group
+								+ ": " + e.getMessage());
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			mLoads.remove(group, load);
+			mLog.warn("could not refresh properties " + group + ": "
+					+ ree.getMessage());
+		}
+	}
+
+	private void run(String group, FutureTask load) {
+		try {
+			load.run();
+		} finally {
+			mLoads.remove(group, load);
+		}
+	}
+
+	private FutureTask newLoad(final String group) {
+		final long generation = mGeneration.get();
+
+		return new FutureTask(new Callable() {
+			public Object call() throws Exception {
+				mLoadCount.incrementAndGet();
+
+				Snapshot snapshot = new Snapshot(mLoader.load(group), System
+						.nanoTime());
+
+				if (mGeneration.get() == generation) {
+					mSnapshots.put(group, snapshot);
+				}
+
+				return snapshot;
+			}
+		});
+	}
+
+	private Executor getExecutor() {
+		Executor executor = mExecutor;
+
+		return (executor != null) ? executor : getSharedExecutor();
+	}
+
+	private static synchronized Executor getSharedExecutor() {
+		if (mSharedExecutor == null) {
+			mSharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, PropertyCache.class.getName());
+
+					// allow to exit cleanly if the VM goes down
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+		}
+
+		return mSharedExecutor;
+	}
+
+	/**
+	 * Properties of a group, their index, and the time they were loaded.
+	 */
+	private static class Snapshot {
+		private Properties mProperties;
+		private PropertyIndex mIndex; //built with the snapshot, off the callers' path
+		private long mLoaded; //nanoTime
+
+		Snapshot(Properties properties, long loaded) {
+			mProperties = properties;
+			mIndex = new PropertyIndex(properties);
+			mLoaded = loaded;
+		}
+
+		/**
+		 * @return the properties of a group, loaded when these were
+		 */
+		Snapshot select(String group) {
+			Properties selected = new Properties();
+
+			for (Iterator i = mProperties.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				String name = (String) entry.getKey();
+
+				if (isInGroup(name, group)) {
+					selected.put(name, entry.getValue());
+				}
+			}
+
+			return new Snapshot(selected, mLoaded);
+		}
+
+		/**
+		 * @return a copy of the snapshot with the properties of its group
+		 *         changed, loaded when this was
+		 */
+		Snapshot update(String group, Map properties) {
+			Properties updated = new Properties();
+			updated.putAll(mProperties);
+
+			for (Iterator i = properties.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				String name = (String) entry.getKey();
+				String cached = mIndex.getName(name);
+
+				if (cached != null) {
+					updated.put(cached, entry.getValue());
+				} else if (isInGroup(name, group)) {
+					updated.put(name, entry.getValue());
+				}
+			}
+
+			return new Snapshot(updated, mLoaded);
+		}
+
+		private static boolean isInGroup(String name, String group) {
+			return name.regionMatches(true, 0, group, 0, group.length())
+					&& ((group.length() == 0) || (name.length() == group.length())
+							|| (name.charAt(group.length()) == '.'));
+		}
+	}
+}
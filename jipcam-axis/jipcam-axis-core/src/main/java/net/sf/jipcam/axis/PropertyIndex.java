@@ -0,0 +1,239 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.awt.Dimension;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Index of camera properties by name, ignoring case, as cameras differ in
+ * the capitalization of their property names: root.Brand.ProdFullName on
+ * some, root.BRAND.PRODFULLNAME on others.
+ *
+ * The names are hashed case folded into an open addressed table when the
+ * index is built, so a lookup hashes the name it is given in place, and
+ * compares it with equalsIgnoreCase(), without allocating.  If two names
+ * differ only in case, the first one indexed is found.
+ *
+ * The typed accessors parse a value the first time it is asked for, and
+ * keep the result with the index.
+ *
+ * An index never changes after it is built, and is thread safe.
+ *
+ * @author Jason Thrasher
+ */
+public class PropertyIndex {
+	private String[] mNames; //table of names, or null slots
+	private String[] mValues;
+	private Object[] mParsed; //Integer or Size, once parsed
+	private int mMask; //table length less one
+	private int mSize = 0;
+
+	/**
+	 * Index properties.
+	 *
+	 * @param properties to index, which aren't kept
+	 */
+	public PropertyIndex(Properties properties) {
+		int length = 16;
+
+		// at most half full
+		while (length < (properties.size() * 2)) {
+			length <<= 1;
+		}
+
+		mNames = new String[length];
+		mValues = new String[length];
+		mParsed = new Object[length];
+		mMask = length - 1;
+
+		for (Iterator i = properties.entrySet().iterator(); i.hasNext();) {
+			Map.Entry entry = (Map.Entry) i.next();
+			String name = (String) entry.getKey();
+			int slot = hash(name) & mMask;
+
+			while ((mNames[slot] != null) && !mNames[slot].equalsIgnoreCase(name)) {
+				slot = (slot + 1) & mMask;
+			}
+
+			if (mNames[slot] == null) {
+				mNames[slot] = name;
+				mValues[slot] = (String) entry.getValue();
+				mSize++;
+			}
+		}
+	}
+
+	/**
+	 * @return count of names indexed
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Get the value of a property.
+	 *
+	 * @param name of the property, in any case
+	 * @return the value, or null if there isn't one
+	 */
+	public String get(String name) {
+		int slot = find(name);
+
+		return (slot < 0) ? null : mValues[slot];
+	}
+
+	/**
+	 * Get the name of a property as the camera has it, as setparam.cgi needs.
+	 *
+	 * @param name of the property, in any case
+	 * @return the name, or null if there isn't one
+	 */
+	public String getName(String name) {
+		int slot = find(name);
+
+		return (slot < 0) ? null : mNames[slot];
+	}
+
+	/**
+	 * Get the value of a property as an integer.
+	 *
+	 * @param name of the property, in any case
+	 * @return the value
+	 * @throws NumberFormatException if there isn't one, or it isn't a number
+	 */
+	public int getInt(String name) {
+		int slot = find(name);
+
+		if (slot < 0) {
+			throw new NumberFormatException("no property: " + name);
+		}
+
+		Object parsed = mParsed[slot];
+
+		if (!(parsed instanceof Integer)) {
+			parsed = Integer.valueOf(mValues[slot].trim());
+			mParsed[slot] = parsed;
+		}
+
+		return ((Integer) parsed).intValue();
+	}
+
+	/**
+	 * Get the value of a property as an integer.
+	 *
+	 * @param name of the property, in any case
+	 * @param defaultValue if there isn't one, or it isn't a number
+	 * @return the value
+	 */
+	public int getInt(String name, int defaultValue) {
+		try {
+			return getInt(name);
+		} catch (NumberFormatException nfe) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Get the value of a property of the form {width}x{height}, like
+	 * root.Image.Resolution.
+	 *
+	 * @param name of the property, in any case
+	 * @return a new dimension, or null if there isn't one, or it isn't of
+	 *         that form
+	 */
+	public Dimension getDimension(String name) {
+		int slot = find(name);
+
+		if (slot < 0) {
+			return null;
+		}
+
+		Object parsed = mParsed[slot];
+
+		if (!(parsed instanceof Size)) {
+			String value = mValues[slot].trim();
+			int x = value.indexOf('x');
+
+			try {
+				parsed = new Size(Integer.parseInt(value.substring(0, x)),
+						Integer.parseInt(value.substring(x + 1)));
+			} catch (RuntimeException re) {
+				return null; // no x, or not numbers
+			}
+
+			mParsed[slot] = parsed;
+		}
+
+		Size size = (Size) parsed;
+
+		return new Dimension(size.mWidth, size.mHeight);
+	}
+
+	/**
+	 * @return the slot of a name, or -1 if it isn't indexed
+	 */
+	private int find(String name) {
+		int slot = hash(name) & mMask;
+		String indexed;
+
+		while ((indexed = mNames[slot]) != null) {
+			if (indexed.equalsIgnoreCase(name)) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mMask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Hash a name case folded, as equalsIgnoreCase() compares it.
+	 */
+	private static int hash(String name) {
+		int h = 0;
+
+		for (int i = 0; i < name.length(); i++) {
+			h = (31 * h)
+					+ Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+		}
+
+		// spread the high bits into the low bits of the mask
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * A parsed width and height.  The fields are final, so a Size is safe
+	 * to share between threads without a lock.
+	 */
+	private static class Size {
+		private final int mWidth;
+		private final int mHeight;
+
+		Size(int width, int height) {
+			mWidth = width;
+			mHeight = height;
+		}
+	}
+}
@@ -100,8 +100,8 @@ public class MjpegStream implements PullBufferStream {
 		}
 
 		// Read the entire JPEG image from the frame.
-		System.arraycopy(frame.getJpegBytes(), 0, data, 0,
-			frame.getContentLength());
+		frame.getJpegBuffer().get(data, 0, frame.getContentLength());
+		frame.release();
 		buf.setOffset(0);
 		buf.setLength(frame.getContentLength());
 		buf.setFormat(mFormat);
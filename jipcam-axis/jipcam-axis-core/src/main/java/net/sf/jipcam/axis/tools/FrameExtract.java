@@ -26,6 +26,7 @@ import java.io.OutputStream;
 import java.net.URL;
 
 import net.sf.jipcam.axis.CameraAPI;
+import net.sf.jipcam.axis.MjpegFrame;
 import net.sf.jipcam.axis.MjpegFrameParser;
 import net.sf.jipcam.axis.MjpegParserEvent;
 import net.sf.jipcam.axis.MjpegParserListener;
@@ -76,7 +77,8 @@ public class FrameExtract implements MjpegParserListener {
             mStartedWriting = true;
             // write to file
             try {
-                mOut.write(event.getMjpegFrame().getBytes());
+                MjpegFrame frame = event.getMjpegFrame();
+                mOut.write(frame.getBytes(), 0, frame.getLength());
                 System.out.print("+");
             } catch (IOException ioe) {
                 ioe.printStackTrace();
@@ -30,11 +30,10 @@ import javax.swing.JApplet;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
+import net.sf.jipcam.axis.CameraConnections;
+
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpConnectionManager;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.params.HttpConnectionParams;
 
 /**
  * This is a Java Applet that demonstrates how to create a simple media player
@@ -122,13 +121,12 @@ public class MjpegApplet extends JApplet {
 			// use HTTPClient to get stream, because it will implement a proper
 			// timeout
 			System.out.println("connecting to the server");
-			HttpClient mClient = new HttpClient(
-					new MultiThreadedHttpConnectionManager());
+			HttpClient mClient = new HttpClient(CameraConnections.getShared()
+					.getStreamManager());
 			int timeout = 20;
 			
-			HttpConnectionManager conManager = mClient.getHttpConnectionManager();
-			HttpConnectionParams  params = conManager.getParams();
-			params.setConnectionTimeout(timeout * 1000);
+			// connections time out after CameraConnections.DEFAULT_CONNECT_TIMEOUT
+			mClient.getParams().setConnectionManagerTimeout(timeout * 1000);
 			//mClient.setConnectionTimeout(timeout * 1000); // set the timeout
 			
 			int iGetResultCode = -1;
@@ -144,6 +142,7 @@ public class MjpegApplet extends JApplet {
 				in = new BufferedInputStream(get.getResponseBodyAsStream());
 			} else {
 				System.out.println("HTTP error: " + get.getStatusText());
+				get.releaseConnection();
 				throw new IOException("HTTP " + iGetResultCode + " "
 						+ get.getStatusText());
 			}
@@ -0,0 +1,124 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class AsyncCameraAPITest extends TestCase {
+	private AsyncCameraAPI mAsync;
+
+	public AsyncCameraAPITest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		CameraAPI api = new CameraAPI(new URL("http://localhost:1/")) {
+			protected Properties loadProperties(String group) {
+				Properties properties = new Properties();
+				properties.setProperty("root.Image.Resolution", "704x480");
+
+				return properties;
+			}
+
+			public String serverReport() throws IOException {
+				throw new IOException("refused");
+			}
+		};
+
+		mAsync = new AsyncCameraAPI(api);
+	}
+
+	public void testFuture() throws Exception {
+		Future future = mAsync.getProperty("ROOT.IMAGE.RESOLUTION", null);
+		assertEquals("704x480", future.get(5, TimeUnit.SECONDS));
+
+		future = mAsync.serverReport(null);
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("report of a failed call");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof IOException);
+		}
+	}
+
+	public void testCallback() throws Exception {
+		final List results = new ArrayList();
+		final CountDownLatch done = new CountDownLatch(2);
+		AsyncCameraAPI.Callback callback = new AsyncCameraAPI.Callback() {
+			public void completed(Object result) {
+				results.add(result);
+				done.countDown();
+			}
+
+			public void failed(Throwable cause) {
+				results.add(cause);
+				done.countDown();
+			}
+		};
+
+		mAsync.getProperties(callback);
+		mAsync.serverReport(callback);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		assertEquals(2, results.size());
+		int failure = (results.get(0) instanceof IOException) ? 0 : 1;
+		assertEquals("refused", ((IOException) results.get(failure))
+				.getMessage());
+		assertEquals("704x480", ((Properties) results.get(1 - failure))
+				.getProperty("root.Image.Resolution"));
+	}
+
+	public void testCancel() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final Throwable[] failure = new Throwable[1];
+		Future future = mAsync.submit(new Callable() {
+			public Object call() throws Exception {
+				started.countDown();
+				Thread.sleep(10000);
+
+				return null;
+			}
+		}, new AsyncCameraAPI.Callback() {
+			public void completed(Object result) {
+			}
+
+			public void failed(Throwable cause) {
+				failure[0] = cause;
+			}
+		});
+
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertTrue(future.cancel(true));
+		assertTrue(failure[0] instanceof CancellationException);
+	}
+}
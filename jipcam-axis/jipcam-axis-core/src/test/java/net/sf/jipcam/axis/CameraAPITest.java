@@ -19,8 +19,18 @@
 
 package net.sf.jipcam.axis;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import junit.framework.TestCase;
 
+import org.apache.commons.httpclient.Header;
+
 public class CameraAPITest extends TestCase {
 	private CameraAPI api;
 
@@ -45,7 +55,52 @@ public class CameraAPITest extends TestCase {
 		assertEquals(CameraAPI.MJPEG_BOUNDARY, boundary);
 	}
 
+	/**
+	 * A stream without a boundary is left to be split by JPEG markers.
+	 */
+	public void testParseBoundary() throws Exception {
+		assertNull(CameraAPI.parseBoundary(null));
+		assertNull(CameraAPI.parseBoundary(new Header("Content-Type",
+				"multipart/x-mixed-replace")));
+		assertEquals("--frame", CameraAPI.parseBoundary(new Header(
+				"Content-Type", "multipart/x-mixed-replace; boundary=--frame")));
+
+		InputStream mjpeg = new MultipartInputStream(new ByteArrayInputStream(
+				new byte[0]), null);
+		assertEquals(CameraAPI.MJPEG_BOUNDARY, CameraAPI.getMjpegBoundary(mjpeg));
+	}
+
 	public static void main(String[] args) {
 		junit.textui.TestRunner.run(CameraAPITest.class);
 	}
+
+	public void testParseSetErrors() throws Exception {
+		Map properties = new LinkedHashMap();
+		properties.put("root.Image.Resolution", "CIF");
+		properties.put("root.Image.Foo", "bar");
+
+		Map errors = CameraAPI.parseSetErrors(new BufferedReader(
+				new StringReader("OK\r\n")), properties);
+		assertTrue(errors.isEmpty());
+
+		errors = CameraAPI.parseSetErrors(new BufferedReader(new StringReader(
+				"# Error: Error setting 'root.Image.Foo' to 'bar'!\r\n")),
+				properties);
+		assertEquals(1, errors.size());
+		assertEquals("# Error: Error setting 'root.Image.Foo' to 'bar'!",
+				errors.get("root.Image.Foo"));
+
+		// any other answer is a confirmation
+		errors = CameraAPI.parseSetErrors(new BufferedReader(new StringReader(
+				"<html><body>Parameters set</body></html>\r\n")), properties);
+		assertTrue(errors.isEmpty());
+
+		try {
+			CameraAPI.parseSetErrors(new BufferedReader(new StringReader(
+					"# Error: permission denied\r\n")), properties);
+			fail("unknown error ignored");
+		} catch (IOException ioe) {
+			// the properties set are unknown
+		}
+	}
 }
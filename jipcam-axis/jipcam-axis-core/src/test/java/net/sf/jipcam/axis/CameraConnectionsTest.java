@@ -0,0 +1,185 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+public class CameraConnectionsTest extends TestCase {
+	private static final String PROPERTIES = "root.Image.Resolution=704x480\r\n";
+
+	private ServerSocket mServer;
+	private int mAccepted = 0; //connections accepted by the camera
+	private CameraConnections mConnections;
+
+	public CameraConnectionsTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Start a camera that keeps connections alive.
+	 */
+	protected void setUp() throws Exception {
+		mServer = new ServerSocket(0);
+		mConnections = new CameraConnections();
+
+		Thread camera = new Thread() {
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = mServer.accept();
+
+						synchronized (CameraConnectionsTest.this) {
+							mAccepted++;
+						}
+
+						new Thread() {
+							public void run() {
+								serve(socket);
+							}
+						}.start();
+					}
+				} catch (Exception e) {
+					// closed
+				}
+			}
+		};
+		camera.setDaemon(true);
+		camera.start();
+	}
+
+	protected void tearDown() throws Exception {
+		mConnections.shutdown();
+		mServer.close();
+	}
+
+	public void testKeepAlive() throws Exception {
+		URL url = new URL("http://localhost:" + mServer.getLocalPort() + "/");
+		CameraAPI first = new CameraAPI(url, mConnections);
+		CameraAPI second = new CameraAPI(url, mConnections);
+
+		assertEquals("704x480", first.getProperty("root.Image.Resolution"));
+		assertEquals("704x480", second.getProperty("root.Image.Resolution"));
+		first.getPropertyCache().invalidate();
+		assertEquals("704x480", first.getProperty("root.Image.Resolution"));
+
+		// one connection, kept alive for every request
+		assertEquals(1, getAccepted());
+		assertEquals(1, mConnections.getControlConnections());
+		assertEquals(1, mConnections.getControlConnections("localhost",
+				mServer.getLocalPort()));
+
+		// streams have connections of their own
+		InputStream mjpeg = first.getMjpeg();
+		assertEquals(2, getAccepted());
+		assertEquals(1, mConnections.getStreamConnections());
+		assertEquals(1, mConnections.getControlConnections());
+
+		second.getPropertyCache().invalidate();
+		second.getProperties();
+		assertEquals(2, getAccepted());
+		mjpeg.close();
+
+		// idle connections are closed
+		mConnections.setIdleTimeout(50);
+		Thread.sleep(500);
+		assertEquals(0, mConnections.getControlConnections());
+	}
+
+	public void testStreamLimit() throws Exception {
+		URL url = new URL("http://localhost:" + mServer.getLocalPort() + "/");
+		mConnections.setMaxStreamsPerHost(1);
+
+		InputStream mjpeg = new CameraAPI(url, mConnections).getMjpeg();
+		CameraAPI api = new CameraAPI(url, mConnections);
+
+		// a stream over the limit waits for a while, not forever
+		assertEquals(CameraConnections.DEFAULT_POOL_TIMEOUT, api.mStreamClient
+				.getParams().getConnectionManagerTimeout());
+		api.mStreamClient.getParams().setConnectionManagerTimeout(200);
+
+		try {
+			api.getMjpeg();
+			fail("stream over the limit");
+		} catch (IOException ioe) {
+			// no connection within the pool timeout
+		}
+
+		mjpeg.close();
+	}
+
+	public void testShared() {
+		assertSame(CameraConnections.getShared(), CameraConnections
+				.getShared());
+		assertEquals(CameraConnections.DEFAULT_MAX_PER_HOST, mConnections
+				.getMaxPerHost());
+
+		mConnections.setMaxStreams(10);
+		assertEquals(10, mConnections.getMaxStreams());
+		assertTrue(mConnections.toString().indexOf("of 10") > 0);
+	}
+
+	private synchronized int getAccepted() {
+		return mAccepted;
+	}
+
+	/**
+	 * Answer every request on a connection: properties, or a stream that
+	 * sends nothing.
+	 */
+	private static void serve(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			StringBuffer request = new StringBuffer();
+			int b;
+
+			while ((b = in.read()) >= 0) {
+				request.append((char) b);
+
+				if (request.toString().endsWith("\r\n\r\n")) {
+					if (request.indexOf("mjpg") >= 0) {
+						out.write(("HTTP/1.0 200 OK\r\n" + "Content-Type: "
+								+ "multipart/x-mixed-replace; boundary=--myboundary"
+								+ "\r\n\r\n").getBytes("ISO-8859-1"));
+						out.flush();
+					} else {
+						out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain"
+								+ "\r\nContent-Length: " + PROPERTIES.length()
+								+ "\r\n\r\n" + PROPERTIES).getBytes("ISO-8859-1"));
+						out.flush();
+					}
+
+					request.setLength(0);
+				}
+			}
+
+			socket.close();
+		} catch (Exception e) {
+			// closed
+		}
+	}
+}
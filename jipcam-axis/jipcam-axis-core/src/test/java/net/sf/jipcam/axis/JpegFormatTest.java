@@ -0,0 +1,154 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+public class JpegFormatTest extends TestCase {
+	public JpegFormatTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Encode a noisy image, so the entropy coded data has stuffed bytes.
+	 */
+	static byte[] createRealJpeg(int width, int height, long seed)
+		throws Exception {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(seed);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(ImageIO.write(image, "jpg", out));
+
+		return out.toByteArray();
+	}
+
+	private static int naiveFind(byte[] buf, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buf[i] == (byte) 0xFF) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public void testFindMarkerMatchesByteSearch() throws Exception {
+		Random random = new Random(42);
+		byte[] buf = new byte[300];
+
+		for (int trial = 0; trial < 200; trial++) {
+			Arrays.fill(buf, (byte) 0x7F);
+
+			//a few markers and near misses at random positions
+			for (int i = 0; i < 3; i++) {
+				buf[random.nextInt(buf.length)] = (byte) 0xFF;
+				buf[random.nextInt(buf.length)] = (byte) 0xFE;
+			}
+
+			int from = random.nextInt(40);
+			int to = buf.length - random.nextInt(40);
+			int expected = naiveFind(buf, from, to);
+
+			assertEquals(expected, JpegFormat.findMarker(ByteBuffer.wrap(buf),
+					from, to));
+			assertEquals(expected,
+				JpegFormat.findMarker(ByteBuffer.wrap(buf)
+												.order(ByteOrder.LITTLE_ENDIAN),
+					from, to));
+		}
+	}
+
+	public void testFindTwoByteMarker() throws Exception {
+		byte[] buf = { 0x00, (byte) 0xFF, 0x00, (byte) 0xFF, (byte) 0xD9, 0x00 };
+
+		assertEquals(3,
+			JpegFormat.findMarker(buf, 0, buf.length, JpegFormat.EOF_MARKER));
+		assertEquals(-1,
+			JpegFormat.findMarker(buf, 0, 4, JpegFormat.EOF_MARKER));
+	}
+
+	public void testEndOfRealImage() throws Exception {
+		byte[] jpeg = createRealJpeg(64, 48, 1);
+		byte[] padded = new byte[jpeg.length + 10];
+		System.arraycopy(jpeg, 0, padded, 5, jpeg.length);
+
+		assertEquals(5 + jpeg.length,
+			JpegFormat.getEndOfImage(padded, 5, padded.length));
+		assertEquals(-1, JpegFormat.getEndOfImage(jpeg, 0, jpeg.length - 1));
+	}
+
+	/**
+	 * The scanner continues where it stopped as bytes arrive.
+	 */
+	public void testScannerResumes() throws Exception {
+		byte[] jpeg = createRealJpeg(64, 48, 2);
+		ByteBuffer buf = ByteBuffer.wrap(jpeg);
+		JpegScanner scanner = new JpegScanner();
+		scanner.reset(0);
+
+		int length = 0;
+		int end = -1;
+
+		while (end < 0) {
+			assertTrue(length < jpeg.length);
+			length = Math.min(length + 7, jpeg.length);
+			end = scanner.scan(buf, 0, length);
+		}
+
+		assertEquals(jpeg.length, end);
+	}
+
+	/**
+	 * Without Content-Length, frames are found by scanning the images.
+	 */
+	public void testInputStreamWithoutContentLength() throws Exception {
+		byte[][] jpegs = new byte[5][];
+
+		for (int i = 0; i < jpegs.length; i++) {
+			jpegs[i] = createRealJpeg(32 + (i * 8), 24, i);
+		}
+
+		MjpegInputStream in = new MjpegInputStream(new ByteArrayInputStream(
+					MjpegChannelReaderTest.createMjpeg(jpegs, false)));
+
+		for (int i = 0; i < jpegs.length; i++) {
+			MjpegFrame frame = in.readMjpegFrame();
+			assertTrue(Arrays.equals(jpegs[i], frame.getJpegBytes()));
+		}
+	}
+}
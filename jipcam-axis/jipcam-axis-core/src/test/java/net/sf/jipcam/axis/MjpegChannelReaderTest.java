@@ -0,0 +1,172 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MjpegChannelReaderTest extends TestCase {
+	private static final int FRAMES = 20;
+
+	public MjpegChannelReaderTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Create a fake JPEG of the given length, with SOI and EOI markers.
+	 */
+	static byte[] createJpeg(int length, int seed) {
+		byte[] jpeg = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			jpeg[i] = (byte) ((i * 31) + seed);
+
+			//no markers inside the fake image data
+			if (jpeg[i] == (byte) 0xFF) {
+				jpeg[i] = 0x00;
+			}
+		}
+
+		jpeg[0] = (byte) 0xFF;
+		jpeg[1] = (byte) 0xD8;
+		jpeg[length - 2] = (byte) 0xFF;
+		jpeg[length - 1] = (byte) 0xD9;
+
+		return jpeg;
+	}
+
+	/**
+	 * Create an MJPEG stream of the given JPEGs.
+	 */
+	static byte[] createMjpeg(byte[][] jpegs, boolean showLength)
+		throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (int i = 0; i < jpegs.length; i++) {
+			StringBuffer header = new StringBuffer();
+			header.append("--myboundary\r\nContent-Type: image/jpeg\r\n");
+
+			if (showLength) {
+				header.append("Content-Length: " + jpegs[i].length + "\r\n");
+			}
+
+			header.append("\r\n");
+			out.write(header.toString().getBytes("US-ASCII"));
+			out.write(jpegs[i]);
+			out.write("\r\n".getBytes("US-ASCII"));
+		}
+
+		return out.toByteArray();
+	}
+
+	static byte[][] createJpegs() {
+		byte[][] jpegs = new byte[FRAMES][];
+
+		for (int i = 0; i < FRAMES; i++) {
+			jpegs[i] = createJpeg(500 + (i * 37), i);
+		}
+
+		return jpegs;
+	}
+
+	private void readAll(boolean showLength, int capacity) throws Exception {
+		byte[][] jpegs = createJpegs();
+		byte[] mjpeg = createMjpeg(jpegs, showLength);
+		MjpegChannelReader reader = new MjpegChannelReader(Channels.newChannel(
+					new ByteArrayInputStream(mjpeg)), capacity);
+
+		for (int i = 0; i < FRAMES; i++) {
+			MjpegFrame frame = reader.readMjpegFrame();
+			assertEquals(i, frame.getSequence());
+			assertEquals(jpegs[i].length, frame.getContentLength());
+			assertTrue(Arrays.equals(jpegs[i], frame.getJpegBytes()));
+			frame.release();
+			assertTrue(frame.isReleased());
+		}
+
+		assertEquals(0, reader.getOutstandingCount());
+
+		try {
+			reader.readMjpegFrame();
+			fail("expected end of stream");
+		} catch (EOFException eof) {
+			//expected
+		}
+	}
+
+	public void testReadWithContentLength() throws Exception {
+		readAll(true, MjpegChannelReader.DEFAULT_CAPACITY);
+	}
+
+	public void testReadWithoutContentLength() throws Exception {
+		readAll(false, MjpegChannelReader.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * A small ring forces the partial frame to wrap to the front.
+	 */
+	public void testReadWrapsSmallRing() throws Exception {
+		readAll(true, 1500);
+		readAll(false, 1500);
+	}
+
+	/**
+	 * Frames held by another thread block the reader until they're released.
+	 */
+	public void testUnreleasedFramesBlockReader() throws Exception {
+		byte[][] jpegs = createJpegs();
+		final MjpegChannelReader reader = new MjpegChannelReader(Channels.newChannel(
+					new ByteArrayInputStream(createMjpeg(jpegs, true))), 3000);
+		final MjpegFrame first = reader.readMjpegFrame();
+		MjpegFrame second = reader.readMjpegFrame();
+		second.release();
+
+		//space is reclaimed oldest first
+		assertEquals(2, reader.getOutstandingCount());
+
+		Thread releaser = new Thread() {
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException ie) {
+						//ignore
+					}
+
+					first.release();
+				}
+			};
+
+		releaser.start();
+
+		for (int i = 2; i < FRAMES; i++) {
+			MjpegFrame frame = reader.readMjpegFrame();
+			assertTrue(Arrays.equals(jpegs[i], frame.getJpegBytes()));
+			frame.release();
+		}
+
+		releaser.join();
+		assertEquals(0, reader.getOutstandingCount());
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import junit.framework.TestCase;
+
+public class MjpegFifoTest extends TestCase {
+	public MjpegFifoTest(String name) {
+		super(name);
+	}
+
+	private static MjpegFrame[] createFrames(int count) {
+		MjpegFrame[] frames = new MjpegFrame[count];
+
+		for (int i = 0; i < count; i++) {
+			frames[i] = new MjpegFrame(MjpegChannelReaderTest.createJpeg(100, i),
+					i);
+		}
+
+		return frames;
+	}
+
+	private static void fill(MjpegFifo fifo, MjpegFrame[] frames) {
+		for (int i = 0; i < frames.length; i++) {
+			fifo.addMjpegFrame(frames[i]);
+			frames[i].release(); //the source's reference
+		}
+	}
+
+	public void testDropOldest() throws Exception {
+		MjpegFifo fifo = new MjpegFifo(3, MjpegFifo.DROP_OLDEST);
+		MjpegFrame[] frames = createFrames(5);
+		fill(fifo, frames);
+
+		assertTrue(fifo.isFull());
+		assertEquals(2, fifo.getDroppedCount());
+		assertTrue(frames[0].isReleased());
+		assertEquals(2, fifo.getMjpegFrame().getSequence());
+		assertEquals(3, fifo.getMjpegFrame().getSequence());
+		assertEquals(4, fifo.getMjpegFrame().getSequence());
+		assertNull(fifo.pollMjpegFrame(10));
+	}
+
+	public void testDropNewest() throws Exception {
+		MjpegFifo fifo = new MjpegFifo(2, MjpegFifo.DROP_NEWEST);
+		MjpegFrame[] frames = createFrames(4);
+		fill(fifo, frames);
+
+		assertEquals(2, fifo.getDroppedCount());
+		assertTrue(frames[3].isReleased());
+		assertEquals(0, fifo.getMjpegFrame().getSequence());
+		assertEquals(1, fifo.getMjpegFrame().getSequence());
+	}
+
+	public void testKeepLatest() throws Exception {
+		MjpegFifo fifo = new MjpegFifo(10, MjpegFifo.KEEP_LATEST);
+		fill(fifo, createFrames(4));
+
+		assertEquals(1, fifo.size());
+		assertEquals(3, fifo.getDroppedCount());
+		assertEquals(3, fifo.getMjpegFrame().getSequence());
+	}
+
+	public void testBlockUntilTaken() throws Exception {
+		final MjpegFifo fifo = new MjpegFifo(2);
+		final MjpegFrame[] frames = createFrames(6);
+
+		Thread source = new Thread() {
+				public void run() {
+					fill(fifo, frames);
+				}
+			};
+
+		source.start();
+
+		for (int i = 0; i < frames.length; i++) {
+			MjpegFrame frame = fifo.getMjpegFrame();
+			assertEquals(i, frame.getSequence());
+			frame.release();
+		}
+
+		source.join();
+		fifo.waitUntilEmpty();
+		assertEquals(0, fifo.getDroppedCount());
+		assertTrue(frames[5].isReleased());
+	}
+}
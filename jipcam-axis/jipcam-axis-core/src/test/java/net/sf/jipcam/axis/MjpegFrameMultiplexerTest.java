@@ -0,0 +1,154 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class MjpegFrameMultiplexerTest extends TestCase {
+	private static final int FRAMES = 20;
+
+	public MjpegFrameMultiplexerTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Records frame sequences, taking the given time for each.
+	 */
+	private static class Recorder implements MjpegParserListener {
+		List mSequences = new ArrayList();
+		long mDelay;
+
+		Recorder(long delay) {
+			mDelay = delay;
+		}
+
+		public void onMjpegParserEvent(MjpegParserEvent event) {
+			assertFalse(event.getMjpegFrame().isReleased());
+
+			try {
+				Thread.sleep(mDelay);
+			} catch (InterruptedException ie) {
+				//ignore
+			}
+
+			synchronized (this) {
+				mSequences.add(Integer.valueOf(event.getMjpegFrame().getSequence()));
+				notifyAll();
+			}
+		}
+
+		synchronized void awaitCount(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while ((mSequences.size() < count) &&
+					(System.currentTimeMillis() < deadline)) {
+				wait(100);
+			}
+		}
+	}
+
+	private static void notifyFrames(MjpegFrameMultiplexer muxer) {
+		for (int i = 0; i < FRAMES; i++) {
+			MjpegFrame frame = new MjpegFrame(MjpegChannelReaderTest.createJpeg(
+						100, i), i);
+			muxer.notifyListeners(new MjpegParserEvent(muxer, frame));
+			frame.release(); //as the parser does
+		}
+	}
+
+	/**
+	 * A slow listener drops frames instead of stalling the others.
+	 */
+	public void testSlowListenerIsIsolated() throws Exception {
+		MjpegFrameMultiplexer muxer = new MjpegFrameMultiplexer();
+		Recorder fast = new Recorder(0);
+		Recorder slow = new Recorder(50);
+		muxer.addMjpegParserListener(fast);
+
+		AsyncMjpegParserListener queue = muxer.addMjpegParserListener(slow, 2,
+				MjpegFifo.KEEP_LATEST, null);
+
+		long start = System.currentTimeMillis();
+		notifyFrames(muxer);
+		assertTrue((System.currentTimeMillis() - start) < (FRAMES * 50));
+		assertEquals(FRAMES, fast.mSequences.size());
+
+		//every frame is either delivered or dropped
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (((queue.getDroppedCount() + queue.getDeliveredCount()) < FRAMES) &&
+				(System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+
+		assertTrue(queue.getDroppedCount() > 0);
+		assertEquals(FRAMES, queue.getDroppedCount() +
+			queue.getDeliveredCount());
+		assertEquals(Integer.valueOf(FRAMES - 1),
+			slow.mSequences.get(slow.mSequences.size() - 1));
+
+		muxer.removeMjpegParserListener(slow);
+	}
+
+	public void testBlockingListenerGetsEveryFrameInOrder() throws Exception {
+		MjpegFrameMultiplexer muxer = new MjpegFrameMultiplexer();
+		Recorder recorder = new Recorder(1);
+		AsyncMjpegParserListener queue = muxer.addMjpegParserListener(recorder,
+				4, MjpegFifo.BLOCK, null);
+
+		notifyFrames(muxer);
+		recorder.awaitCount(FRAMES);
+
+		for (int i = 0; i < FRAMES; i++) {
+			assertEquals(Integer.valueOf(i), recorder.mSequences.get(i));
+		}
+
+		assertEquals(0, queue.getDroppedCount());
+		muxer.removeMjpegParserListener(recorder);
+	}
+
+	/**
+	 * A listener added twice gets each frame once, from its new queue.
+	 */
+	public void testListenerAddedTwice() throws Exception {
+		MjpegFrameMultiplexer muxer = new MjpegFrameMultiplexer();
+		Recorder recorder = new Recorder(0);
+		AsyncMjpegParserListener first = muxer.addMjpegParserListener(recorder,
+				4, MjpegFifo.BLOCK, null);
+		AsyncMjpegParserListener second = muxer.addMjpegParserListener(
+				recorder, 4, MjpegFifo.BLOCK, null);
+
+		notifyFrames(muxer);
+		recorder.awaitCount(FRAMES);
+		Thread.sleep(100);
+
+		assertEquals(FRAMES, recorder.mSequences.size());
+		assertEquals(0, first.getDeliveredCount());
+		assertEquals(FRAMES, second.getDeliveredCount());
+
+		muxer.removeMjpegParserListener(recorder);
+		notifyFrames(muxer);
+		Thread.sleep(100);
+		assertEquals(FRAMES, recorder.mSequences.size());
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class MjpegFrameParserTest extends TestCase {
+	public MjpegFrameParserTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Counts frames, and suspends the parser at the first one.
+	 */
+	private static class SuspendingCounter implements MjpegParserListener {
+		MjpegFrameParser mParser;
+		int mCount = 0;
+
+		public synchronized void onMjpegParserEvent(MjpegParserEvent event) {
+			if (mCount++ == 0) {
+				mParser.suspend();
+			}
+
+			notifyAll();
+		}
+
+		synchronized void awaitCount(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while ((mCount < count) && (System.currentTimeMillis() < deadline)) {
+				wait(100);
+			}
+		}
+	}
+
+	public void testSuspendResumeOnExecutor() throws Exception {
+		byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+		MjpegFrameParser parser = new MjpegFrameParser(new ByteArrayInputStream(
+					MjpegChannelReaderTest.createMjpeg(jpegs, true)));
+		ExecutorService executor = Executors.newCachedThreadPool();
+		parser.setExecutor(executor);
+
+		SuspendingCounter counter = new SuspendingCounter();
+		counter.mParser = parser;
+		parser.addMjpegParserListener(counter);
+		parser.start();
+
+		counter.awaitCount(1);
+		Thread.sleep(100);
+		assertTrue(parser.isAlive());
+		assertEquals(1, counter.mCount);
+
+		parser.resume();
+		parser.join(); //ends at the end of the stream
+		assertFalse(parser.isAlive());
+		assertEquals(jpegs.length, counter.mCount);
+
+		executor.shutdown();
+	}
+
+	/**
+	 * A parser runs once at a time, even after stop() while it is blocked in
+	 * a read.
+	 */
+	public void testStartTwice() throws Exception {
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		// blocks until the gate opens, then never ends
+		InputStream camera = new InputStream() {
+			public int read() throws IOException {
+				try {
+					gate.await();
+				} catch (InterruptedException ie) {
+					throw new IOException(ie.getMessage());
+				}
+
+				return 'x';
+			}
+		};
+		MjpegFrameParser parser = new MjpegFrameParser(camera, "myboundary");
+		parser.start();
+
+		try {
+			parser.start();
+			fail("second reader of the stream");
+		} catch (IllegalStateException ise) {
+			// expected
+		}
+
+		parser.stop();
+
+		try {
+			parser.start();
+			fail("started while the stopped run is blocked in a read");
+		} catch (IllegalStateException ise) {
+			// expected
+		}
+
+		assertTrue(parser.isAlive());
+
+		// the stopped run ends after its read
+		gate.countDown();
+		parser.join();
+		assertFalse(parser.isAlive());
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MjpegFramePoolTest extends TestCase {
+	public MjpegFramePoolTest(String name) {
+		super(name);
+	}
+
+	public void testAcquireReusesSizeClass() throws Exception {
+		MjpegFramePool pool = new MjpegFramePool();
+		byte[] first = pool.acquire(3000);
+		assertEquals(4096, first.length);
+
+		pool.release(first);
+		assertEquals(4096, pool.getIdleBytes());
+
+		assertSame(first, pool.acquire(2100));
+		assertEquals(1, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		assertEquals(0, pool.getIdleBytes());
+	}
+
+	public void testIdleBytesAreBounded() throws Exception {
+		MjpegFramePool pool = new MjpegFramePool(5000);
+		byte[] first = pool.acquire(4096);
+		byte[] second = pool.acquire(4096);
+
+		pool.release(first);
+		pool.release(second); //over the limit, dropped
+		assertEquals(4096, pool.getIdleBytes());
+
+		pool.release(new byte[1000]); //not a size class, dropped
+		assertEquals(4096, pool.getIdleBytes());
+	}
+
+	public void testLastReleaseRecyclesFrame() throws Exception {
+		MjpegFramePool pool = new MjpegFramePool();
+		byte[] array = pool.acquire(100);
+		MjpegFrame frame = pool.createFrame(array, 100, 60, 0);
+
+		frame.retain();
+		assertEquals(2, frame.getRefCount());
+
+		frame.release();
+		assertFalse(frame.isReleased());
+		assertEquals(0, pool.getIdleBytes());
+
+		frame.release();
+		assertTrue(frame.isReleased());
+		assertEquals(array.length, pool.getIdleBytes());
+
+		try {
+			frame.retain();
+			fail("retained a released frame");
+		} catch (IllegalStateException ise) {
+			//expected
+		}
+	}
+
+	public void testRetainReleasedHeapFrame() throws Exception {
+		MjpegFrame frame = new MjpegFrame(
+				MjpegChannelReaderTest.createJpeg(200, 1), 1);
+
+		frame.release(); //as by a parser, after its listeners
+		assertTrue(frame.isReleased());
+
+		frame.retain(); //by a listener that keeps it
+		assertEquals(1, frame.getRefCount());
+		assertEquals(200, frame.getJpegBytes().length);
+
+		frame.release();
+		frame.release();
+		assertTrue(frame.isReleased());
+	}
+
+	public void testJpegBufferIsNotCopied() throws Exception {
+		byte[] jpeg = MjpegChannelReaderTest.createJpeg(200, 1);
+		MjpegFrame frame = new MjpegFrame(jpeg, 7);
+		ByteBuffer buffer = frame.getJpegBuffer();
+
+		assertSame(frame.getBytes(), buffer.array());
+		assertEquals(jpeg.length, buffer.remaining());
+		assertEquals(frame.getJpegOffset(), buffer.position());
+	}
+
+	public void testInputStreamReadsIntoPool() throws Exception {
+		byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+		MjpegInputStream in = new MjpegInputStream(new ByteArrayInputStream(
+					MjpegChannelReaderTest.createMjpeg(jpegs, true)));
+		MjpegFramePool pool = new MjpegFramePool();
+		in.setFramePool(pool);
+
+		for (int i = 0; i < jpegs.length; i++) {
+			MjpegFrame frame = in.readMjpegFrame();
+			assertTrue(frame.getBytes().length >= frame.getLength());
+			assertTrue(Arrays.equals(jpegs[i], frame.getJpegBytes()));
+			frame.release();
+		}
+
+		//frames of one size class share an array
+		assertTrue(pool.getHits() > 0);
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class MjpegHeaderTest extends TestCase {
+	public MjpegHeaderTest(String name) {
+		super(name);
+	}
+
+	private static MjpegHeader createHeader(String header) {
+		byte[] bytes = ("xx" + header).getBytes();
+
+		return new MjpegHeader(ByteBuffer.wrap(bytes), 2, bytes.length);
+	}
+
+	public void testTypedValues() throws Exception {
+		MjpegHeader header = createHeader("--myboundary\r\n" +
+				"Content-Type: image/jpeg\r\n" + "Content-Length: 12345\r\n" +
+				"Delta-time: 100\r\n\r\n");
+
+		assertEquals(12345, header.getContentLength());
+		assertEquals(100, header.getDeltaTime());
+		assertEquals("image/jpeg", header.getContentType());
+		assertEquals("--myboundary", header.getBoundary());
+		assertTrue(header.isBoundary("myboundary".getBytes()));
+		assertTrue(header.isBoundary("--myboundary".getBytes()));
+		assertFalse(header.isBoundary("otherboundary".getBytes()));
+	}
+
+	public void testNamesIgnoreCase() throws Exception {
+		MjpegHeader header = createHeader("content-length=42\n" +
+				"DELTA-TIME :  7  \n");
+
+		assertEquals(42, header.getContentLength());
+		assertEquals(7, header.getDeltaTime());
+		assertNull(header.getContentType());
+		assertNull(header.getBoundary());
+	}
+
+	public void testMissingAndBadValues() throws Exception {
+		MjpegHeader header = createHeader("Content-Length: 12x\r\n" +
+				"Content-Lengthy: 5\r\n");
+
+		assertEquals(MjpegHeader.UNKNOWN, header.getContentLength());
+		assertEquals(MjpegHeader.UNKNOWN, header.getDeltaTime());
+
+		try {
+			MjpegFormat.parseContentLength("Delta-time: 5\r\n".getBytes());
+			fail("parsed a missing Content-Length");
+		} catch (NumberFormatException nfe) {
+			//expected
+		}
+	}
+
+	public void testFrameHeader() throws Exception {
+		byte[] jpeg = MjpegChannelReaderTest.createJpeg(100, 3);
+		MjpegFrame frame = new MjpegFrame(jpeg, 1);
+
+		assertEquals(jpeg.length, frame.getHeader().getContentLength());
+		assertEquals("image/jpeg", frame.getHeader().getContentType());
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class MjpegIngestEngineTest extends TestCase {
+	private static final int STREAMS = 6;
+
+	private ServerSocket mServer;
+	private byte[][] mJpegs;
+
+	public MjpegIngestEngineTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Serve an MJPEG response to every connection, chunked for every other
+	 * connection.
+	 */
+	protected void setUp() throws Exception {
+		mJpegs = MjpegChannelReaderTest.createJpegs();
+		mServer = new ServerSocket(0);
+
+		Thread server = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; true; i++) {
+							serve(mServer.accept(), (i % 2) == 1);
+						}
+					} catch (IOException ioe) {
+						//server closed
+					}
+				}
+			};
+
+		server.setDaemon(true);
+		server.start();
+	}
+
+	protected void tearDown() throws Exception {
+		mServer.close();
+	}
+
+	private void serve(final Socket socket, final boolean isChunked) {
+		Thread thread = new Thread() {
+				public void run() {
+					try {
+						InputStream in = socket.getInputStream();
+
+						//read the request header
+						int last = 0;
+						int b;
+
+						while ((b = in.read()) >= 0) {
+							if ((b == '\n') && (last == '\n')) {
+								break;
+							}
+
+							if (b != '\r') {
+								last = b;
+							}
+						}
+
+						OutputStream out = socket.getOutputStream();
+						out.write(("HTTP/1.1 200 OK\r\n" +
+							"Content-Type: multipart/x-mixed-replace; boundary=myboundary\r\n" +
+							(isChunked ? "Transfer-Encoding: chunked\r\n" : "") +
+							"\r\n").getBytes());
+
+						byte[] mjpeg = MjpegChannelReaderTest.createMjpeg(mJpegs,
+								false);
+						byte[] close = "--myboundary--\r\n".getBytes();
+
+						if (isChunked) {
+							out.write((Integer.toHexString(mjpeg.length) +
+								"\r\n").getBytes());
+							out.write(mjpeg);
+							out.write(("\r\n" +
+								Integer.toHexString(close.length) + "\r\n")
+								.getBytes());
+							out.write(close);
+							out.write("\r\n0\r\n\r\n".getBytes());
+						} else {
+							out.write(mjpeg);
+							out.write(close);
+						}
+
+						out.flush();
+						socket.close();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Counts frames per stream.
+	 */
+	private class Counter implements MjpegParserListener {
+		Map mCounts = new HashMap();
+		int mTotal = 0;
+
+		public synchronized void onMjpegParserEvent(MjpegParserEvent event) {
+			Integer count = (Integer) mCounts.get(event.getSource());
+			int index = (count == null) ? 0 : count.intValue();
+			assertTrue(Arrays.equals(mJpegs[index],
+					event.getMjpegFrame().getJpegBytes()));
+			mCounts.put(event.getSource(), Integer.valueOf(index + 1));
+			mTotal++;
+			notifyAll();
+		}
+	}
+
+	public void testManyStreamsOnFewSelectors() throws Exception {
+		MjpegIngestEngine engine = new MjpegIngestEngine(2);
+		engine.start();
+
+		Counter counter = new Counter();
+		URL url = new URL("http://localhost:" + mServer.getLocalPort() +
+				"/mjpg/1/video.mjpg");
+		MjpegIngestStream[] streams = new MjpegIngestStream[STREAMS];
+
+		for (int i = 0; i < STREAMS; i++) {
+			streams[i] = engine.addStream(url, "root", "pass", counter);
+		}
+
+		long deadline = System.currentTimeMillis() + 10000;
+
+		synchronized (counter) {
+			while ((counter.mTotal < (STREAMS * mJpegs.length)) &&
+					(System.currentTimeMillis() < deadline)) {
+				counter.wait(100);
+			}
+		}
+
+		engine.stop();
+
+		assertEquals(STREAMS * mJpegs.length, counter.mTotal);
+
+		for (int i = 0; i < STREAMS; i++) {
+			assertNull(streams[i].getFailure());
+			assertEquals(mJpegs.length, streams[i].getFrameCount());
+		}
+	}
+
+	/**
+	 * A listener that throws breaks its own stream, and the selector goes on
+	 * with the others.
+	 */
+	public void testFailingListener() throws Exception {
+		MjpegIngestEngine engine = new MjpegIngestEngine(1);
+		engine.start();
+
+		URL url = new URL("http://localhost:" + mServer.getLocalPort() +
+				"/mjpg/1/video.mjpg");
+		MjpegIngestStream broken = engine.addStream(url, null, null,
+				new MjpegParserListener() {
+					public void onMjpegParserEvent(MjpegParserEvent event) {
+						throw new IllegalStateException("listener bug");
+					}
+				});
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (broken.isOpen() && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+
+		assertFalse(broken.isOpen());
+		assertTrue(broken.getFailure().getCause() instanceof IllegalStateException);
+
+		Counter counter = new Counter();
+		MjpegIngestStream stream = engine.addStream(url, null, null, counter);
+
+		synchronized (counter) {
+			while ((counter.mTotal < mJpegs.length) &&
+					(System.currentTimeMillis() < deadline)) {
+				counter.wait(100);
+			}
+		}
+
+		engine.stop();
+
+		assertEquals(mJpegs.length, counter.mTotal);
+		assertNull(stream.getFailure());
+	}
+
+	/**
+	 * A response without a boundary fails its stream, instead of waiting
+	 * for parts that are never found.
+	 */
+	public void testNoBoundary() throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		Thread camera = new Thread() {
+				public void run() {
+					try {
+						Socket socket = server.accept();
+						socket.getOutputStream().write(("HTTP/1.0 200 OK\r\n" +
+							"Content-Type: multipart/x-mixed-replace\r\n\r\n" +
+							"--frame\r\n").getBytes("ISO-8859-1"));
+						socket.getOutputStream().flush();
+					} catch (IOException ioe) {
+						//server closed
+					}
+				}
+			};
+
+		camera.setDaemon(true);
+		camera.start();
+
+		MjpegIngestEngine engine = new MjpegIngestEngine(1);
+		engine.start();
+
+		MjpegIngestStream stream = engine.addStream(new URL("http://localhost:" +
+					server.getLocalPort() + "/mjpg/1/video.mjpg"), null, null,
+				new Counter());
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (stream.isOpen() && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+
+		engine.stop();
+		server.close();
+
+		assertFalse(stream.isOpen());
+		assertNotNull(stream.getFailure());
+	}
+
+	/**
+	 * A camera that stops sending fails its stream after the idle timeout,
+	 * and the stream is no longer counted.
+	 */
+	public void testIdleTimeout() throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		Thread camera = new Thread() {
+				public void run() {
+					try {
+						Socket socket = server.accept();
+						socket.getOutputStream().write(("HTTP/1.0 200 OK\r\n" +
+							"Content-Type: multipart/x-mixed-replace; boundary=frame\r\n\r\n")
+							.getBytes("ISO-8859-1"));
+						socket.getOutputStream().flush();
+					} catch (IOException ioe) {
+						//server closed
+					}
+				}
+			};
+
+		camera.setDaemon(true);
+		camera.start();
+
+		MjpegIngestEngine engine = new MjpegIngestEngine(1);
+		engine.setIdleTimeout(200);
+		engine.start();
+
+		MjpegIngestStream stream = engine.addStream(new URL("http://localhost:" +
+					server.getLocalPort() + "/mjpg/1/video.mjpg"), null, null,
+				new Counter());
+		assertEquals(1, engine.getStreamCount());
+
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (stream.isOpen() && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+
+		engine.stop();
+		server.close();
+
+		assertFalse(stream.isOpen());
+		assertTrue(stream.getFailure().getMessage().startsWith("nothing read"));
+		assertEquals(0, engine.getStreamCount());
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class MultipartDecoderTest extends TestCase {
+	private static final byte[] CLOSE = "--myboundary--\r\n".getBytes();
+
+	public MultipartDecoderTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Collects the JPEG bytes of each part.
+	 */
+	private static class Collector implements MjpegParserListener {
+		List mJpegs = new ArrayList();
+
+		public void onMjpegParserEvent(MjpegParserEvent event) {
+			mJpegs.add(event.getMjpegFrame().getJpegBytes());
+		}
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] c = new byte[a.length + b.length];
+		System.arraycopy(a, 0, c, 0, a.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+
+		return c;
+	}
+
+	/**
+	 * Feed the bytes in random sized pieces.
+	 */
+	private static void feed(MultipartDecoder decoder, byte[] bytes, long seed)
+		throws Exception {
+		Random random = new Random(seed);
+		int offset = 0;
+
+		while (offset < bytes.length) {
+			int count = Math.min(1 + random.nextInt(700), bytes.length - offset);
+			decoder.decode(bytes, offset, count);
+			offset += count;
+		}
+	}
+
+	private static byte[] chunk(byte[] bytes, long seed) throws Exception {
+		Random random = new Random(seed);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int offset = 0;
+
+		while (offset < bytes.length) {
+			int count = Math.min(1 + random.nextInt(900), bytes.length - offset);
+			out.write((Integer.toHexString(count) + ";ext=1\r\n").getBytes());
+			out.write(bytes, offset, count);
+			out.write("\r\n".getBytes());
+			offset += count;
+		}
+
+		out.write("0\r\nX-Trailer: 1\r\n\r\n".getBytes());
+
+		return out.toByteArray();
+	}
+
+	private static void assertParts(byte[][] jpegs, Collector collector) {
+		assertEquals(jpegs.length, collector.mJpegs.size());
+
+		for (int i = 0; i < jpegs.length; i++) {
+			assertTrue("part " + i,
+				Arrays.equals(jpegs[i], (byte[]) collector.mJpegs.get(i)));
+		}
+	}
+
+	public void testPartsWithAndWithoutLength() throws Exception {
+		byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+
+		for (int showLength = 0; showLength < 2; showLength++) {
+			MultipartDecoder decoder = new MultipartDecoder("myboundary");
+			Collector collector = new Collector();
+			decoder.addMjpegParserListener(collector);
+
+			byte[] mjpeg = MjpegChannelReaderTest.createMjpeg(jpegs,
+					showLength == 1);
+			feed(decoder, concat(mjpeg, CLOSE), showLength);
+
+			assertParts(jpegs, collector);
+			assertTrue(decoder.isComplete());
+			assertEquals(0, decoder.getResyncCount());
+		}
+	}
+
+	public void testChunkedTransfer() throws Exception {
+		byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+		MultipartDecoder decoder = new MultipartDecoder("--myboundary");
+		decoder.setChunked(true);
+
+		Collector collector = new Collector();
+		decoder.addMjpegParserListener(collector);
+
+		byte[] mjpeg = MjpegChannelReaderTest.createMjpeg(jpegs, false);
+		feed(decoder, chunk(concat(mjpeg, CLOSE), 3), 4);
+
+		assertParts(jpegs, collector);
+		assertTrue(decoder.isComplete());
+	}
+
+	/**
+	 * Garbage and a wrong Content-Length lose one part, not the stream.
+	 */
+	public void testResyncAfterCorruptData() throws Exception {
+		byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+		byte[] mjpeg = MjpegChannelReaderTest.createMjpeg(jpegs, true);
+		String text = new String(mjpeg, "ISO-8859-1");
+
+		//claim the third part is longer than it is
+		text = text.replaceFirst("Content-Length: " + jpegs[2].length,
+				"Content-Length: " + (jpegs[2].length + 40));
+
+		//garbage before the first delimiter
+		byte[] corrupt = concat("garbage\r\n".getBytes(),
+				text.getBytes("ISO-8859-1"));
+
+		MultipartDecoder decoder = new MultipartDecoder("myboundary");
+		MjpegFramePool pool = new MjpegFramePool();
+		decoder.setFramePool(pool);
+
+		Collector collector = new Collector();
+		decoder.addMjpegParserListener(collector);
+		feed(decoder, corrupt, 5);
+
+		//the long part swallowed the next delimiter
+		assertEquals(jpegs.length - 1, collector.mJpegs.size());
+		assertTrue(Arrays.equals(jpegs[1], (byte[]) collector.mJpegs.get(1)));
+		assertTrue(Arrays.equals(jpegs[4], (byte[]) collector.mJpegs.get(3)));
+		assertEquals(1, decoder.getResyncCount());
+		assertTrue(pool.getHits() > 0);
+	}
+
+	/**
+	 * Headers without an end, after a delimiter with extra dashes, are
+	 * dropped once, rather than searched again forever.
+	 */
+	public void testResyncAfterEndlessHeaders() throws Exception {
+		StringBuffer headers = new StringBuffer("----myboundary\r\n");
+
+		while (headers.length() < 3000) {
+			headers.append("X-Garbage: 0123456789012345678901234567890123\r\n");
+		}
+
+		final byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+		final byte[] garbage = headers.toString().getBytes("ISO-8859-1");
+		final MultipartDecoder decoder = new MultipartDecoder("myboundary");
+		final Exception[] failure = new Exception[1];
+		Collector collector = new Collector();
+		decoder.addMjpegParserListener(collector);
+
+		Thread feeder = new Thread() {
+			public void run() {
+				try {
+					decoder.decode(garbage, 0, garbage.length);
+					feed(decoder, MjpegChannelReaderTest.createMjpeg(jpegs,
+							true), 6);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		feeder.setDaemon(true);
+		feeder.start();
+		feeder.join(5000);
+
+		assertFalse("decoder still searching", feeder.isAlive());
+		assertNull(failure[0]);
+		assertEquals(1, decoder.getResyncCount());
+		assertParts(jpegs, collector);
+	}
+
+	public void testParserUsesStreamBoundary() throws Exception {
+		byte[][] jpegs = MjpegChannelReaderTest.createJpegs();
+		byte[] mjpeg = MjpegChannelReaderTest.createMjpeg(jpegs, false);
+		MjpegFrameParser parser = new MjpegFrameParser(new MultipartInputStream(
+					new ByteArrayInputStream(concat(mjpeg, CLOSE)), "myboundary"));
+		Collector collector = new Collector();
+		parser.addMjpegParserListener(collector);
+		parser.parse();
+
+		assertParts(jpegs, collector);
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class PropertyCacheTest extends TestCase {
+	private Loader mLoader;
+	private PropertyCache mCache;
+	private List mRefreshes; //runnables of the executor, run by the test
+
+	public PropertyCacheTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		mLoader = new Loader();
+		mCache = new PropertyCache(mLoader);
+		mRefreshes = new ArrayList();
+		mCache.setExecutor(new Executor() {
+			public void execute(Runnable command) {
+				mRefreshes.add(command);
+			}
+		});
+	}
+
+	public void testNoExpiry() throws Exception {
+		Properties first = mCache.get(PropertyCache.ALL);
+		assertSame(first, mCache.get(PropertyCache.ALL));
+		assertEquals(1, mLoader.mCount);
+
+		mCache.invalidate();
+		assertNotSame(first, mCache.get(PropertyCache.ALL));
+		assertEquals(2, mLoader.mCount);
+	}
+
+	public void testStaleWhileRevalidate() throws Exception {
+		mCache.setTtl(1, PropertyCache.NO_EXPIRY);
+
+		Properties first = mCache.get(PropertyCache.ALL);
+		Thread.sleep(5);
+
+		// stale, returned while one refresh is queued
+		assertSame(first, mCache.get(PropertyCache.ALL));
+		assertSame(first, mCache.get(PropertyCache.ALL));
+		assertEquals(1, mRefreshes.size());
+		assertEquals(1, mLoader.mCount);
+
+		((Runnable) mRefreshes.remove(0)).run();
+		assertEquals(2, mLoader.mCount);
+
+		mCache.setTtl(PropertyCache.NO_EXPIRY, 0);
+		assertNotSame(first, mCache.get(PropertyCache.ALL));
+
+		// too stale to return
+		mCache.setTtl(1, 0);
+		Thread.sleep(5);
+		mCache.get(PropertyCache.ALL);
+		assertEquals(3, mLoader.mCount);
+		assertTrue(mRefreshes.isEmpty());
+	}
+
+	public void testSingleFlight() throws Exception {
+		mLoader.mGate = new CountDownLatch(1);
+
+		final List results = new ArrayList();
+		Thread[] threads = new Thread[8];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						Properties properties = mCache.get(PropertyCache.ALL);
+
+						synchronized (results) {
+							results.add(properties);
+						}
+					} catch (IOException ioe) {
+						fail(ioe.getMessage());
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		Thread.sleep(100);
+		mLoader.mGate.countDown();
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+
+		assertEquals(1, mLoader.mCount);
+		assertEquals(threads.length, results.size());
+
+		for (int i = 1; i < results.size(); i++) {
+			assertSame(results.get(0), results.get(i));
+		}
+	}
+
+	public void testGroups() throws Exception {
+		Properties image = mCache.get("root.Image");
+		assertEquals("root.Image", mLoader.mLastGroup);
+		assertEquals("4CIF", image.getProperty("root.Image.Resolution"));
+		assertNull(image.getProperty("root.Brand.ProdNbr"));
+		assertSame(image, mCache.get("root.Image"));
+
+		// a group of a snapshot of everything isn't loaded
+		mCache.invalidate();
+		mCache.get(PropertyCache.ALL);
+		image = mCache.get("root.image");
+		assertEquals(2, mLoader.mCount);
+		assertEquals("4CIF", image.getProperty("root.Image.Resolution"));
+		assertNull(image.getProperty("root.ImageSource.I0.Name"));
+	}
+
+	public void testFailure() throws Exception {
+		mLoader.mFail = true;
+
+		try {
+			mCache.get(PropertyCache.ALL);
+			fail("loaded");
+		} catch (IOException ioe) {
+			assertEquals("camera down", ioe.getMessage());
+		}
+
+		mLoader.mFail = false;
+		assertNotNull(mCache.get(PropertyCache.ALL));
+	}
+
+	public void testUpdate() throws Exception {
+		Properties all = mCache.get(PropertyCache.ALL);
+		mCache.get("root.Image");
+
+		Map changes = new HashMap();
+		changes.put("root.image.resolution", "CIF");
+		changes.put("root.Image.Compression", "30");
+		mCache.update(changes);
+
+		// changed in place, with the camera's case kept
+		Properties updated = mCache.get(PropertyCache.ALL);
+		assertEquals("CIF", updated.getProperty("root.Image.Resolution"));
+		assertEquals("30", updated.getProperty("root.Image.Compression"));
+		assertEquals("2120", updated.getProperty("root.Brand.ProdNbr"));
+		assertEquals("4CIF", all.getProperty("root.Image.Resolution"));
+		assertEquals("CIF", mCache.getIndex("root.Image").get(
+				"ROOT.IMAGE.RESOLUTION"));
+		assertEquals("30", mCache.get("root.Image").getProperty(
+				"root.Image.Compression"));
+		assertEquals(1, mLoader.mCount);
+	}
+
+	/**
+	 * Loads properties of a camera, and counts the loads.
+	 */
+	private static class Loader implements PropertyCache.Loader {
+		private int mCount = 0;
+		private String mLastGroup;
+		private CountDownLatch mGate; //holds loads until opened
+		private boolean mFail = false;
+
+		public Properties load(String group) throws IOException {
+			synchronized (this) {
+				mCount++;
+				mLastGroup = group;
+			}
+
+			if (mGate != null) {
+				try {
+					mGate.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ie) {
+					throw new IOException(ie.getMessage());
+				}
+			}
+
+			if (mFail) {
+				throw new IOException("camera down");
+			}
+
+			Properties properties = new Properties();
+			properties.setProperty("root.Brand.ProdNbr", "2120");
+			properties.setProperty("root.ImageSource.I0.Name", "Camera");
+
+			if (group.length() == 0 || group.equals("root.Image")) {
+				properties.setProperty("root.Image.Resolution", "4CIF");
+			}
+
+			if (group.length() > 0) {
+				properties.remove("root.Brand.ProdNbr");
+				properties.remove("root.ImageSource.I0.Name");
+			}
+
+			return properties;
+		}
+	}
+}
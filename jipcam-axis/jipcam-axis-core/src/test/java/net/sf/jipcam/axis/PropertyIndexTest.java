@@ -0,0 +1,74 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis;
+
+import java.awt.Dimension;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class PropertyIndexTest extends TestCase {
+	public PropertyIndexTest(String name) {
+		super(name);
+	}
+
+	public void testIgnoresCase() {
+		Properties properties = Axis2120CaptureDevice.getPropertyDefaults();
+		PropertyIndex index = new PropertyIndex(properties);
+		assertEquals(properties.size(), index.size());
+
+		String name = (String) properties.keys().nextElement();
+		assertEquals(properties.getProperty(name), index.get(name));
+		assertEquals(properties.getProperty(name), index.get(name
+				.toUpperCase()));
+		assertEquals(name, index.getName(name.toLowerCase()));
+		assertNull(index.get("root.No.Such.Property"));
+	}
+
+	public void testTypedValues() {
+		Properties properties = new Properties();
+		properties.setProperty("root.Image.Resolution", "704x480");
+		properties.setProperty("root.Appwiz.PostRate", " 30");
+		properties.setProperty("root.BRAND.PRODFULLNAME", "AXIS 2120 Network Camera");
+		properties.setProperty("root.Image.Text", "none");
+		PropertyIndex index = new PropertyIndex(properties);
+
+		assertEquals(new Dimension(704, 480), index
+				.getDimension("root.image.resolution"));
+		assertNotSame(index.getDimension("root.Image.Resolution"), index
+				.getDimension("root.Image.Resolution"));
+		assertNull(index.getDimension("root.Image.Text"));
+		assertNull(index.getDimension("root.Image.Missing"));
+
+		assertEquals(30, index.getInt("root.Appwiz.PostRate"));
+		assertEquals(30, index.getInt("ROOT.APPWIZ.POSTRATE"));
+		assertEquals(-1, index.getInt("root.Image.Text", -1));
+
+		try {
+			index.getInt("root.Image.Missing");
+			fail("parsed a missing property");
+		} catch (NumberFormatException nfe) {
+			// expected
+		}
+
+		assertEquals("AXIS 2120 Network Camera", index
+				.get("root.Brand.ProdFullName"));
+	}
+}
@@ -1,9 +1,27 @@
 package net.sf.jipcam.axis.emulator;
 
+import java.awt.Dimension;
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
 import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
+import net.sf.jipcam.axis.Axis205CaptureDevice;
+import net.sf.jipcam.axis.Axis206MCaptureDevice;
+import net.sf.jipcam.axis.Axis207CaptureDevice;
+import net.sf.jipcam.axis.Axis207MCaptureDevice;
+import net.sf.jipcam.axis.Axis207MWCaptureDevice;
+import net.sf.jipcam.axis.Axis2100CaptureDevice;
 import net.sf.jipcam.axis.Axis2120CaptureDevice;
+import net.sf.jipcam.axis.Axis2130CaptureDevice;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -11,24 +29,296 @@ import org.apache.commons.logging.LogFactory;
 /**
  * This bean maintains the state of the "Virtual Camera"
  * 
+ * A camera may be given a model, to answer with that model's properties. The
+ * default properties of each model are loaded once and shared, and each
+ * camera only holds the properties it changes. Cameras of a CameraRegistry
+ * that play the same mjpeg also share its FrameTimeline, and are set apart by
+ * their start offset into it.
+ * 
+ * The properties are kept in a PropertyStore, so they can be changed while
+ * they are read. Changes to the resolution and frame rate are seen by
+ * streams already playing: setting root.Image.Resolution plays the mjpeg
+ * scaled to that size, and root.Image.I0.Stream.FPS sets the rate of streams
+ * that don't ask for one.
+ * 
+ * The camera's streams may be given a FaultProfile, to throttle them or
+ * break their frames as a poor network or camera would.
+ * 
  * @author Jason Thrasher
  */
 public class Camera {
 	private static final Log log = LogFactory.getLog(Camera.class);
 
+	private static final String BUNDLE = "net.sf.jipcam.axis.AxisCamera";
+
+	private static final String BASE_MODEL = "2120"; // for models without a bundle
+
+	/**
+	 * Property of the size streamed, as {width}x{height}. The mjpeg plays at
+	 * its recorded size until this is changed from the default.
+	 */
+	public static final String RESOLUTION = "root.Image.Resolution";
+
+	/**
+	 * Property of the frames per second streamed to clients that don't ask
+	 * for a rate, or 0 for the recorded rate.
+	 */
+	public static final String STREAM_FPS = "root.Image.I0.Stream.FPS";
+
+	/**
+	 * Widest resolution that may be set, that of the largest emulated
+	 * models.
+	 */
+	public static final int MAX_WIDTH = 1280;
+
+	/**
+	 * Tallest resolution that may be set.
+	 */
+	public static final int MAX_HEIGHT = 1024;
+
+	private static Map modelDefaults = new HashMap(); // model to SortedMap
+
+	private static SortedMap defaults; // of a camera without a model
+
+	private String id;
+
+	private String model;
+
+	private int startOffset; // milliseconds into the timeline
+
 	private File mjpeg;
 
 	private String mjpegFile;
 
-	private Properties properties;
+	private PropertyStore properties;
 
 	private int fps;
 
+	private int streamPort; // 0 to serve the stream only from the servlet
+
+	private boolean sendfile; // send frames from the file, not from memory
+
+	private FaultProfile faults = FaultProfile.NONE; // of every stream
+
+	private FrameTimeline timeline; // loaded on first use
+
+	private LatestFrame latestFrame = new LatestFrame(this);
+
 	public Camera() {
+		properties = new PropertyStore(getDefaults());
+	}
+
+	private static synchronized SortedMap getDefaults() {
+		if (defaults == null) {
+			try {
+				defaults = toSortedMap(Axis2120CaptureDevice
+						.getPropertyDefaults());
+			} catch (Exception e) {
+				log.fatal("failed to load props", e);
+				defaults = toSortedMap(new Properties());
+			}
+		}
+
+		return defaults;
+	}
+
+	private static SortedMap toSortedMap(Properties properties) {
+		SortedMap map = new TreeMap();
+		Enumeration names = properties.propertyNames();
+
+		while (names.hasMoreElements()) {
+			String name = (String) names.nextElement();
+			map.put(name, properties.getProperty(name));
+		}
+
+		map.put(STREAM_FPS, "0"); // emulated on every model
+
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	/**
+	 * Get the default properties of a camera model, loaded from the model's
+	 * resource bundle. Models without a bundle of their own answer with the
+	 * properties of the 2120, under their own brand. The properties are
+	 * shared by every camera of the model.
+	 * 
+	 * @param model
+	 *            the model number, like 2120 or 207MW
+	 * @return the properties, by name
+	 * @throws IllegalArgumentException
+	 *             if the model isn't an emulated Axis camera
+	 */
+	public static synchronized SortedMap getModelDefaults(String model) {
+		SortedMap map = (SortedMap) modelDefaults.get(model);
+
+		if (map != null) {
+			return map;
+		}
+
+		String name = getProductFullName(model);
+
+		if (name == null) {
+			throw new IllegalArgumentException("unknown camera model: " + model);
+		}
+
+		Properties defaults = new Properties();
+		ResourceBundle bundle;
+
+		try {
+			bundle = getBundle(model);
+		} catch (MissingResourceException mre) {
+			bundle = getBundle(BASE_MODEL);
+		}
+
+		for (Enumeration keys = bundle.getKeys(); keys.hasMoreElements();) {
+			String key = (String) keys.nextElement();
+			defaults.setProperty(key, bundle.getString(key));
+		}
+
+		defaults.setProperty("root.BRAND.PRODFULLNAME", name);
+		defaults.setProperty("root.BRAND.PRODSHORTNAME", "AXIS " + model);
+		defaults.setProperty("root.BRAND.PRODNBR", model);
+		map = toSortedMap(defaults);
+		modelDefaults.put(model, map);
+
+		return map;
+	}
+
+	private static ResourceBundle getBundle(String model) {
+		ResourceBundle bundle = ResourceBundle.getBundle(BUNDLE, new Locale(
+				model), Camera.class.getClassLoader());
+
+		// don't take the bundle of the default locale for the model's
+		if (!bundle.getLocale().getLanguage().equals(
+				new Locale(model).getLanguage())) {
+			throw new MissingResourceException("no properties for model: "
+					+ model, BUNDLE, model);
+		}
+
+		return bundle;
+	}
+
+	private static String getProductFullName(String model) {
+		if ("205".equals(model)) {
+			return Axis205CaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("206M".equals(model)) {
+			return Axis206MCaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("207".equals(model)) {
+			return Axis207CaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("207M".equals(model)) {
+			return Axis207MCaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("207MW".equals(model)) {
+			return Axis207MWCaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("2100".equals(model)) {
+			return Axis2100CaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("2120".equals(model)) {
+			return Axis2120CaptureDevice.PRODUCT_FULL_NAME;
+		} else if ("2130".equals(model)) {
+			return Axis2130CaptureDevice.PRODUCT_FULL_NAME;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the id of the camera in its CameraRegistry
+	 */
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * @param id
+	 *            the id of the camera in its CameraRegistry
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return the model, or null if it wasn't set
+	 */
+	public String getModel() {
+		return this.model;
+	}
+
+	/**
+	 * Set the model, and replace the properties with the model's defaults.
+	 * 
+	 * @param model
+	 *            the model number, like 2120 or 207MW
+	 */
+	public void setModel(String model) {
+		this.properties.setDefaults(getModelDefaults(model));
+		this.model = model;
+	}
+
+	/**
+	 * @return milliseconds into the timeline the camera plays at
+	 */
+	public int getStartOffset() {
+		return this.startOffset;
+	}
+
+	/**
+	 * @param startOffset
+	 *            milliseconds into the timeline the camera plays at, so
+	 *            cameras sharing a timeline don't show the same frame
+	 */
+	public void setStartOffset(int startOffset) {
+		this.startOffset = startOffset;
+	}
+
+	/**
+	 * Start pacing a client's stream at the camera's start offset.
+	 * 
+	 * @param fps
+	 *            frames per second the client asked for, or 0 for the
+	 *            camera's stream rate
+	 * @return the pacer
+	 * @throws IOException
+	 *             if the mjpeg can't be loaded
+	 */
+	public FramePacer createPacer(int fps) throws IOException {
+		return new FramePacer(getTimeline(), (fps > 0) ? fps : getStreamFps(),
+				this.startOffset * 1000000L);
+	}
+
+	/**
+	 * @return frames per second for clients that don't ask for a rate, or 0
+	 *         to send frames as recorded
+	 */
+	public int getStreamFps() {
+		try {
+			return Math.max(0, Integer.parseInt(getProperty(STREAM_FPS)));
+		} catch (NumberFormatException nfe) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the resolution set by a change to the properties, or null to
+	 *         stream the mjpeg at its recorded size
+	 */
+	public Dimension getResolution() {
+		return parseResolution((String) this.properties.getSnapshot()
+				.getChanges().get(RESOLUTION));
+	}
+
+	private static Dimension parseResolution(String value) {
+		if (value == null) {
+			return null;
+		}
+
+		int x = value.indexOf('x');
+
 		try {
-			properties = Axis2120CaptureDevice.getPropertyDefaults();
-		} catch (Exception e) {
-			log.fatal("failed to load props", e);
+			Dimension size = new Dimension(Integer.parseInt(value.substring(0,
+					x)), Integer.parseInt(value.substring(x + 1)));
+
+			return ((size.width > 0) && (size.height > 0)) ? size : null;
+		} catch (RuntimeException re) {
+			return null; // a named size, like "hugesize"
 		}
 	}
 
@@ -43,8 +333,56 @@ public class Camera {
 	 * @param mjpeg
 	 *            the mjpeg to set
 	 */
-	public void setMjpeg(File mjpeg) {
+	public synchronized void setMjpeg(File mjpeg) {
 		this.mjpeg = mjpeg;
+		this.timeline = null;
+	}
+
+	/**
+	 * Get the frames of the mjpeg, shared by every client of this camera.
+	 * The file is loaded the first time this is called. If the resolution was
+	 * changed, the frames are scaled to it.
+	 * 
+	 * @return the timeline
+	 * @throws IOException
+	 *             if the mjpeg can't be loaded
+	 */
+	public synchronized FrameTimeline getTimeline() throws IOException {
+		if (this.timeline == null) {
+			this.timeline = new FrameTimeline(this.mjpeg, this.fps,
+					this.sendfile);
+		}
+
+		Dimension size = getResolution();
+
+		return (size == null) ? this.timeline : this.timeline.getScaled(size);
+	}
+
+	/**
+	 * @return the holder of the JPEG the camera shows now
+	 */
+	public LatestFrame getLatestFrame() {
+		return this.latestFrame;
+	}
+
+	/**
+	 * Share a timeline loaded by another camera playing the same mjpeg.
+	 * 
+	 * @param timeline
+	 *            the timeline
+	 */
+	public synchronized void setTimeline(FrameTimeline timeline) {
+		this.timeline = timeline;
+	}
+
+	/**
+	 * Close the timeline, if it was loaded. It is loaded again on next use.
+	 */
+	public synchronized void closeTimeline() {
+		if (this.timeline != null) {
+			this.timeline.close();
+			this.timeline = null;
+		}
 	}
 
 	/**
@@ -63,18 +401,126 @@ public class Camera {
 	}
 
 	/**
-	 * @return the properties
+	 * @return a copy of the properties at the current version
 	 */
 	public Properties getProperties() {
-		return this.properties;
+		Properties copy = new Properties();
+		copy.putAll(this.properties.getSnapshot().getProperties(""));
+
+		return copy;
 	}
 
 	/**
+	 * Replace the properties. Any model's defaults are dropped.
+	 * 
 	 * @param properties
 	 *            the properties to set
 	 */
 	public void setProperties(Properties properties) {
-		this.properties = properties;
+		this.properties.setDefaults(toSortedMap(properties));
+	}
+
+	/**
+	 * @param name
+	 *            of a property
+	 * @return the value, or null if there is no such property
+	 */
+	public String getProperty(String name) {
+		return this.properties.getProperty(name);
+	}
+
+	/**
+	 * Set a property.
+	 * 
+	 * @param name
+	 *            of the property
+	 * @param value
+	 *            of the property
+	 */
+	public void setProperty(String name, String value) {
+		this.properties.setProperty(name, value);
+	}
+
+	/**
+	 * Check a value before it is set. A camera refuses a resolution larger
+	 * than its sensor, and so does the emulator, rather than scale the mjpeg
+	 * to any size asked for.
+	 * 
+	 * @param name
+	 *            of the property
+	 * @param value
+	 *            to set
+	 * @return true if the value may be set
+	 */
+	public boolean isValid(String name, String value) {
+		if (!RESOLUTION.equals(name)) {
+			return true;
+		}
+
+		Dimension size = parseResolution(value);
+
+		return (size == null)
+				|| ((size.width <= MAX_WIDTH) && (size.height <= MAX_HEIGHT));
+	}
+
+	/**
+	 * Set many properties at once. If the resolution changes, the frames are
+	 * scaled before any stream sees the change.
+	 * 
+	 * @param changes
+	 *            values by name
+	 * @return the version of the properties with the changes
+	 * @throws IOException
+	 *             if the frames can't be scaled
+	 * @throws IllegalArgumentException
+	 *             if a value isn't valid
+	 */
+	public long changeProperties(Map changes) throws IOException {
+		String resolution = (String) changes.get(RESOLUTION);
+
+		if (!isValid(RESOLUTION, resolution)) {
+			throw new IllegalArgumentException("resolution too large: "
+					+ resolution);
+		}
+
+		Dimension size = parseResolution(resolution);
+
+		if (size != null) {
+			FrameTimeline recorded;
+
+			synchronized (this) {
+				getTimeline(); // load it
+				recorded = this.timeline;
+			}
+
+			recorded.getScaled(size);
+		}
+
+		return this.properties.setProperties(changes);
+	}
+
+	/**
+	 * @return the store of the properties
+	 */
+	public PropertyStore getPropertyStore() {
+		return this.properties;
+	}
+
+	/**
+	 * @return the version of the properties, which changes with them
+	 */
+	public long getPropertyVersion() {
+		return this.properties.getVersion();
+	}
+
+	/**
+	 * Get the index of the properties at the current version. It doesn't
+	 * change, and is replaced when the properties change.
+	 * 
+	 * @return the index
+	 */
+	public ParamIndex getParamIndex() {
+		return this.properties.getSnapshot();
 	}
 
 	/**
@@ -92,4 +538,68 @@ public class Camera {
 		this.fps = fps;
 	}
 
+	/**
+	 * @return the port of the MjpegStreamServer, or 0 if it isn't used
+	 */
+	public int getStreamPort() {
+		return this.streamPort;
+	}
+
+	/**
+	 * @param streamPort
+	 *            the port of the MjpegStreamServer, or 0 to not use it
+	 */
+	public void setStreamPort(int streamPort) {
+		this.streamPort = streamPort;
+	}
+
+	/**
+	 * @return true if frames are sent from the mjpeg file
+	 */
+	public boolean isSendfile() {
+		return this.sendfile;
+	}
+
+	/**
+	 * @param sendfile
+	 *            true to send frames from the mjpeg file instead of memory,
+	 *            with FileChannel.transferTo()
+	 */
+	public void setSendfile(boolean sendfile) {
+		this.sendfile = sendfile;
+	}
+
+	/**
+	 * @return the faults and shaping of the camera's streams, as settings
+	 */
+	public String getFaults() {
+		return this.faults.toString();
+	}
+
+	/**
+	 * @param faults
+	 *            the faults and shaping of the camera's streams, as parsed by
+	 *            FaultProfile, or empty for none
+	 * @throws IllegalArgumentException
+	 *             if a setting has a bad value
+	 */
+	public void setFaults(String faults) {
+		this.faults = FaultProfile.parse(faults);
+	}
+
+	/**
+	 * @return the faults and shaping of the camera's streams
+	 */
+	public FaultProfile getFaultProfile() {
+		return this.faults;
+	}
+
+	/**
+	 * @param faults
+	 *            the faults and shaping of the camera's streams
+	 */
+	public void setFaultProfile(FaultProfile faults) {
+		this.faults = faults;
+	}
+
 }
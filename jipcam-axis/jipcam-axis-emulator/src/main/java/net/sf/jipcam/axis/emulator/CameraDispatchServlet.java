@@ -0,0 +1,118 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.IOException;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Servlet to route requests for the virtual cameras of the CameraRegistry.
+ * A request for /cam/{id}/mjpg/video.cgi, or /cam/{id}/axis-cgi/mjpg/video.cgi,
+ * is forwarded to the servlet of /mjpg/video.cgi with the camera of that id,
+ * and likewise for /admin/getparam.cgi, /admin/setparam.cgi and
+ * /jpg/{n}/image.jpg.
+ *
+ * @author Jason Thrasher
+ */
+public class CameraDispatchServlet extends HttpServlet {
+	private static final long serialVersionUID = -1201293;
+
+	private static final Log log = LogFactory
+			.getLog(CameraDispatchServlet.class);
+
+	private static final String CGI_PATH = "/axis-cgi";
+
+	private CameraRegistry registry;
+
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ApplicationContext ctx = WebApplicationContextUtils
+				.getRequiredWebApplicationContext(getServletContext());
+		registry = (CameraRegistry) ctx.getBean("cameras");
+	}
+
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String path = request.getPathInfo(); // /{id}/...
+
+		if (path == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+			return;
+		}
+
+		int slash = path.indexOf('/', 1);
+		Camera camera = registry.getCamera(path.substring(1,
+				(slash < 0) ? path.length() : slash));
+		String cgi = (slash < 0) ? "" : path.substring(slash);
+
+		if (cgi.startsWith(CGI_PATH)) {
+			cgi = cgi.substring(CGI_PATH.length());
+		}
+
+		String servlet = getServletName(cgi);
+
+		if ((camera == null) || (servlet == null)) {
+			log.warn("not found: " + request.getRequestURI());
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+			return;
+		}
+
+		RequestDispatcher dispatcher = getServletContext().getNamedDispatcher(
+				servlet);
+		request.setAttribute(CameraRegistry.CAMERA_ATTRIBUTE, camera);
+		dispatcher.forward(request, response);
+	}
+
+	public void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		doGet(request, response);
+	}
+
+	/**
+	 * @return the name of the servlet mapped to the CGI path in web.xml, or
+	 *         null if it isn't emulated
+	 */
+	private static String getServletName(String cgi) {
+		if (cgi.equals("/mjpg/video.cgi")) {
+			return "MjpegServlet";
+		} else if (cgi.equals("/admin/getparam.cgi")) {
+			return "GetParamServlet";
+		} else if (cgi.equals("/admin/setparam.cgi")) {
+			return "SetParamServlet";
+		} else if (cgi.startsWith("/jpg/") && cgi.endsWith("/image.jpg")) {
+			return "SnapshotServlet";
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The virtual cameras of one emulator, so one VM can stand in for a fleet.
+ *
+ * The default camera answers at the usual Axis paths. Every other camera has
+ * an id, and answers under /cam/{id}/, as in
+ * /cam/{id}/axis-cgi/mjpg/video.cgi, or at the usual paths on a stream port of
+ * its own. Cameras are listed one per profile:
+ *
+ * <pre>
+ * {id}=model,mjpeg file,fps,start offset ms,stream port,faults
+ * </pre>
+ *
+ * Blank or missing fields are taken from the default camera, and the offset
+ * and port default to 0. The faults are a FaultProfile, with its settings
+ * separated by semicolons. A fleet of generated cameras may be added too, with
+ * ids 1 to fleetSize, models taken in turn from fleetModels, and start offsets
+ * fleetOffset milliseconds apart.
+ *
+ * Cameras that play the same mjpeg at the same fps share one FrameTimeline,
+ * so the frame data is held once whatever the size of the fleet.
+ *
+ * @author Jason Thrasher
+ */
+public class CameraRegistry {
+	private static final Log log = LogFactory.getLog(CameraRegistry.class);
+
+	/**
+	 * Request attribute holding the Camera a request was routed to.
+	 */
+	public static final String CAMERA_ATTRIBUTE = Camera.class.getName();
+
+	private static final String CAMERA_PATH = "/cam/";
+
+	private Camera camera; // the default camera
+
+	private Properties profiles = new Properties();
+
+	private int fleetSize = 0;
+
+	private String fleetModels;
+
+	private int fleetOffset = 0;
+
+	private int fleetPort = 0; // first stream port of the fleet, or 0
+
+	private Map cameras = new LinkedHashMap(); // id to Camera
+
+	/**
+	 * Create a registry with only a default camera.
+	 */
+	public CameraRegistry() {
+		this(new Camera());
+	}
+
+	/**
+	 * Create a registry with only the given default camera.
+	 *
+	 * @param camera
+	 *            the default camera
+	 */
+	public CameraRegistry(Camera camera) {
+		this.camera = camera;
+	}
+
+	/**
+	 * Create the cameras of the profiles and the fleet. Called once every
+	 * property is set.
+	 */
+	public void init() {
+		cameras.clear();
+
+		if (fleetSize > 0) {
+			String[] models = toArray((fleetModels != null) ? fleetModels
+					: camera.getModel());
+
+			for (int i = 1; i <= fleetSize; i++) {
+				Camera cam = newCamera(String.valueOf(i));
+
+				if (models.length > 0) {
+					cam.setModel(models[(i - 1) % models.length]);
+				}
+
+				cam.setStartOffset((i - 1) * fleetOffset);
+
+				if (fleetPort > 0) {
+					cam.setStreamPort(fleetPort + i - 1);
+				}
+
+				cameras.put(cam.getId(), cam);
+			}
+		}
+
+		Enumeration ids = profiles.propertyNames();
+
+		while (ids.hasMoreElements()) {
+			String id = (String) ids.nextElement();
+			cameras.put(id, newCamera(id, profiles.getProperty(id)));
+		}
+
+		log.info("cameras: " + cameras.size());
+	}
+
+	/**
+	 * Load the timelines of every camera, once for each mjpeg and fps.
+	 *
+	 * @throws IOException
+	 *             if an mjpeg can't be loaded
+	 */
+	public void load() throws IOException {
+		Map timelines = new HashMap(); // mjpeg, fps and sendfile to timeline
+		Iterator i = getCameras().iterator();
+
+		while (i.hasNext()) {
+			Camera cam = (Camera) i.next();
+			String key = cam.getMjpeg().getAbsolutePath() + "|" + cam.getFps()
+					+ "|" + cam.isSendfile();
+			FrameTimeline timeline = (FrameTimeline) timelines.get(key);
+
+			if (timeline == null) {
+				timelines.put(key, cam.getTimeline());
+			} else {
+				cam.setTimeline(timeline);
+			}
+		}
+
+		log.info("loaded " + timelines.size() + " timelines for "
+				+ (cameras.size() + 1) + " cameras");
+	}
+
+	/**
+	 * Close the timelines of every camera.
+	 */
+	public void close() {
+		Iterator i = getCameras().iterator();
+
+		while (i.hasNext()) {
+			((Camera) i.next()).closeTimeline();
+		}
+	}
+
+	/**
+	 * @return the default camera
+	 */
+	public Camera getCamera() {
+		return this.camera;
+	}
+
+	/**
+	 * @param camera
+	 *            the default camera
+	 */
+	public void setCamera(Camera camera) {
+		this.camera = camera;
+	}
+
+	/**
+	 * @param id
+	 *            of a camera
+	 * @return the camera, or null if there is none with the id
+	 */
+	public Camera getCamera(String id) {
+		return (Camera) cameras.get(id);
+	}
+
+	/**
+	 * @return the default camera, then every other camera
+	 */
+	public List getCameras() {
+		List list = new ArrayList(cameras.size() + 1);
+		list.add(camera);
+		list.addAll(cameras.values());
+
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Get the camera a request path is routed to.
+	 *
+	 * @param path
+	 *            of the request, without the query
+	 * @return the camera, or null if the path names an unknown camera
+	 */
+	public Camera getCameraForPath(String path) {
+		String id = getCameraId(path);
+
+		return (id == null) ? camera : getCamera(id);
+	}
+
+	/**
+	 * Get the id of the camera in a path of the form /cam/{id}/...
+	 *
+	 * @param path
+	 *            of a request
+	 * @return the id, or null if the path doesn't name a camera
+	 */
+	public static String getCameraId(String path) {
+		int start = path.indexOf(CAMERA_PATH);
+
+		if (start < 0) {
+			return null;
+		}
+
+		start += CAMERA_PATH.length();
+		int end = path.indexOf('/', start);
+
+		return path.substring(start, (end < 0) ? path.length() : end);
+	}
+
+	/**
+	 * @return the profiles of the cameras, by id
+	 */
+	public Properties getProfiles() {
+		return this.profiles;
+	}
+
+	/**
+	 * @param profiles
+	 *            the profiles of the cameras, by id
+	 */
+	public void setProfiles(Properties profiles) {
+		this.profiles = profiles;
+	}
+
+	/**
+	 * @return count of generated cameras
+	 */
+	public int getFleetSize() {
+		return this.fleetSize;
+	}
+
+	/**
+	 * @param fleetSize
+	 *            count of generated cameras
+	 */
+	public void setFleetSize(int fleetSize) {
+		this.fleetSize = fleetSize;
+	}
+
+	/**
+	 * @return comma separated models of the generated cameras
+	 */
+	public String getFleetModels() {
+		return this.fleetModels;
+	}
+
+	/**
+	 * @param fleetModels
+	 *            comma separated models, given in turn to the generated
+	 *            cameras
+	 */
+	public void setFleetModels(String fleetModels) {
+		this.fleetModels = fleetModels;
+	}
+
+	/**
+	 * @return milliseconds between the start offsets of generated cameras
+	 */
+	public int getFleetOffset() {
+		return this.fleetOffset;
+	}
+
+	/**
+	 * @param fleetOffset
+	 *            milliseconds between the start offsets of generated cameras
+	 */
+	public void setFleetOffset(int fleetOffset) {
+		this.fleetOffset = fleetOffset;
+	}
+
+	/**
+	 * @return stream port of the first generated camera, or 0
+	 */
+	public int getFleetPort() {
+		return this.fleetPort;
+	}
+
+	/**
+	 * @param fleetPort
+	 *            stream port of the first generated camera, the others take
+	 *            the ports after it, or 0 to give them no port
+	 */
+	public void setFleetPort(int fleetPort) {
+		this.fleetPort = fleetPort;
+	}
+
+	/**
+	 * Create a camera like the default one.
+	 */
+	private Camera newCamera(String id) {
+		Camera cam = new Camera();
+		cam.setId(id);
+		cam.setFps(camera.getFps());
+		cam.setMjpegFile(camera.getMjpegFile());
+		cam.setMjpeg(camera.getMjpeg());
+		cam.setSendfile(camera.isSendfile());
+		cam.setFaultProfile(camera.getFaultProfile());
+
+		if (camera.getModel() != null) {
+			cam.setModel(camera.getModel());
+		}
+
+		return cam;
+	}
+
+	/**
+	 * Create a camera from its profile.
+	 */
+	private Camera newCamera(String id, String profile) {
+		Camera cam = newCamera(id);
+		String[] fields = new String[6];
+		StringTokenizer st = new StringTokenizer(profile, ",", true);
+
+		// keep blank fields
+		for (int i = 0; (i < fields.length) && st.hasMoreTokens();) {
+			String token = st.nextToken();
+
+			if (token.equals(",")) {
+				i++;
+			} else {
+				fields[i] = token.trim();
+			}
+		}
+
+		if (!isBlank(fields[0])) {
+			cam.setModel(fields[0]);
+		}
+
+		if (!isBlank(fields[1])) {
+			cam.setMjpegFile(fields[1]);
+			cam.setMjpeg(new File(fields[1]));
+		}
+
+		try {
+			if (!isBlank(fields[2])) {
+				cam.setFps(Integer.parseInt(fields[2]));
+			}
+
+			if (!isBlank(fields[3])) {
+				cam.setStartOffset(Integer.parseInt(fields[3]));
+			}
+
+			if (!isBlank(fields[4])) {
+				cam.setStreamPort(Integer.parseInt(fields[4]));
+			}
+
+			if (!isBlank(fields[5])) {
+				cam.setFaults(fields[5]);
+			}
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException("bad profile for camera " + id
+					+ ": " + profile);
+		}
+
+		return cam;
+	}
+
+	private static boolean isBlank(String s) {
+		return (s == null) || (s.length() == 0);
+	}
+
+	private static String[] toArray(String list) {
+		ArrayList items = new ArrayList();
+
+		if (list != null) {
+			StringTokenizer st = new StringTokenizer(list, ", ");
+
+			while (st.hasMoreTokens()) {
+				items.add(st.nextToken());
+			}
+		}
+
+		return (String[]) items.toArray(new String[items.size()]);
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.sf.jipcam.axis.MjpegFrame;
+
+/**
+ * Breaks and shapes the stream of one connection, as set by a FaultProfile.
+ *
+ * Each frame is passed through shape() before it is sent. Most frames are
+ * sent as they are, from the shared frame bytes; a frame picked to be broken
+ * is copied with a new header, which may lack its Content-Length, have a
+ * corrupted boundary, or give the length of a JPEG cut short. A frame may
+ * also be picked for a reset, at a position inside it.
+ *
+ * The bytes sent are paced by a token bucket, filled at the profile's
+ * bandwidth, and stop for the length of each stall. The non-blocking server
+ * asks for its allowance before each write, and the servlet has write()
+ * sleep for it.
+ *
+ * @author Jason Thrasher
+ */
+public class FaultInjector {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private static final int CHUNK = 4096; // most written at once when shaped
+
+	private FaultProfile profile;
+
+	private Random random;
+
+	private long start; // of the connection, for stalls
+
+	private double tokens; // bytes that may be sent
+
+	private long filled; // time tokens were last added
+
+	private int resetPosition = -1; // in the last frame shaped
+
+	private long faultCount = 0;
+
+	/**
+	 * Start shaping a connection now.
+	 *
+	 * @param profile
+	 *            of the faults
+	 */
+	public FaultInjector(FaultProfile profile) {
+		this.profile = profile;
+		this.random = (profile.getSeed() != 0) ? new Random(profile.getSeed())
+				: new Random();
+		this.start = System.nanoTime();
+		this.filled = start;
+		this.tokens = profile.getBurst();
+	}
+
+	/**
+	 * @return the profile
+	 */
+	public FaultProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return count of frames broken
+	 */
+	public long getFaultCount() {
+		return faultCount;
+	}
+
+	/**
+	 * Pick the faults of the next frame.
+	 *
+	 * @param frame
+	 *            to send, which isn't modified
+	 * @return the bytes to send, positioned at the start of the frame
+	 */
+	public ByteBuffer shape(MjpegFrame frame) {
+		boolean truncate = chance(profile.getTruncate());
+		boolean noLength = chance(profile.getNoLength());
+		boolean corrupt = chance(profile.getCorrupt());
+		boolean reset = chance(profile.getReset());
+		ByteBuffer buffer;
+
+		if (truncate || noLength || corrupt) {
+			ByteBuffer jpeg = frame.getJpegBuffer();
+			int length = jpeg.remaining();
+
+			if (truncate) {
+				// keep the SOI, lose the EOI
+				length = 2 + random.nextInt(Math.max(1, length - 4));
+			}
+
+			byte[] header = toAscii("\r\n\r\n--"
+					+ (corrupt ? "myb0undary" : "myboundary") + "\r\n"
+					+ "Content-Type: image/jpeg\r\n"
+					+ (noLength ? "" : ("Content-Length: " + length + "\r\n"))
+					+ "\r\n");
+			buffer = ByteBuffer.allocate(header.length + length);
+			buffer.put(header);
+			jpeg.limit(jpeg.position() + length);
+			buffer.put(jpeg);
+			buffer.flip();
+		} else {
+			buffer = frame.getBuffer();
+		}
+
+		resetPosition = reset ? random.nextInt(Math.max(1, buffer.remaining()))
+				: -1;
+
+		if (truncate || noLength || corrupt || reset) {
+			faultCount++;
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * @return position in the last frame shaped to reset the connection at,
+	 *         or -1 to send the whole frame
+	 */
+	public int getResetPosition() {
+		return resetPosition;
+	}
+
+	/**
+	 * Get the count of bytes that may be written now.
+	 *
+	 * @param now
+	 *            as from System.nanoTime()
+	 * @return the count, which is 0 in a stall or with an empty bucket
+	 */
+	public long getAllowance(long now) {
+		if (isStalled(now)) {
+			return 0;
+		}
+
+		if (profile.getBandwidth() <= 0) {
+			return Long.MAX_VALUE;
+		}
+
+		tokens = Math.min(profile.getBurst(), tokens
+				+ (((now - filled) * (double) profile.getBandwidth()) / NANOS_PER_SECOND));
+		filled = now;
+
+		return (long) tokens;
+	}
+
+	/**
+	 * Take bytes written from the bucket.
+	 *
+	 * @param count
+	 *            of bytes written
+	 */
+	public void consume(long count) {
+		if (profile.getBandwidth() > 0) {
+			tokens -= count;
+		}
+	}
+
+	/**
+	 * Get the time more bytes may be written.
+	 *
+	 * @param now
+	 *            as from System.nanoTime()
+	 * @return the time, as from System.nanoTime()
+	 */
+	public long getResumeTime(long now) {
+		if (isStalled(now)) {
+			long stallEvery = profile.getStallEvery() * NANOS_PER_MILLI;
+			long elapsed = now - start;
+
+			return start + (elapsed - (elapsed % stallEvery))
+					+ (profile.getStallFor() * NANOS_PER_MILLI);
+		}
+
+		if (profile.getBandwidth() <= 0) {
+			return now;
+		}
+
+		// wait for a chunk, not a byte
+		double wanted = Math.min(CHUNK, profile.getBurst()) - tokens;
+
+		return now
+				+ Math.max(0, (long) ((wanted * NANOS_PER_SECOND) / profile
+						.getBandwidth()));
+	}
+
+	/**
+	 * Write a shaped frame, sleeping for the allowance. Stops at the reset
+	 * position, if the frame has one.
+	 *
+	 * @param frame
+	 *            from shape()
+	 * @param out
+	 *            to write to
+	 * @return count of bytes written, or -1 if the connection must be reset
+	 * @throws IOException
+	 *             if the stream can't be written
+	 * @throws InterruptedException
+	 *             if interrupted while sleeping
+	 */
+	public int write(ByteBuffer frame, OutputStream out) throws IOException,
+			InterruptedException {
+		int end = (resetPosition >= 0) ? frame.position() + resetPosition
+				: frame.limit();
+		int written = 0;
+		byte[] chunk = new byte[CHUNK];
+
+		while (frame.position() < end) {
+			long now = System.nanoTime();
+			long allowance = getAllowance(now);
+
+			if (allowance <= 0) {
+				long wait = getResumeTime(now) - now;
+				Thread.sleep(wait / NANOS_PER_MILLI,
+						(int) (wait % NANOS_PER_MILLI));
+
+				continue;
+			}
+
+			int count = (int) Math.min(Math.min(allowance, CHUNK), end
+					- frame.position());
+			frame.get(chunk, 0, count);
+			out.write(chunk, 0, count);
+			out.flush();
+			consume(count);
+			written += count;
+		}
+
+		return (resetPosition >= 0) ? -1 : written;
+	}
+
+	private boolean isStalled(long now) {
+		if ((profile.getStallEvery() <= 0) || (profile.getStallFor() <= 0)) {
+			return false;
+		}
+
+		long elapsed = (now - start) / NANOS_PER_MILLI;
+
+		return (elapsed % profile.getStallEvery()) < profile.getStallFor();
+	}
+
+	private boolean chance(double p) {
+		return (p > 0) && (random.nextDouble() < p);
+	}
+
+	private static byte[] toAscii(String s) {
+		try {
+			return s.getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee.getMessage());
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.util.StringTokenizer;
+
+/**
+ * The faults and network shaping of an emulated MJPEG stream, as a list of
+ * settings like:
+ *
+ * <pre>
+ * bandwidth=32000;stall=5000/800;truncate=0.05;seed=7
+ * </pre>
+ *
+ * <ul>
+ * <li>bandwidth: bytes per second, in a token bucket per connection</li>
+ * <li>burst: bytes the bucket holds, by default a tenth of a second</li>
+ * <li>stall: every/for, in milliseconds, to send nothing for a while, which
+ * must be shorter than every</li>
+ * <li>reset: chance of a TCP reset in the middle of a frame</li>
+ * <li>truncate: chance of a frame's JPEG being cut short, without its EOI</li>
+ * <li>nolength: chance of a frame header without Content-Length</li>
+ * <li>corrupt: chance of a frame's boundary being corrupted</li>
+ * <li>seed: of the chances, to repeat a run, or 0 for a new run each time</li>
+ * </ul>
+ *
+ * A Camera has a profile of its own, and a stream request may override any
+ * setting with a parameter of the same name, as in
+ * /axis-cgi/mjpg/video.cgi?nolength=1&amp;bandwidth=16000
+ *
+ * @author Jason Thrasher
+ */
+public class FaultProfile {
+	/**
+	 * A profile without faults.
+	 */
+	public static final FaultProfile NONE = new FaultProfile();
+
+	private int bandwidth = 0;
+
+	private int burst = 0;
+
+	private int stallEvery = 0;
+
+	private int stallFor = 0;
+
+	private double reset = 0;
+
+	private double truncate = 0;
+
+	private double noLength = 0;
+
+	private double corrupt = 0;
+
+	private long seed = 0;
+
+	private FaultProfile() {
+	}
+
+	/**
+	 * Parse a profile.
+	 *
+	 * @param spec
+	 *            settings separated by ; or &amp;, or null for none
+	 * @return the profile
+	 * @throws IllegalArgumentException
+	 *             if a setting has a bad value
+	 */
+	public static FaultProfile parse(String spec) {
+		return NONE.merge(spec);
+	}
+
+	/**
+	 * Override some settings of this profile. Parameters that aren't
+	 * settings are ignored, so a whole request query may be given.
+	 *
+	 * @param spec
+	 *            settings separated by ; or &amp;, or null for none
+	 * @return the profile with the settings changed
+	 * @throws IllegalArgumentException
+	 *             if a setting has a bad value
+	 */
+	public FaultProfile merge(String spec) {
+		if ((spec == null) || (spec.trim().length() == 0)) {
+			return this;
+		}
+
+		FaultProfile profile = copy();
+		StringTokenizer st = new StringTokenizer(spec, ";&");
+
+		while (st.hasMoreTokens()) {
+			String setting = st.nextToken().trim();
+			int equals = setting.indexOf('=');
+
+			if (equals < 0) {
+				continue;
+			}
+
+			String name = setting.substring(0, equals).trim();
+			String value = setting.substring(equals + 1).trim();
+
+			try {
+				profile.set(name, value);
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("bad fault setting: "
+						+ setting);
+			}
+		}
+
+		return profile;
+	}
+
+	private void set(String name, String value) {
+		if (name.equals("bandwidth")) {
+			bandwidth = Integer.parseInt(value);
+		} else if (name.equals("burst")) {
+			burst = Integer.parseInt(value);
+		} else if (name.equals("stall")) {
+			int slash = value.indexOf('/');
+
+			if (slash < 0) {
+				throw new NumberFormatException(value);
+			}
+
+			int every = Integer.parseInt(value.substring(0, slash));
+			int stall = Integer.parseInt(value.substring(slash + 1));
+
+			// a stall as long as its period never ends
+			if ((stall > 0) && (stall >= every)) {
+				throw new NumberFormatException(value);
+			}
+
+			stallEvery = every;
+			stallFor = stall;
+		} else if (name.equals("reset")) {
+			reset = Double.parseDouble(value);
+		} else if (name.equals("truncate")) {
+			truncate = Double.parseDouble(value);
+		} else if (name.equals("nolength")) {
+			noLength = Double.parseDouble(value);
+		} else if (name.equals("corrupt")) {
+			corrupt = Double.parseDouble(value);
+		} else if (name.equals("seed")) {
+			seed = Long.parseLong(value);
+		}
+	}
+
+	private FaultProfile copy() {
+		FaultProfile profile = new FaultProfile();
+		profile.bandwidth = bandwidth;
+		profile.burst = burst;
+		profile.stallEvery = stallEvery;
+		profile.stallFor = stallFor;
+		profile.reset = reset;
+		profile.truncate = truncate;
+		profile.noLength = noLength;
+		profile.corrupt = corrupt;
+		profile.seed = seed;
+
+		return profile;
+	}
+
+	/**
+	 * @return true if nothing is shaped or broken
+	 */
+	public boolean isNone() {
+		return !isShaped() && !isFrameFaulty();
+	}
+
+	/**
+	 * @return true if the bandwidth is limited, or the stream stalls
+	 */
+	public boolean isShaped() {
+		return (bandwidth > 0) || ((stallEvery > 0) && (stallFor > 0));
+	}
+
+	/**
+	 * @return true if any frame may be broken
+	 */
+	public boolean isFrameFaulty() {
+		return (reset > 0) || (truncate > 0) || (noLength > 0) || (corrupt > 0);
+	}
+
+	/**
+	 * @return bytes per second, or 0 if unlimited
+	 */
+	public int getBandwidth() {
+		return bandwidth;
+	}
+
+	/**
+	 * @return bytes the token bucket holds
+	 */
+	public int getBurst() {
+		return (burst > 0) ? burst : Math.max(1, bandwidth / 10);
+	}
+
+	/**
+	 * @return milliseconds between the starts of stalls, or 0
+	 */
+	public int getStallEvery() {
+		return stallEvery;
+	}
+
+	/**
+	 * @return milliseconds each stall lasts
+	 */
+	public int getStallFor() {
+		return stallFor;
+	}
+
+	/**
+	 * @return chance of a reset in a frame
+	 */
+	public double getReset() {
+		return reset;
+	}
+
+	/**
+	 * @return chance of a frame being truncated
+	 */
+	public double getTruncate() {
+		return truncate;
+	}
+
+	/**
+	 * @return chance of a frame header without Content-Length
+	 */
+	public double getNoLength() {
+		return noLength;
+	}
+
+	/**
+	 * @return chance of a frame boundary being corrupted
+	 */
+	public double getCorrupt() {
+		return corrupt;
+	}
+
+	/**
+	 * @return seed of the chances, or 0 for a new one each time
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	public String toString() {
+		return "bandwidth=" + bandwidth + ";burst=" + getBurst() + ";stall="
+				+ stallEvery + "/" + stallFor + ";reset=" + reset
+				+ ";truncate=" + truncate + ";nolength=" + noLength
+				+ ";corrupt=" + corrupt + ";seed=" + seed;
+	}
+}
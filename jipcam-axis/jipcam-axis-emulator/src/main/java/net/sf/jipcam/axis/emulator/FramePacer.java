@@ -0,0 +1,148 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+/**
+ * Paces the frames of one client's stream on a schedule of absolute
+ * deadlines, measured with System.nanoTime().
+ *
+ * With a requested frame rate, the k-th deadline is computed from the first
+ * one as k / fps seconds later, so neither the time spent writing nor the
+ * rounding of the period adds up as drift. Without one, each deadline is the
+ * time the next frame becomes live on the FrameTimeline, which follows the
+ * Delta-time recorded in the source MJPEG.
+ *
+ * Deadlines that have already passed are skipped, so a client that fell
+ * behind continues with the live frame instead of sending a burst.
+ *
+ * An offset shifts the pacer's view of the timeline, so cameras that share a
+ * timeline each play a different part of it.
+ *
+ * @author Jason Thrasher
+ */
+public class FramePacer {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private FrameTimeline timeline;
+
+	private int fps; // 0 to follow the timeline
+
+	private long offset; // nanoseconds into the timeline
+
+	private long origin; // time of the first deadline
+
+	private long count = 0; // deadlines taken, at a requested rate
+
+	private long deadline; // time the next frame is due
+
+	private long skippedCount = 0;
+
+	/**
+	 * Start pacing a stream now.
+	 *
+	 * @param timeline
+	 *            to take frames from
+	 * @param fps
+	 *            frames per second, or 0 to send each frame of the timeline
+	 *            when it becomes live
+	 */
+	public FramePacer(FrameTimeline timeline, int fps) {
+		this(timeline, fps, 0);
+	}
+
+	/**
+	 * Start pacing a stream now, at an offset into the timeline.
+	 *
+	 * @param timeline
+	 *            to take frames from
+	 * @param fps
+	 *            frames per second, or 0 to send each frame of the timeline
+	 *            when it becomes live
+	 * @param offset
+	 *            nanoseconds ahead of the timeline's clock to play at
+	 */
+	public FramePacer(FrameTimeline timeline, int fps, long offset) {
+		this.timeline = timeline;
+		this.fps = Math.max(0, fps);
+		this.offset = offset;
+		this.origin = System.nanoTime();
+		this.deadline = origin;
+	}
+
+	/**
+	 * @return the time the next frame is due, as from System.nanoTime()
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return frames per second, or 0 if following the timeline
+	 */
+	public int getFps() {
+		return fps;
+	}
+
+	/**
+	 * @return count of deadlines skipped because they had passed
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Sleep until the next frame is due.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		long wait;
+
+		while ((wait = deadline - System.nanoTime()) > 0) {
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+
+	/**
+	 * Take the frame that is due, and move on to the next deadline.
+	 *
+	 * @param now
+	 *            the time, as from System.nanoTime()
+	 * @return index of the frame live on the timeline
+	 */
+	public int next(long now) {
+		int index = timeline.getIndex(now + offset);
+
+		if (fps == 0) {
+			deadline = timeline.getNextTime(now + offset) - offset;
+		} else {
+			count++;
+			deadline = origin + ((count * NANOS_PER_SECOND) / fps);
+
+			while (deadline <= now) {
+				count++;
+				skippedCount++;
+				deadline = origin + ((count * NANOS_PER_SECOND) / fps);
+			}
+		}
+
+		return index;
+	}
+}
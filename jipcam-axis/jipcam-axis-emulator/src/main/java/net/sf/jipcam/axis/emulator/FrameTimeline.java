@@ -0,0 +1,490 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import net.sf.jipcam.axis.MjpegFrame;
+import net.sf.jipcam.axis.MjpegInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The "canned" MJPEG stream of a Camera, parsed once and held in memory.
+ * The stream plays in a loop on a single clock that starts when the timeline
+ * is loaded, so at any moment every client sees the same live frame.
+ *
+ * Each frame is live for the time given by the Delta-time header of the frame
+ * after it, as it was recorded by the camera. Frames without a Delta-time are
+ * live for one period of the camera's frame rate. The clock is
+ * System.nanoTime(), so it doesn't jump when the wall clock is set.
+ *
+ * Clients don't parse or read anything; they ask for the frame at the
+ * current time, at whatever rate they were asked to send. A client slower
+ * than the timeline skips frames, and a faster one sends some frames more
+ * than once, as a camera asked for more frames than its sensor makes.
+ *
+ * In sendfile mode only the position and length of each frame is kept, and
+ * frames are sent from the file with FileChannel.transferTo(), so their bytes
+ * don't enter the Java heap when the target is a socket. The file must keep
+ * the emulator's boundary, as the samples recorded from Axis cameras do.
+ *
+ * A timeline may be scaled to another size. The frames are scaled once, and
+ * the scaled timeline plays on the same clock, so a camera that changes its
+ * resolution carries on from the same point of the stream.
+ *
+ * The frames are shared and must not be released or modified.
+ *
+ * @author Jason Thrasher
+ */
+public class FrameTimeline {
+	private static final Log log = LogFactory.getLog(FrameTimeline.class);
+
+	private MjpegFrame[] frames; // null in sendfile mode
+
+	private long[] offsets; // position of each frame in the file
+
+	private int[] lengths; // length of each frame
+
+	private FileChannel file; // open in sendfile mode
+
+	private long[] times; // nanoseconds into a pass each frame becomes live
+
+	private long duration; // nanoseconds in one pass of the timeline
+
+	private long start; // System.nanoTime() the clock started
+
+	private long byteCount; // bytes in one pass of the timeline
+
+	private Dimension size; // of the frames, found on first use
+
+	private static final int MAX_SCALED = 4; // sizes kept scaled at once
+
+	private Map scaled = Collections.synchronizedMap(new LinkedHashMap(
+			MAX_SCALED + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > MAX_SCALED; // the least recently used
+		}
+	}); // by size
+
+	private Object scaling = new Object(); // held while frames are scaled
+
+	/**
+	 * Load the frames of an MJPEG file into memory.
+	 *
+	 * @param mjpeg
+	 *            the file to play
+	 * @param fps
+	 *            frames per second to play the file at
+	 * @throws IOException
+	 *             if the file can't be read, or has no frames
+	 */
+	public FrameTimeline(File mjpeg, int fps) throws IOException {
+		this(mjpeg, fps, false);
+	}
+
+	/**
+	 * Load the frames of an MJPEG file.
+	 *
+	 * @param mjpeg
+	 *            the file to play
+	 * @param fps
+	 *            frames per second to play the file at
+	 * @param isSendfile
+	 *            true to only index the frames, and send them from the file
+	 * @throws IOException
+	 *             if the file can't be read, or has no frames
+	 */
+	public FrameTimeline(File mjpeg, int fps, boolean isSendfile)
+			throws IOException {
+		ArrayList list = new ArrayList();
+		ArrayList sizes = new ArrayList();
+		ArrayList deltas = new ArrayList();
+		MjpegInputStream in = new MjpegInputStream(new FileInputStream(mjpeg));
+
+		try {
+			while (true) {
+				MjpegFrame frame = in.readMjpegFrame();
+				byteCount += frame.getLength();
+				sizes.add(Integer.valueOf(frame.getLength()));
+				deltas.add(Integer.valueOf(frame.getHeader().getDeltaTime()));
+
+				if (!isSendfile) {
+					list.add(frame);
+				}
+			}
+		} catch (EOFException eof) {
+			// the whole file is indexed
+		} finally {
+			in.close();
+		}
+
+		if (sizes.size() == 0) {
+			throw new IOException("no MJPEG frames in "
+					+ mjpeg.getAbsolutePath());
+		}
+
+		// frames are read back to back from the start of the file
+		offsets = new long[sizes.size()];
+		lengths = new int[sizes.size()];
+		long offset = 0;
+
+		for (int i = 0; i < lengths.length; i++) {
+			offsets[i] = offset;
+			lengths[i] = ((Integer) sizes.get(i)).intValue();
+			offset += lengths[i];
+		}
+
+		if (isSendfile) {
+			file = new RandomAccessFile(mjpeg, "r").getChannel();
+		} else {
+			frames = (MjpegFrame[]) list.toArray(new MjpegFrame[list.size()]);
+		}
+
+		// frame i is live until the next frame's Delta-time has passed
+		long period = 1000000000L / Math.max(1, fps);
+		times = new long[lengths.length];
+
+		for (int i = 0; i < times.length; i++) {
+			int delta = ((Integer) deltas.get((i + 1) % times.length))
+					.intValue();
+			times[i] = duration;
+			duration += (delta > 0) ? (delta * 1000000L) : period;
+		}
+
+		start = System.nanoTime();
+
+		log.info((isSendfile ? "indexed " : "loaded ") + lengths.length
+				+ " frames, " + byteCount + " bytes from: "
+				+ mjpeg.getAbsolutePath());
+	}
+
+	/**
+	 * Scale the frames of another timeline.
+	 */
+	private FrameTimeline(FrameTimeline source, Dimension size)
+			throws IOException {
+		this.size = size;
+		frames = new MjpegFrame[source.getFrameCount()];
+		offsets = new long[frames.length];
+		lengths = new int[frames.length];
+
+		for (int i = 0; i < frames.length; i++) {
+			Image image = source.readFrame(i).getImage();
+
+			if (image == null) {
+				throw new IOException("could not decode frame " + i);
+			}
+
+			BufferedImage scaledImage = new BufferedImage(size.width,
+					size.height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = scaledImage.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(image, 0, 0, size.width, size.height, null);
+			g.dispose();
+
+			ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+			ImageIO.write(scaledImage, "jpg", jpeg);
+
+			frames[i] = new MjpegFrame(jpeg.toByteArray(), i);
+			offsets[i] = byteCount;
+			lengths[i] = frames[i].getLength();
+			byteCount += lengths[i];
+		}
+
+		// play on the source's clock
+		times = source.times;
+		duration = source.duration;
+		start = source.start;
+
+		log.info("scaled " + frames.length + " frames to " + size.width + "x"
+				+ size.height + ", " + byteCount + " bytes");
+	}
+
+	/**
+	 * Get this timeline scaled to a size. The frames are scaled the first
+	 * time a size is asked for, and the last few sizes used are kept; streams
+	 * playing a size dropped keep its frames until they change. Sizes are
+	 * scaled one at a time, so callers asking for a size that isn't kept wait
+	 * while any other size is scaled.
+	 *
+	 * @param size
+	 *            of the frames
+	 * @return the scaled timeline, or this one if its frames are that size
+	 * @throws IOException
+	 *             if the frames can't be read or scaled
+	 */
+	public FrameTimeline getScaled(Dimension size) throws IOException {
+		FrameTimeline timeline = (FrameTimeline) scaled.get(size);
+
+		if (timeline != null) {
+			return timeline;
+		}
+
+		synchronized (scaling) {
+			timeline = (FrameTimeline) scaled.get(size);
+
+			if (timeline == null) {
+				timeline = size.equals(getSize()) ? this : new FrameTimeline(
+						this, size);
+				scaled.put(size, timeline);
+			}
+		}
+
+		return timeline;
+	}
+
+	/**
+	 * @return the size of the frames
+	 * @throws IOException
+	 *             if the first frame can't be read
+	 */
+	public synchronized Dimension getSize() throws IOException {
+		if (size == null) {
+			Image image = readFrame(0).getImage();
+
+			if (image == null) {
+				throw new IOException("could not decode frame 0");
+			}
+
+			size = new Dimension(image.getWidth(null), image.getHeight(null));
+		}
+
+		return size;
+	}
+
+	/**
+	 * Read a frame, from memory or from the file. A frame in memory is
+	 * shared, and must not be released or modified.
+	 *
+	 * @param index
+	 *            of the frame
+	 * @return the frame
+	 * @throws IOException
+	 *             if the frame can't be read from the file
+	 */
+	public MjpegFrame readFrame(int index) throws IOException {
+		if (frames != null) {
+			return frames[index];
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(lengths[index]);
+
+		while (buffer.hasRemaining()) {
+			if (file.read(buffer, offsets[index] + buffer.position()) < 0) {
+				throw new EOFException("frame " + index + " is cut short");
+			}
+		}
+
+		return new MjpegInputStream(new ByteArrayInputStream(buffer.array()))
+				.readMjpegFrame();
+	}
+
+	/**
+	 * Get the frame that is live at the given time.
+	 *
+	 * @param time
+	 *            in nanoseconds, as from System.nanoTime()
+	 * @return the frame
+	 * @throws IllegalStateException
+	 *             in sendfile mode, where frames aren't held in memory
+	 */
+	public MjpegFrame getFrame(long time) {
+		if (frames == null) {
+			throw new IllegalStateException("frames are sent from the file");
+		}
+
+		return frames[getIndex(time)];
+	}
+
+	/**
+	 * Get the index of the frame that is live at the given time.
+	 *
+	 * @param time
+	 *            in nanoseconds, as from System.nanoTime()
+	 * @return the frame index
+	 */
+	public int getIndex(long time) {
+		int i = Arrays.binarySearch(times, Math.max(0, time - start)
+				% duration);
+
+		return (i >= 0) ? i : (-i - 2);
+	}
+
+	/**
+	 * Get the sequence number of the frame live at the given time. It counts
+	 * every frame played since the clock started, so it doesn't repeat when
+	 * the timeline loops.
+	 *
+	 * @param time
+	 *            in nanoseconds, as from System.nanoTime()
+	 * @return the sequence number
+	 */
+	public long getSequence(long time) {
+		long passes = Math.max(0, time - start) / duration;
+
+		return (passes * times.length) + getIndex(time);
+	}
+
+	/**
+	 * Get the time the frame after the one live at the given time becomes
+	 * live.
+	 *
+	 * @param time
+	 *            in nanoseconds, as from System.nanoTime()
+	 * @return the time of the next frame, in nanoseconds
+	 */
+	public long getNextTime(long time) {
+		long elapsed = Math.max(0, time - start);
+		long pass = start + (elapsed - (elapsed % duration));
+		int i = getIndex(time) + 1;
+
+		return pass + ((i < times.length) ? times[i] : duration);
+	}
+
+	/**
+	 * @param index
+	 *            of a frame
+	 * @return the length of the frame, with its header
+	 */
+	public int getLength(int index) {
+		return lengths[index];
+	}
+
+	/**
+	 * Write part of a frame to a channel, which may be non-blocking.
+	 *
+	 * @param index
+	 *            of the frame
+	 * @param position
+	 *            in the frame of the first byte to write
+	 * @param channel
+	 *            to write to
+	 * @return count of bytes written
+	 * @throws IOException
+	 *             if the channel can't be written
+	 */
+	public long writeFrame(int index, long position, WritableByteChannel channel)
+			throws IOException {
+		if (file != null) {
+			return file.transferTo(offsets[index] + position, lengths[index]
+					- position, channel);
+		}
+
+		ByteBuffer buffer = frames[index].getBuffer();
+		buffer.position(buffer.position() + (int) position);
+
+		return channel.write(buffer);
+	}
+
+	/**
+	 * Write a whole frame to a stream.
+	 *
+	 * @param index
+	 *            of the frame
+	 * @param out
+	 *            to write to
+	 * @return the length of the frame
+	 * @throws IOException
+	 *             if the stream can't be written
+	 */
+	public int writeFrame(int index, OutputStream out) throws IOException {
+		if (file != null) {
+			WritableByteChannel channel = Channels.newChannel(out);
+			long position = 0;
+
+			while (position < lengths[index]) {
+				position += writeFrame(index, position, channel);
+			}
+		} else {
+			out.write(frames[index].getBytes(), 0, lengths[index]);
+		}
+
+		return lengths[index];
+	}
+
+	/**
+	 * @return true if frames are sent from the file
+	 */
+	public boolean isSendfile() {
+		return file != null;
+	}
+
+	/**
+	 * Close the file of a sendfile timeline.
+	 */
+	public void close() {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException ioe) {
+				log.warn(ioe.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the count of frames in one pass of the timeline
+	 */
+	public int getFrameCount() {
+		return lengths.length;
+	}
+
+	/**
+	 * @return the bytes in one pass of the timeline
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * @return nanoseconds in one pass of the timeline
+	 */
+	public long getDuration() {
+		return duration;
+	}
+}
@@ -24,8 +24,7 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Properties;
+import java.util.Iterator;
 import java.util.StringTokenizer;
 
 import javax.servlet.ServletConfig;
@@ -42,6 +41,12 @@ import org.springframework.web.context.support.WebApplicationContextUtils;
 /**
  * Servlet to simulate camera properties.
  * 
+ * The properties are found and encoded by the camera's ParamIndex, which
+ * keeps the response to each query until the properties change.
+ * 
+ * Requests routed by the CameraDispatchServlet answer with the properties of
+ * their camera, and other requests with those of the default camera.
+ * 
  * @author Jason Thrasher
  */
 public class GetParamServlet extends HttpServlet {
@@ -49,9 +54,9 @@ public class GetParamServlet extends HttpServlet {
 	
 	private static final Log log = LogFactory.getLog(GetParamServlet.class);
 	
-	private static final String CONTENT_TYPE = "text/plain";
+	static final String CONTENT_TYPE = "text/plain";
 
-	private Camera camera;
+	private CameraRegistry registry;
 
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
@@ -91,11 +96,16 @@ public class GetParamServlet extends HttpServlet {
 		// get the image captcha service defined via the SpringFramework
 		ApplicationContext ctx = WebApplicationContextUtils
 				.getRequiredWebApplicationContext(getServletContext());
-		camera = (Camera) ctx.getBean("camera");
+		registry = (CameraRegistry) ctx.getBean("cameras");
 
 		try {
-			camera.getProperties().setProperty("root.Network.IPAddress",
-					InetAddress.getLocalHost().getHostAddress());
+			String address = InetAddress.getLocalHost().getHostAddress();
+			Iterator cameras = registry.getCameras().iterator();
+
+			while (cameras.hasNext()) {
+				((Camera) cameras.next()).setProperty(
+						"root.Network.IPAddress", address);
+			}
 		} catch (UnknownHostException uhe) {
 			log.warn( "could not identify host address");
 		}
@@ -110,44 +120,25 @@ public class GetParamServlet extends HttpServlet {
 			StringTokenizer st = new StringTokenizer(query, "&");
 
 			while (st.hasMoreTokens()) {
-				String name = st.nextToken();
-				System.out.println(name);
-				params.add(name);
+				params.add(st.nextToken());
 			}
 		}
 
-		// properties to return to the requestor
-		Properties propsFiltered = new Properties();
-
-		if (params.size() == 0) {
-			// send all params response
-			propsFiltered = camera.getProperties();
-		} else {
-			ArrayList namesFiltered = new ArrayList();
-			Enumeration allNames = camera.getProperties().propertyNames();
-
-			while (allNames.hasMoreElements()) {
-				String name = (String) allNames.nextElement();
-
-				// set the filtered property
-				for (int i = 0; i < params.size(); i++) {
-					if (name.startsWith((String) params.get(i))) {
-						namesFiltered.add(name);
-					}
-				}
-			}
+		Camera camera = (Camera) request
+				.getAttribute(CameraRegistry.CAMERA_ATTRIBUTE);
 
-			for (int i = 0; i < namesFiltered.size(); i++) {
-				String n = (String) namesFiltered.get(i);
-				propsFiltered.setProperty(n, camera.getProperties()
-						.getProperty(n));
-			}
+		if (camera == null) {
+			camera = registry.getCamera();
 		}
 
+		// responses are encoded once per query, until the properties change
+		byte[] body = camera.getParamIndex().getResponse(params);
+
 		response.setContentType(CONTENT_TYPE);
+		response.setContentLength(body.length);
 
 		OutputStream out = response.getOutputStream();
-		propsFiltered.store(out, null);
+		out.write(body);
 		out.close();
 
 		return;
@@ -0,0 +1,158 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.sf.jipcam.axis.MjpegFrame;
+
+/**
+ * The JPEG a Camera shows now, for snapshot requests like /jpg/1/image.jpg.
+ *
+ * The holder keeps the last JPEG it handed out, with the sequence number of
+ * its frame on the camera's timeline. While that frame is still live, every
+ * request gets the same JPEG with one atomic read, and no lock, parsing or
+ * file access. When the frame changes, the first request to see it takes the
+ * new JPEG from the timeline; in sendfile mode that is the only time the
+ * frame is read from the file. Requests racing to replace the JPEG each take
+ * the same frame, so it doesn't matter which of them is kept.
+ *
+ * The ETag of a JPEG is its frame's sequence number, with the version of the
+ * camera's properties, since a change of resolution changes the JPEG of the
+ * same frame.
+ *
+ * @author Jason Thrasher
+ */
+public class LatestFrame {
+	private Camera camera;
+
+	private AtomicReference latest = new AtomicReference(); // Snapshot
+
+	/**
+	 * @param camera
+	 *            whose frames are held
+	 */
+	public LatestFrame(Camera camera) {
+		this.camera = camera;
+	}
+
+	/**
+	 * Get the JPEG live at a time.
+	 *
+	 * @param now
+	 *            as from System.nanoTime()
+	 * @return the snapshot
+	 * @throws IOException
+	 *             if the frame can't be loaded
+	 */
+	public Snapshot get(long now) throws IOException {
+		long time = now + (camera.getStartOffset() * 1000000L);
+		long version = camera.getPropertyVersion();
+		Snapshot snapshot = (Snapshot) latest.get();
+
+		if ((snapshot != null) && (snapshot.version == version)
+				&& (snapshot.sequence == snapshot.timeline.getSequence(time))) {
+			return snapshot;
+		}
+
+		FrameTimeline timeline = camera.getTimeline();
+		long sequence = timeline.getSequence(time);
+		snapshot = new Snapshot(timeline, version, sequence, timeline
+				.readFrame(timeline.getIndex(time)));
+		latest.set(snapshot);
+
+		return snapshot;
+	}
+
+	/**
+	 * A JPEG of the camera. It never changes.
+	 */
+	public static class Snapshot {
+		private FrameTimeline timeline;
+
+		private long version;
+
+		private long sequence;
+
+		private String etag;
+
+		private byte[] data;
+
+		private int offset;
+
+		private int length;
+
+		Snapshot(FrameTimeline timeline, long version, long sequence,
+				MjpegFrame frame) {
+			this.timeline = timeline;
+			this.version = version;
+			this.sequence = sequence;
+			this.etag = "\"" + sequence + "-" + version + "\"";
+
+			// the frame's own bytes, not a copy
+			this.data = frame.getBytes();
+			this.offset = frame.getJpegOffset();
+			this.length = frame.getLength() - offset;
+		}
+
+		/**
+		 * @return the sequence number of the frame on the timeline
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return the entity tag of the JPEG, quoted
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * @return the length of the JPEG
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the JPEG, as a read-only buffer
+		 */
+		public ByteBuffer getBuffer() {
+			return ByteBuffer.wrap(data, offset, length).asReadOnlyBuffer();
+		}
+
+		/**
+		 * Write the JPEG to a stream.
+		 *
+		 * @param out
+		 *            to write to
+		 * @throws IOException
+		 *             if the stream can't be written
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(data, offset, length);
+		}
+	}
+}
@@ -21,10 +21,10 @@ package net.sf.jipcam.axis.emulator;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Enumeration;
+import java.util.Iterator;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -32,9 +32,6 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import net.sf.jipcam.axis.MjpegFrame;
-import net.sf.jipcam.axis.MjpegInputStream;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.context.ApplicationContext;
@@ -45,10 +42,34 @@ import org.springframework.web.context.support.WebApplicationContextUtils;
  * of a "canned" stream on the disk. The stream is "played" in a loop for the
  * HTTP client. The client should behave as if it's a continuous stream.
  * 
+ * The stream is parsed once into the camera's FrameTimeline, and every client
+ * sends the frame that is live on the timeline's clock, so many clients cost
+ * no more reading or parsing than one.
+ * 
+ * Each client holds a container thread for the life of its stream. If the
+ * camera has a stream port, the same stream is also served there by a
+ * MjpegStreamServer, which serves many clients on one thread. The stream
+ * server answers at the root paths of a camera, where the webapp can't, so
+ * it's the emulator to give a CameraAPI; a port that can't be opened is
+ * logged, and the webapp runs without it.
+ * 
+ * Every camera of the CameraRegistry is streamed, each from its own start
+ * offset. Requests routed by the CameraDispatchServlet carry their camera in
+ * a request attribute, and other requests stream the default camera.
+ * 
  * The CGI request supports modifications to FPS. This allows the client to run
- * at much higher FPS than the camera actually supports. The timing of the
- * response MJPEG frames is not very accurate - but good enough up to around 100
- * FPS on a 2 GHz computer.
+ * at much higher FPS than the camera actually supports. Frames are paced by a
+ * FramePacer on absolute deadlines, so the rate doesn't drift with the time
+ * spent writing. Without a requested rate, frames are sent at the camera's
+ * stream rate, or with the Delta-time they were recorded with. Changes to
+ * the camera's resolution or stream rate are picked up by streams already
+ * playing.
+ * 
+ * A stream may be throttled, or have its frames broken, by the camera's
+ * FaultProfile, and by fault parameters of the request, as in
+ * /axis-cgi/mjpg/video.cgi?truncate=0.1&amp;bandwidth=16000. A reset ends the
+ * response in the middle of a frame, since a servlet can't reset its
+ * connection.
  * 
  * @author Jason Thrasher
  */
@@ -57,26 +78,63 @@ public class MjpegServlet extends HttpServlet {
 
 	private static final Log log = LogFactory.getLog(MjpegServlet.class);
 
-	private static final String CONTENT_TYPE = "multipart/x-mixed-replace; boundary=--myboundary";
+	static final String CONTENT_TYPE = "multipart/x-mixed-replace; boundary=--myboundary";
 
 	// private static int DEFAULT_FPS = 10; // set in web.xml
 
 	// private File mMjpegFile; // set in web.xml
-	private Camera camera;
+	private CameraRegistry registry;
+
+	private MjpegStreamServer streamServer; // when the camera has a stream port
 
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
 		ApplicationContext ctx = WebApplicationContextUtils
 				.getRequiredWebApplicationContext(getServletContext());
-		camera = (Camera) ctx.getBean("camera");
+		registry = (CameraRegistry) ctx.getBean("cameras");
+		Camera camera = registry.getCamera();
 
-		// set the path relative to the webapp
-		String path = getServletContext().getRealPath(camera.getMjpegFile());
-		camera.setMjpeg(new File(path));
+		// set the paths relative to the webapp
+		Iterator cameras = registry.getCameras().iterator();
+
+		while (cameras.hasNext()) {
+			Camera cam = (Camera) cameras.next();
+			String path = getServletContext().getRealPath(cam.getMjpegFile());
+			cam.setMjpeg(new File(path));
+		}
 
 		log.info("using MJPEG: " + camera.getMjpeg().getAbsolutePath());
 
 		log.info("default FPS: " + camera.getFps());
+
+		try {
+			registry.load(); // load now, not on the first request
+		} catch (IOException ioe) {
+			throw new ServletException("could not load MJPEG", ioe);
+		}
+
+		if (camera.getStreamPort() > 0) {
+			streamServer = new MjpegStreamServer(registry, camera
+					.getStreamPort());
+
+			try {
+				streamServer.start();
+			} catch (IOException ioe) {
+				// the servlets still answer under the context path
+				log.error("could not stream on port: " + camera.getStreamPort(),
+						ioe);
+				streamServer = null;
+			}
+		}
+	}
+
+	public void destroy() {
+		if (streamServer != null) {
+			streamServer.stop();
+		}
+
+		registry.close();
+		super.destroy();
 	}
 
 	public void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -109,9 +167,29 @@ public class MjpegServlet extends HttpServlet {
 			fps = getIntegerParam(request.getParameter("des_fps"), -1);
 		}
 
-		// calculate the milliseconds of delay to use between frames
-		int deltaT = (fps <= 0) ? (1000 / camera.getFps()) : (1000 / fps);
-		log.info("Delta T between frames (ms): " + deltaT);
+		Camera camera = (Camera) request
+				.getAttribute(CameraRegistry.CAMERA_ATTRIBUTE);
+
+		if (camera == null) {
+			camera = registry.getCamera();
+		}
+
+		FaultInjector faults = null;
+
+		try {
+			FaultProfile profile = camera.getFaultProfile().merge(
+					request.getQueryString());
+
+			if (!profile.isNone()) {
+				log.info("faults: " + profile);
+				faults = new FaultInjector(profile);
+			}
+		} catch (IllegalArgumentException iae) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, iae
+					.getMessage());
+
+			return;
+		}
 
 		// send response headers, this doesn't work the same with all servlet
 		// containers
@@ -119,39 +197,58 @@ public class MjpegServlet extends HttpServlet {
 		response.setHeader("Server", "Camd");
 		response.setHeader("Connection", "Close");
 
+		// without a rate, send frames at the camera's stream rate
+		FrameTimeline timeline = camera.getTimeline();
+		FramePacer pacer = camera.createPacer(fps);
+		long version = camera.getPropertyVersion();
+		log.info("frames per second: "
+				+ ((pacer.getFps() == 0) ? "as recorded" : String
+						.valueOf(pacer.getFps())));
+
 		OutputStream out = new BufferedOutputStream(response.getOutputStream());
-		MjpegInputStream in = new MjpegInputStream(new FileInputStream(camera
-				.getMjpeg()));
-		MjpegFrame frame = null; // next frame
 		int byteCount = 0; // count number of bytes written
 		int frameCount = 0; // count frames
 		boolean lostConnection = false;
 
 		try {
 			while (true) {
-				try {
-					frame = in.readMjpegFrame();
-				} catch (IOException eof) {
-					// we hit the end of the file, start over!
-					in.close();
-					in = new MjpegInputStream(new FileInputStream(camera
-							.getMjpeg()));
+				if (camera.getPropertyVersion() != version) {
+					// the resolution or stream rate may have changed
+					version = camera.getPropertyVersion();
+					timeline = camera.getTimeline();
+					pacer = camera.createPacer(fps);
+				}
 
-					// log this client's activity
-					log.info(request.getRemoteHost() + " bytes: " + byteCount
-							+ " frames: " + frameCount);
+				// wait until the frame is due to simulate the camera's timing
+				pacer.await();
+
+				int index = pacer.next(System.nanoTime());
+				int length;
 
-					continue;
+				if (faults == null) {
+					length = timeline.writeFrame(index, out);
+					out.flush();
+				} else {
+					length = faults.write(faults.shape(timeline
+							.readFrame(index)), out);
+
+					if (length < 0) {
+						log.info("reset connection from: "
+								+ request.getRemoteHost());
+
+						break;
+					}
 				}
-				out.write(frame.getBytes(), 0, frame.getLength());
-				out.flush();
 
 				// increment counters
-				byteCount += frame.getLength(); // count bytes
+				byteCount += length; // count bytes
 				frameCount++;
 
-				// pause to simulate camera delay per framerate
-				Thread.sleep(deltaT);
+				if ((frameCount % timeline.getFrameCount()) == 0) {
+					// log this client's activity
+					log.info(request.getRemoteHost() + " bytes: " + byteCount
+							+ " frames: " + frameCount);
+				}
 			}
 		} catch (IOException ioe) {
 			// usually due to client disconnect
@@ -170,11 +267,6 @@ public class MjpegServlet extends HttpServlet {
 					log.warn(e.getMessage());
 				}
 			}
-			try {
-				in.close();
-			} catch (Exception e) {
-				log.fatal("we had a problem reading from the mjpeg file!", e);
-			}
 		}
 	}
 
@@ -0,0 +1,954 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Non-blocking MJPEG streaming for many clients on one thread. This is the
+ * same stream MjpegServlet sends, but served from a socket of its own instead
+ * of the servlet container, so a client doesn't hold a container thread for
+ * the life of its stream.
+ *
+ * One thread runs a selector and a schedule of frame deadlines for every
+ * client, kept by a FramePacer per client. At each client's deadline the
+ * frame that is live on the camera's FrameTimeline is pushed to the client,
+ * straight from the shared frame array, or from the file with
+ * FileChannel.transferTo() if the timeline is in sendfile mode. A client that
+ * is still writing the previous frame at its deadline drops that frame, so
+ * slow clients fall back to the latest frame instead of queueing old ones.
+ *
+ * Any path ending in /mjpg/video.cgi is streamed, with the req_fps or des_fps
+ * parameter of the MjpegServlet, and changes to the camera's resolution or
+ * stream rate are picked up at the next frame. Snapshots at /jpg/{n}/image.jpg
+ * are answered from the camera's LatestFrame, as by the SnapshotServlet, and
+ * getparam.cgi and setparam.cgi as by the GetParamServlet and SetParamServlet,
+ * so a camera port answers the requests of a CameraAPI. A path of the form
+ * /cam/{id}/axis-cgi/mjpg/video.cgi streams the camera of that id in the
+ * CameraRegistry, and other paths stream the default camera. Cameras of the
+ * registry with a stream port of their own are also streamed at the usual
+ * path on that port, as if each were a host of its own.
+ *
+ * A stream with a FaultProfile, from its camera or from fault parameters of
+ * the request, is written through a FaultInjector. Its frames are read from
+ * the timeline into memory, and written no faster than the token bucket
+ * allows. A throttled client waits on a second schedule, of the times it may
+ * write again, and a reset closes the connection with SO_LINGER at zero, so
+ * the client gets a TCP reset in the middle of the frame.
+ *
+ * @author Jason Thrasher
+ */
+public class MjpegStreamServer implements Runnable {
+	private static final Log log = LogFactory.getLog(MjpegStreamServer.class);
+
+	private static final String VIDEO_PATH = "/mjpg/video.cgi";
+
+	private static final String SNAPSHOT_PATH = "/image.jpg";
+
+	private static final String GET_PARAM_PATH = "/admin/getparam.cgi";
+
+	private static final String SET_PARAM_PATH = "/admin/setparam.cgi";
+
+	private static final int MAX_REQUEST_LENGTH = 2048;
+
+	private static final int SEND_BUFFER = 64 * 1024; // keep few stale frames
+
+	private static final byte[] STREAM_RESPONSE = toAscii("HTTP/1.0 200 OK\r\n"
+			+ "Server: Camd\r\n" + "Connection: close\r\n" + "Content-Type: "
+			+ MjpegServlet.CONTENT_TYPE + "\r\n\r\n");
+
+	private static final byte[] NOT_FOUND_RESPONSE = toAscii("HTTP/1.0 404 Not Found\r\n"
+			+ "Server: Camd\r\n" + "Connection: close\r\n\r\n");
+
+	private static final byte[] BAD_REQUEST_RESPONSE = toAscii("HTTP/1.0 400 Bad Request\r\n"
+			+ "Server: Camd\r\n" + "Connection: close\r\n\r\n");
+
+	private CameraRegistry registry;
+
+	private int port;
+
+	private ServerSocketChannel server;
+
+	private List servers = new ArrayList(); // server and the camera ports
+
+	private Selector selector;
+
+	private Thread thread;
+
+	private volatile boolean isRunning = false;
+
+	private PriorityQueue schedule = new PriorityQueue(); // clients by deadline
+
+	private PriorityQueue throttled = new PriorityQueue(11, new Comparator() {
+		public int compare(Object o1, Object o2) {
+			long resume = ((Client) o1).resumeAt;
+			long other = ((Client) o2).resumeAt;
+
+			return (resume < other) ? -1 : ((resume == other) ? 0 : 1);
+		}
+	}); // shaped clients by the time they may write again
+
+	private volatile int clientCount = 0;
+
+	private volatile long droppedCount = 0; // frames skipped for slow clients
+
+	/**
+	 * Create a server for the camera's stream.
+	 *
+	 * @param camera
+	 *            whose timeline is streamed
+	 * @param port
+	 *            to listen on, or 0 for any free port
+	 */
+	public MjpegStreamServer(Camera camera, int port) {
+		this(new CameraRegistry(camera), port);
+	}
+
+	/**
+	 * Create a server for the streams of every camera of a registry.
+	 *
+	 * @param registry
+	 *            of the cameras streamed
+	 * @param port
+	 *            to listen on for any camera, or 0 for any free port
+	 */
+	public MjpegStreamServer(CameraRegistry registry, int port) {
+		this.registry = registry;
+		this.port = port;
+	}
+
+	/**
+	 * Start listening, and start the server thread.
+	 *
+	 * @throws IOException
+	 *             if a port can't be opened, in which case none are left
+	 *             open
+	 */
+	public void start() throws IOException {
+		selector = Selector.open();
+
+		try {
+			server = listen(port, null);
+
+			Iterator cameras = registry.getCameras().iterator();
+			cameras.next(); // the default camera is streamed on the server port
+
+			while (cameras.hasNext()) {
+				Camera camera = (Camera) cameras.next();
+
+				if (camera.getStreamPort() > 0) {
+					listen(camera.getStreamPort(), camera);
+				}
+			}
+		} catch (IOException ioe) {
+			closeServers();
+			throw ioe;
+		}
+
+		isRunning = true;
+		thread = new Thread(this, MjpegStreamServer.class.getName());
+
+		// allow to exit cleanly if the VM goes down
+		thread.setDaemon(true);
+		thread.start();
+
+		log.info("streaming MJPEG on port: " + getPort() + ", and "
+				+ (servers.size() - 1) + " camera ports");
+	}
+
+	/**
+	 * Open a port.
+	 *
+	 * @param localPort
+	 *            to listen on, or 0 for any free port
+	 * @param camera
+	 *            streamed on the port, or null to route by path
+	 */
+	private ServerSocketChannel listen(int localPort, Camera camera)
+			throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		servers.add(channel);
+		channel.configureBlocking(false);
+		channel.socket().setReuseAddress(true);
+		channel.socket().bind(new InetSocketAddress(localPort));
+		channel.register(selector, SelectionKey.OP_ACCEPT, camera);
+
+		return channel;
+	}
+
+	/**
+	 * Close every client, and stop the server thread.
+	 */
+	public void stop() {
+		isRunning = false;
+
+		if (thread == null) {
+			return;
+		}
+
+		selector.wakeup();
+
+		try {
+			thread.join();
+		} catch (InterruptedException ie) {
+			log.warn(ie.getMessage());
+		}
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return count of clients connected
+	 */
+	public int getClientCount() {
+		return clientCount;
+	}
+
+	/**
+	 * @return count of frames skipped because a client was still writing
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Server thread: wait for the next deadline or socket event, whichever
+	 * comes first.
+	 */
+	public void run() {
+		try {
+			while (isRunning) {
+				long wait = sendDue(System.nanoTime());
+				selector.select(wait);
+
+				Iterator keys = selector.selectedKeys().iterator();
+
+				while (keys.hasNext()) {
+					SelectionKey key = (SelectionKey) keys.next();
+					keys.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						accept(key);
+					} else {
+						((Client) key.attachment()).handle(key);
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			log.error("stream server failed", ioe);
+		} finally {
+			closeAll();
+		}
+	}
+
+	/**
+	 * Push a frame to every client whose deadline has passed, and resume
+	 * the throttled clients that may write again.
+	 *
+	 * @param now
+	 *            as from System.nanoTime()
+	 * @return milliseconds until the next deadline, or 0 if there are none
+	 */
+	private long sendDue(long now) {
+		Client client;
+
+		while (((client = (Client) throttled.peek()) != null)
+				&& (client.resumeAt <= now)) {
+			throttled.poll();
+			client.resume();
+		}
+
+		long next = (client == null) ? Long.MAX_VALUE : client.resumeAt;
+
+		while (((client = (Client) schedule.peek()) != null)
+				&& (client.pacer.getDeadline() <= now)) {
+			schedule.poll();
+
+			if (!client.isOpen()) {
+				continue;
+			}
+
+			client.send(now);
+			schedule.add(client);
+		}
+
+		if (client != null) {
+			next = Math.min(next, client.pacer.getDeadline());
+		}
+
+		if (next == Long.MAX_VALUE) {
+			return 0;
+		}
+
+		// round up, so the frame isn't sent early
+		long wait = next - now;
+
+		return Math.max(1, (wait + 999999) / 1000000);
+	}
+
+	private void accept(SelectionKey key) throws IOException {
+		SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+
+		if (channel == null) {
+			return;
+		}
+
+		channel.configureBlocking(false);
+		channel.socket().setSendBufferSize(SEND_BUFFER);
+
+		Client client = new Client(channel, (Camera) key.attachment());
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clientCount++;
+	}
+
+	private void closeAll() {
+		Iterator keys = selector.keys().iterator();
+
+		while (keys.hasNext()) {
+			SelectionKey key = (SelectionKey) keys.next();
+
+			if (key.attachment() instanceof Client) {
+				((Client) key.attachment()).close();
+			}
+		}
+
+		schedule.clear();
+		throttled.clear();
+		log.info("stopped streaming MJPEG on port: " + getPort());
+		closeServers();
+	}
+
+	private void closeServers() {
+		try {
+			for (int i = 0; i < servers.size(); i++) {
+				((ServerSocketChannel) servers.get(i)).close();
+			}
+
+			selector.close();
+		} catch (IOException ioe) {
+			log.warn("error closing stream server", ioe);
+		}
+	}
+
+	private static byte[] toAscii(String s) {
+		try {
+			return s.getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee.getMessage());
+		}
+	}
+
+	/**
+	 * One client connection. Only used by the server thread.
+	 */
+	private class Client implements Comparable {
+		private SocketChannel channel;
+
+		private Camera camera; // null until the request is routed
+
+		private SelectionKey key;
+
+		private ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+
+		private ByteBuffer response; // HTTP response header, sent first
+
+		private ByteBuffer body; // of a snapshot response
+
+		private int frameIndex; // frame being sent
+
+		private long framePosition; // bytes of the frame sent
+
+		private long frameLength = 0; // length of the frame being sent
+
+		private FrameTimeline timeline;
+
+		private boolean isClosing = false; // close when the response is sent
+
+		private FramePacer pacer; // deadlines of this client's frames
+
+		private int fps; // asked for by the client, or -1
+
+		private long version; // of the camera's properties the stream uses
+
+		private FaultInjector faults; // or null to send frames as they are
+
+		private ByteBuffer frameBuffer; // frame being sent, when shaped
+
+		private boolean isResetting = false; // reset when the frame is sent
+
+		private long resumeAt; // time a throttled client may write again
+
+		private boolean isThrottled = false;
+
+		private long frameCount = 0;
+
+		private long byteCount = 0;
+
+		Client(SocketChannel channel, Camera camera) {
+			this.channel = channel;
+			this.camera = camera;
+		}
+
+		public int compareTo(Object o) {
+			long deadline = pacer.getDeadline();
+			long other = ((Client) o).pacer.getDeadline();
+
+			return (deadline < other) ? -1 : ((deadline == other) ? 0 : 1);
+		}
+
+		boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		void handle(SelectionKey key) {
+			try {
+				if (key.isReadable()) {
+					read();
+				} else if (key.isWritable()) {
+					write();
+				}
+			} catch (IOException ioe) {
+				// usually due to client disconnect
+				log.info("client connection closed from: "
+						+ channel.socket().getInetAddress() + ", "
+						+ ioe.getMessage());
+				close();
+			} catch (RuntimeException re) {
+				fail(re);
+			}
+		}
+
+		/**
+		 * Push the live frame, unless the last one is still being written.
+		 */
+		void send(long now) {
+			if (!isWriting() && (camera.getPropertyVersion() != version)) {
+				try {
+					// the resolution or stream rate may have changed
+					version = camera.getPropertyVersion();
+					timeline = camera.getTimeline();
+					pacer = camera.createPacer(fps);
+				} catch (IOException ioe) {
+					log.error("could not change the stream", ioe);
+				}
+			}
+
+			int index = pacer.next(now);
+
+			if (isWriting()) {
+				droppedCount++;
+
+				return;
+			}
+
+			frameIndex = index;
+			framePosition = 0;
+
+			try {
+				if (faults == null) {
+					frameLength = timeline.getLength(frameIndex);
+				} else {
+					frameBuffer = faults.shape(timeline.readFrame(frameIndex));
+					isResetting = (faults.getResetPosition() >= 0);
+					frameLength = isResetting ? faults.getResetPosition()
+							: frameBuffer.remaining();
+				}
+
+				frameCount++;
+				byteCount += frameLength;
+				write();
+			} catch (IOException ioe) {
+				log.info("client connection closed from: "
+						+ channel.socket().getInetAddress() + ", "
+						+ ioe.getMessage());
+				close();
+			} catch (RuntimeException re) {
+				fail(re);
+			}
+		}
+
+		/**
+		 * Write again, after being throttled.
+		 */
+		void resume() {
+			isThrottled = false;
+
+			if (!channel.isOpen()) {
+				return;
+			}
+
+			try {
+				write();
+			} catch (IOException ioe) {
+				log.info("client connection closed from: "
+						+ channel.socket().getInetAddress() + ", "
+						+ ioe.getMessage());
+				close();
+			} catch (RuntimeException re) {
+				fail(re);
+			}
+		}
+
+		/**
+		 * Close a client broken by a bug, rather than the whole server.
+		 */
+		private void fail(RuntimeException re) {
+			log.error("client failed: " + channel.socket().getInetAddress(), re);
+			close();
+		}
+
+		void close() {
+			if (!channel.isOpen()) {
+				return;
+			}
+
+			clientCount--;
+			log.info(channel.socket().getInetAddress() + " bytes: " + byteCount
+					+ " frames: " + frameCount);
+
+			try {
+				channel.close(); // also cancels the key
+			} catch (IOException ioe) {
+				log.warn(ioe.getMessage());
+			}
+		}
+
+		private boolean isWriting() {
+			return ((response != null) && response.hasRemaining())
+					|| ((body != null) && body.hasRemaining())
+					|| (framePosition < frameLength);
+		}
+
+		/**
+		 * Read the request, and its form content if it has any, and start the
+		 * stream or answer it when it's complete.
+		 */
+		private void read() throws IOException {
+			if (channel.read(request) < 0) {
+				close();
+
+				return;
+			}
+
+			String text = new String(request.array(), 0, request.position(),
+					"ISO-8859-1");
+
+			int headerEnd = text.indexOf("\r\n\r\n") + 4;
+			int contentLength = (headerEnd < 4) ? 0 : getContentLength(text
+					.substring(0, headerEnd));
+
+			if ((headerEnd < 4) || (text.length() < headerEnd + contentLength)) {
+				if (!request.hasRemaining()) {
+					throw new IOException("request too long");
+				}
+
+				return; // wait for the rest
+			}
+
+			String content = text.substring(headerEnd, headerEnd
+					+ Math.max(0, contentLength));
+			StringTokenizer line = new StringTokenizer(text, " \r\n");
+
+			if (!line.hasMoreTokens() || (contentLength < 0)) {
+				log.warn("bad request from: " + channel.socket().getInetAddress());
+				request = null;
+				response = ByteBuffer.wrap(BAD_REQUEST_RESPONSE);
+				isClosing = true;
+				write();
+
+				return;
+			}
+
+			line.nextToken(); // method
+			String uri = line.hasMoreTokens() ? line.nextToken() : "";
+			int query = uri.indexOf('?');
+			String path = (query < 0) ? uri : uri.substring(0, query);
+			request = null; // no longer needed
+
+			if (camera == null) {
+				camera = registry.getCameraForPath(path);
+			}
+
+			if ((camera != null) && path.endsWith(SNAPSHOT_PATH)
+					&& (path.indexOf("/jpg/") >= 0)) {
+				snapshot(text);
+
+				return;
+			}
+
+			if ((camera != null) && path.endsWith(GET_PARAM_PATH)) {
+				// responses are encoded once per query, as by the servlet
+				answer(camera.getParamIndex().getResponse(
+						getQuery((query < 0) ? "" : uri.substring(query + 1))));
+
+				return;
+			}
+
+			if ((camera != null) && path.endsWith(SET_PARAM_PATH)) {
+				Map params;
+
+				try {
+					// as a POST from CameraAPI, or a GET
+					params = getParams(((query < 0) ? "" : uri
+							.substring(query + 1))
+							+ "&" + content);
+				} catch (IllegalArgumentException iae) {
+					log.warn("bad parameters: " + uri);
+					response = ByteBuffer.wrap(BAD_REQUEST_RESPONSE);
+					isClosing = true;
+					write();
+
+					return;
+				}
+
+				answer(toAscii(SetParamServlet.setParams(camera, params)));
+
+				return;
+			}
+
+			if ((camera == null) || !path.endsWith(VIDEO_PATH)) {
+				log.warn("not found: " + path);
+				response = ByteBuffer.wrap(NOT_FOUND_RESPONSE);
+				isClosing = true;
+				write();
+
+				return;
+			}
+
+			version = camera.getPropertyVersion();
+			timeline = camera.getTimeline();
+
+			// try to get the frames per second value from the request
+			fps = getIntegerParam(uri, "req_fps");
+
+			if (fps <= 0) {
+				// fall-back to "desired fps" if needed
+				fps = getIntegerParam(uri, "des_fps");
+			}
+
+			try {
+				FaultProfile profile = camera.getFaultProfile().merge(
+						(query < 0) ? null : uri.substring(query + 1));
+
+				if (!profile.isNone()) {
+					log.info("client " + channel.socket().getInetAddress()
+							+ " faults: " + profile);
+					faults = new FaultInjector(profile);
+				}
+			} catch (IllegalArgumentException iae) {
+				log.warn(iae.getMessage());
+				response = ByteBuffer.wrap(BAD_REQUEST_RESPONSE);
+				isClosing = true;
+				write();
+
+				return;
+			}
+
+			// without a rate, send frames at the camera's stream rate
+			pacer = camera.createPacer(fps);
+			log.info("client " + channel.socket().getInetAddress()
+					+ " frames per second: "
+					+ ((pacer.getFps() == 0) ? "as recorded" : String
+							.valueOf(pacer.getFps())));
+
+			response = ByteBuffer.wrap(STREAM_RESPONSE);
+			schedule.add(this);
+			write();
+		}
+
+		/**
+		 * Answer with the camera's JPEG, or with 304 Not Modified if the
+		 * request's If-None-Match has its ETag.
+		 */
+		private void snapshot(String text) throws IOException {
+			LatestFrame.Snapshot jpeg = camera.getLatestFrame().get(
+					System.nanoTime());
+			String match = getHeader(text, "If-None-Match");
+
+			if ((match != null) && (match.indexOf(jpeg.getETag()) >= 0)) {
+				response = ByteBuffer.wrap(toAscii("HTTP/1.0 304 Not Modified\r\n"
+						+ "Server: Camd\r\n" + "Connection: close\r\n"
+						+ "ETag: " + jpeg.getETag() + "\r\n\r\n"));
+			} else {
+				response = ByteBuffer.wrap(toAscii("HTTP/1.0 200 OK\r\n"
+						+ "Server: Camd\r\n" + "Connection: close\r\n"
+						+ "Cache-Control: no-cache\r\n" + "Content-Type: "
+						+ SnapshotServlet.CONTENT_TYPE + "\r\n"
+						+ "Content-Length: " + jpeg.getLength() + "\r\n"
+						+ "ETag: " + jpeg.getETag() + "\r\n\r\n"));
+				body = jpeg.getBuffer();
+			}
+
+			isClosing = true;
+			write();
+		}
+
+		/**
+		 * Answer with a text body, as the parameter servlets do.
+		 */
+		private void answer(byte[] content) throws IOException {
+			response = ByteBuffer.wrap(toAscii("HTTP/1.0 200 OK\r\n"
+					+ "Server: Camd\r\n" + "Connection: close\r\n"
+					+ "Content-Type: " + GetParamServlet.CONTENT_TYPE + "\r\n"
+					+ "Content-Length: " + content.length + "\r\n\r\n"));
+			body = ByteBuffer.wrap(content);
+			isClosing = true;
+			write();
+		}
+
+		/**
+		 * Write as much as the socket takes, and wait for it to be writable
+		 * if there is more.
+		 */
+		private void write() throws IOException {
+			if ((response != null) && response.hasRemaining()) {
+				channel.write(response);
+			}
+
+			if ((body != null) && !response.hasRemaining()) {
+				channel.write(body);
+			}
+
+			if ((faults != null) && (framePosition < frameLength)
+					&& ((response == null) || !response.hasRemaining())) {
+				writeShaped();
+
+				return;
+			}
+
+			if ((response == null) || !response.hasRemaining()) {
+				while (framePosition < frameLength) {
+					long count = timeline.writeFrame(frameIndex, framePosition,
+							channel);
+
+					if (count <= 0) {
+						break; // socket buffer is full
+					}
+
+					framePosition += count;
+				}
+			}
+
+			if (isWriting()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else if (isClosing) {
+				close();
+			} else {
+				key.interestOps(0);
+			}
+		}
+
+		/**
+		 * Write as much of a shaped frame as the socket and the token bucket
+		 * take. If the bucket runs out, wait on the throttled schedule
+		 * instead of for the socket.
+		 */
+		private void writeShaped() throws IOException {
+			if (isThrottled) {
+				return; // resumed by the schedule
+			}
+
+			long now = System.nanoTime();
+			long allowance = faults.getAllowance(now);
+			int end = frameBuffer.limit();
+
+			while ((framePosition < frameLength) && (allowance > 0)) {
+				frameBuffer.limit((int) Math.min(end, frameBuffer.position()
+						+ Math.min(allowance, frameLength - framePosition)));
+				int count = channel.write(frameBuffer);
+				frameBuffer.limit(end);
+
+				if (count <= 0) {
+					break; // socket buffer is full
+				}
+
+				faults.consume(count);
+				allowance -= count;
+				framePosition += count;
+			}
+
+			if (framePosition >= frameLength) {
+				frameBuffer = null;
+
+				if (isResetting) {
+					reset();
+				} else {
+					key.interestOps(0);
+				}
+			} else if (allowance <= 0) {
+				resumeAt = faults.getResumeTime(now);
+				isThrottled = true;
+				throttled.add(this);
+				key.interestOps(0);
+			} else {
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Close with a TCP reset, not a FIN.
+		 */
+		private void reset() throws IOException {
+			log.info("reset connection from: "
+					+ channel.socket().getInetAddress());
+			channel.socket().setSoLinger(true, 0);
+			close();
+		}
+
+		/**
+		 * Get a header of the request.
+		 *
+		 * @return the value, or null if the request doesn't have it
+		 */
+		private String getHeader(String text, String name) {
+			StringTokenizer lines = new StringTokenizer(text, "\r\n");
+
+			while (lines.hasMoreTokens()) {
+				String line = lines.nextToken();
+				int colon = line.indexOf(':');
+
+				if ((colon > 0)
+						&& line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+					return line.substring(colon + 1).trim();
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Get the Content-Length of a request header.
+		 *
+		 * @return the length, 0 if there is none, or -1 if it isn't a length
+		 */
+		private int getContentLength(String header) {
+			String length = getHeader(header, "Content-Length");
+
+			if (length == null) {
+				return 0;
+			}
+
+			try {
+				return Math.max(-1, Integer.parseInt(length));
+			} catch (NumberFormatException nfe) {
+				return -1;
+			}
+		}
+
+		/**
+		 * Get the parameters of a query, as they are sent.
+		 *
+		 * @return the parameters
+		 */
+		private List getQuery(String query) {
+			List params = new ArrayList();
+			StringTokenizer st = new StringTokenizer(query, "&");
+
+			while (st.hasMoreTokens()) {
+				params.add(st.nextToken());
+			}
+
+			return params;
+		}
+
+		/**
+		 * Get the decoded parameters of a query or form content.
+		 *
+		 * @return values by name, in the order of the query
+		 * @throws IllegalArgumentException
+		 *             if a parameter isn't URL encoded
+		 */
+		private Map getParams(String form) throws IOException {
+			List query = getQuery(form);
+			Map params = new LinkedHashMap();
+
+			for (int i = 0; i < query.size(); i++) {
+				String param = (String) query.get(i);
+				int equals = param.indexOf('=');
+				String name = (equals < 0) ? param : param.substring(0, equals);
+				String value = (equals < 0) ? "" : param.substring(equals + 1);
+
+				params.put(URLDecoder.decode(name, "ISO-8859-1"), URLDecoder
+						.decode(value, "ISO-8859-1"));
+			}
+
+			return params;
+		}
+
+		/**
+		 * Get a positive integer parameter from the query of a URI.
+		 *
+		 * @return the value, or -1 if it is missing or not a number
+		 */
+		private int getIntegerParam(String uri, String name) {
+			int query = uri.indexOf('?');
+
+			if (query < 0) {
+				return -1;
+			}
+
+			StringTokenizer params = new StringTokenizer(
+					uri.substring(query + 1), "&");
+
+			while (params.hasMoreTokens()) {
+				String param = params.nextToken();
+
+				if (param.startsWith(name + "=")) {
+					try {
+						return Integer.parseInt(param
+								.substring(name.length() + 1));
+					} catch (NumberFormatException nfe) {
+						log.warn("failed to parse integer: " + param);
+					}
+				}
+			}
+
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The properties of a Camera at one version, sorted by name, with the
+ * getparam.cgi responses made from them. An index is a snapshot taken by the
+ * camera's PropertyStore, and never changes.
+ *
+ * The properties are the defaults of the camera's model, shared by every
+ * camera of the model, and the few this camera changed. The properties under
+ * a prefix are a range of the sorted names, so they are found without
+ * looking at any others. Responses are encoded once for each set of
+ * prefixes, and kept until the index is replaced, which the PropertyStore
+ * does when the properties change.
+ *
+ * @author Jason Thrasher
+ */
+public class ParamIndex {
+	private static final int MAX_RESPONSES = 64; // per camera
+
+	private long version;
+
+	private SortedMap defaults; // name to value, shared
+
+	private SortedMap changes; // name to value, of this camera
+
+	private int size;
+
+	private Map responses; // normalized query to encoded response
+
+	/**
+	 * Index some properties. Neither map may be modified after.
+	 *
+	 * @param defaults
+	 *            of the properties, by name
+	 * @param changes
+	 *            made to the defaults, by name
+	 * @param version
+	 *            of the properties
+	 */
+	public ParamIndex(SortedMap defaults, SortedMap changes, long version) {
+		this.defaults = defaults;
+		this.changes = changes;
+		this.version = version;
+		this.size = defaults.size();
+
+		for (Iterator i = changes.keySet().iterator(); i.hasNext();) {
+			if (!defaults.containsKey(i.next())) {
+				size++;
+			}
+		}
+
+		// least recently used responses are dropped
+		responses = Collections.synchronizedMap(new LinkedHashMap(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = -1201293;
+
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > MAX_RESPONSES;
+			}
+		});
+	}
+
+	/**
+	 * @return the version of the properties indexed
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return count of properties
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param name
+	 *            of a property
+	 * @return the value, or null if there is no such property
+	 */
+	public String getProperty(String name) {
+		String value = (String) changes.get(name);
+
+		return (value != null) ? value : (String) defaults.get(name);
+	}
+
+	/**
+	 * Get the properties whose names start with a prefix.
+	 *
+	 * @param prefix
+	 *            of the names
+	 * @return the properties, sorted by name
+	 */
+	public SortedMap getProperties(String prefix) {
+		String end = prefix + Character.MAX_VALUE;
+		SortedMap range = defaults.subMap(prefix, end);
+		SortedMap changed = changes.subMap(prefix, end);
+
+		if (!changed.isEmpty()) {
+			range = new TreeMap(range);
+			range.putAll(changed);
+		}
+
+		return Collections.unmodifiableSortedMap(range);
+	}
+
+	/**
+	 * @return the properties changed from the defaults, sorted by name
+	 */
+	public SortedMap getChanges() {
+		return Collections.unmodifiableSortedMap(changes);
+	}
+
+	/**
+	 * @return the defaults of the properties, sorted by name
+	 */
+	SortedMap getDefaults() {
+		return defaults;
+	}
+
+	/**
+	 * Get the getparam.cgi response for the properties under any of the
+	 * prefixes, encoded as by Properties.store().
+	 *
+	 * @param prefixes
+	 *            of the properties, or an empty list for all of them
+	 * @return the response body, which must not be modified
+	 */
+	public byte[] getResponse(List prefixes) {
+		List query = normalize(prefixes);
+		String key = query.toString();
+		byte[] response = (byte[]) responses.get(key);
+
+		if (response == null) {
+			response = encode(query);
+			responses.put(key, response);
+		}
+
+		return response;
+	}
+
+	/**
+	 * Sort the prefixes, and drop those under another prefix, so queries for
+	 * the same properties share a response.
+	 */
+	private static List normalize(List prefixes) {
+		List sorted = new ArrayList(prefixes);
+		Collections.sort(sorted);
+
+		List query = new ArrayList();
+
+		for (int i = 0; i < sorted.size(); i++) {
+			String prefix = (String) sorted.get(i);
+
+			if (query.isEmpty()
+					|| !prefix.startsWith((String) query.get(query.size() - 1))) {
+				query.add(prefix);
+			}
+		}
+
+		if (query.isEmpty()) {
+			query.add(""); // all properties
+		}
+
+		return query;
+	}
+
+	private byte[] encode(List query) {
+		Properties filtered = new Properties();
+
+		for (int i = 0; i < query.size(); i++) {
+			filtered.putAll(getProperties((String) query.get(i)));
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try {
+			filtered.store(out, null);
+		} catch (IOException ioe) {
+			// not thrown by a byte array
+			throw new IllegalStateException(ioe.getMessage());
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The properties of a Camera, kept as a series of versioned snapshots.
+ *
+ * Readers take the current snapshot, a ParamIndex, with one volatile read and
+ * no lock, and see every property at the same version for as long as they
+ * hold it. Writers copy the changes of the current snapshot, apply their own,
+ * and publish a new snapshot with the next version. Writers take turns, so no
+ * change is lost, but they never wait for a reader.
+ *
+ * Only the properties changed from the defaults are copied, so a write costs
+ * little however many properties the model has.
+ *
+ * @author Jason Thrasher
+ */
+public class PropertyStore {
+	private static final SortedMap NO_CHANGES = Collections
+			.unmodifiableSortedMap(new TreeMap());
+
+	private volatile ParamIndex snapshot;
+
+	/**
+	 * Create a store of the defaults, unchanged.
+	 *
+	 * @param defaults
+	 *            of the properties, by name, which must not be modified
+	 */
+	public PropertyStore(SortedMap defaults) {
+		snapshot = new ParamIndex(defaults, NO_CHANGES, 0);
+	}
+
+	/**
+	 * @return the properties at the current version
+	 */
+	public ParamIndex getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the current version
+	 */
+	public long getVersion() {
+		return snapshot.getVersion();
+	}
+
+	/**
+	 * @param name
+	 *            of a property
+	 * @return the current value, or null if there is no such property
+	 */
+	public String getProperty(String name) {
+		return snapshot.getProperty(name);
+	}
+
+	/**
+	 * Set a property.
+	 *
+	 * @param name
+	 *            of the property
+	 * @param value
+	 *            of the property
+	 * @return the version with the change
+	 */
+	public long setProperty(String name, String value) {
+		return setProperties(Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * Set many properties at once. Readers see all of them changed, or none.
+	 *
+	 * @param properties
+	 *            values by name
+	 * @return the version with the changes
+	 */
+	public synchronized long setProperties(Map properties) {
+		ParamIndex current = snapshot;
+		SortedMap changes = new TreeMap(current.getChanges());
+		changes.putAll(properties);
+
+		return publish(current.getDefaults(), changes);
+	}
+
+	/**
+	 * Replace the defaults, and drop every change.
+	 *
+	 * @param defaults
+	 *            of the properties, by name, which must not be modified
+	 * @return the version of the new defaults
+	 */
+	public synchronized long setDefaults(SortedMap defaults) {
+		return publish(defaults, NO_CHANGES);
+	}
+
+	private long publish(SortedMap defaults, SortedMap changes) {
+		long version = snapshot.getVersion() + 1;
+		snapshot = new ParamIndex(defaults, changes, version);
+
+		return version;
+	}
+}
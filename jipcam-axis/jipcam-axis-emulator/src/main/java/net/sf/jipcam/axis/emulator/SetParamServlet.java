@@ -0,0 +1,139 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Servlet to simulate setting camera properties, as with
+ * /axis-cgi/admin/setparam.cgi?root.Image.Resolution=176x120
+ *
+ * Every parameter of the request names a property to set. Properties the
+ * camera has are set together, in one version of its PropertyStore, and the
+ * others are answered with an error line each, as the camera does. The
+ * response is "OK" if every property was set. A new resolution is scaled
+ * before the response is sent, and streams switch to it at their next frame.
+ *
+ * Requests routed by the CameraDispatchServlet set the properties of their
+ * camera, and other requests those of the default camera.
+ *
+ * @author Jason Thrasher
+ */
+public class SetParamServlet extends HttpServlet {
+	private static final long serialVersionUID = -1201293;
+
+	private static final Log log = LogFactory.getLog(SetParamServlet.class);
+
+	static final String CONTENT_TYPE = "text/plain";
+
+	private CameraRegistry registry;
+
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ApplicationContext ctx = WebApplicationContextUtils
+				.getRequiredWebApplicationContext(getServletContext());
+		registry = (CameraRegistry) ctx.getBean("cameras");
+	}
+
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		Camera camera = (Camera) request
+				.getAttribute(CameraRegistry.CAMERA_ATTRIBUTE);
+
+		if (camera == null) {
+			camera = registry.getCamera();
+		}
+
+		Map params = new LinkedHashMap();
+		Enumeration names = request.getParameterNames();
+
+		while (names.hasMoreElements()) {
+			String name = (String) names.nextElement();
+			params.put(name, request.getParameter(name));
+		}
+
+		response.setContentType(CONTENT_TYPE);
+
+		PrintWriter out = response.getWriter();
+		out.print(setParams(camera, params));
+		out.close();
+	}
+
+	/**
+	 * Set the properties of a camera, as setparam.cgi does.
+	 * 
+	 * @param camera
+	 *            whose properties are set
+	 * @param params
+	 *            values by name, in the order of the request
+	 * @return the response body
+	 * @throws IOException
+	 *             if the frames can't be scaled to a new resolution
+	 */
+	static String setParams(Camera camera, Map params) throws IOException {
+		ParamIndex current = camera.getParamIndex();
+		Map changes = new HashMap();
+		StringBuffer errors = new StringBuffer();
+
+		for (Iterator i = params.entrySet().iterator(); i.hasNext();) {
+			Map.Entry param = (Map.Entry) i.next();
+			String name = (String) param.getKey();
+			String value = (String) param.getValue();
+
+			if ((current.getProperty(name) == null)
+					|| !camera.isValid(name, value)) {
+				errors.append("# Error: Error setting '" + name + "' to '"
+						+ value + "'!\r\n");
+			} else {
+				changes.put(name, value);
+			}
+		}
+
+		if (!changes.isEmpty()) {
+			long version = camera.changeProperties(changes);
+			log.info("camera " + camera.getId() + " properties version "
+					+ version + ": " + changes);
+		}
+
+		return (errors.length() == 0) ? "OK\r\n" : errors.toString();
+	}
+
+	public void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		doGet(request, response);
+	}
+}
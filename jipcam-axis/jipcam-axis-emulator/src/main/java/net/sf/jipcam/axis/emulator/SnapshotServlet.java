@@ -0,0 +1,90 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Servlet to simulate the camera's snapshot, /jpg/{n}/image.jpg. The JPEG
+ * live on the camera's timeline is taken from its LatestFrame, and a request
+ * whose If-None-Match has the JPEG's ETag is answered 304 Not Modified.
+ *
+ * Every camera number shows the same view. Requests routed by the
+ * CameraDispatchServlet show their camera, and other requests the default
+ * camera.
+ *
+ * @author Jason Thrasher
+ */
+public class SnapshotServlet extends HttpServlet {
+	private static final long serialVersionUID = -1201293;
+
+	static final String CONTENT_TYPE = "image/jpeg";
+
+	private CameraRegistry registry;
+
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ApplicationContext ctx = WebApplicationContextUtils
+				.getRequiredWebApplicationContext(getServletContext());
+		registry = (CameraRegistry) ctx.getBean("cameras");
+	}
+
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		Camera camera = (Camera) request
+				.getAttribute(CameraRegistry.CAMERA_ATTRIBUTE);
+
+		if (camera == null) {
+			camera = registry.getCamera();
+		}
+
+		LatestFrame.Snapshot jpeg = camera.getLatestFrame().get(
+				System.nanoTime());
+
+		response.setHeader("Server", "Camd");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setHeader("ETag", jpeg.getETag());
+
+		String match = request.getHeader("If-None-Match");
+
+		if ((match != null) && (match.indexOf(jpeg.getETag()) >= 0)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+			return;
+		}
+
+		response.setContentType(CONTENT_TYPE);
+		response.setContentLength(jpeg.getLength());
+
+		OutputStream out = response.getOutputStream();
+		jpeg.writeTo(out);
+		out.close();
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class CameraRegistryTest extends TestCase {
+	public CameraRegistryTest(String name) {
+		super(name);
+	}
+
+	public void testModels() {
+		Camera camera = new Camera();
+		camera.setModel("2130");
+		assertEquals("2130", camera.getProperties().getProperty(
+				"root.BRAND.PRODNBR"));
+
+		// without a bundle of its own
+		camera.setModel("207MW");
+		assertEquals("AXIS 207MW Network Camera", camera.getProperties()
+				.getProperty("root.BRAND.PRODFULLNAME"));
+		assertNotNull(camera.getProperties().getProperty("root.Image.Resolution"));
+
+		// changes stay with the camera
+		camera.setProperty("root.BRAND.PRODNBR", "0");
+		assertEquals("0", camera.getProperty("root.BRAND.PRODNBR"));
+		assertEquals("207MW", Camera.getModelDefaults("207MW").get(
+				"root.BRAND.PRODNBR"));
+
+		try {
+			camera.setModel("9999");
+			fail("unknown model");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	public void testProfiles() {
+		Camera camera = new Camera();
+		camera.setFps(10);
+		camera.setMjpegFile("/content/default.mjpeg");
+		camera.setModel("2120");
+
+		Properties profiles = new Properties();
+		profiles.setProperty("lobby", "207M,,25,500");
+		profiles.setProperty("dock", ",/content/dock.mjpeg,,,8081");
+
+		CameraRegistry registry = new CameraRegistry(camera);
+		registry.setProfiles(profiles);
+		registry.setFleetSize(3);
+		registry.setFleetModels("205,2100");
+		registry.setFleetOffset(100);
+		registry.init();
+
+		assertEquals(6, registry.getCameras().size());
+		assertSame(camera, registry.getCameras().get(0));
+
+		Camera lobby = registry.getCamera("lobby");
+		assertEquals("207M", lobby.getModel());
+		assertEquals(25, lobby.getFps());
+		assertEquals(500, lobby.getStartOffset());
+		assertEquals("/content/default.mjpeg", lobby.getMjpegFile());
+
+		Camera dock = registry.getCamera("dock");
+		assertEquals("2120", dock.getModel());
+		assertEquals("/content/dock.mjpeg", dock.getMjpegFile());
+		assertEquals(8081, dock.getStreamPort());
+
+		assertEquals("205", registry.getCamera("3").getModel());
+		assertEquals(200, registry.getCamera("3").getStartOffset());
+
+		assertSame(lobby, registry.getCameraForPath("/cam/lobby/axis-cgi/mjpg/video.cgi"));
+		assertSame(camera, registry.getCameraForPath("/axis-cgi/mjpg/video.cgi"));
+		assertNull(registry.getCameraForPath("/cam/none/axis-cgi/mjpg/video.cgi"));
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import net.sf.jipcam.axis.MjpegFrame;
+
+public class FaultProfileTest extends TestCase {
+	public FaultProfileTest(String name) {
+		super(name);
+	}
+
+	public void testParse() {
+		assertTrue(FaultProfile.parse(null).isNone());
+		assertTrue(FaultProfile.parse("req_fps=10").isNone());
+
+		FaultProfile profile = FaultProfile
+				.parse("bandwidth=32000;stall=5000/800;truncate=0.5;seed=7");
+		assertTrue(profile.isShaped());
+		assertTrue(profile.isFrameFaulty());
+		assertEquals(32000, profile.getBandwidth());
+		assertEquals(3200, profile.getBurst());
+		assertEquals(5000, profile.getStallEvery());
+		assertEquals(800, profile.getStallFor());
+		assertEquals(0.5, profile.getTruncate(), 0);
+		assertEquals(7, profile.getSeed());
+
+		// a request overrides the camera's settings
+		FaultProfile merged = profile.merge("req_fps=10&bandwidth=0&nolength=1");
+		assertEquals(0, merged.getBandwidth());
+		assertEquals(1.0, merged.getNoLength(), 0);
+		assertEquals(5000, merged.getStallEvery());
+		assertEquals(32000, profile.getBandwidth());
+
+		try {
+			FaultProfile.parse("stall=5000");
+			fail("stall without a length");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+
+		try {
+			FaultProfile.parse("stall=1000/1000");
+			fail("stall that never ends");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+
+		try {
+			profile.merge("stall=500/2000");
+			fail("stall longer than its period");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	public void testShape() throws Exception {
+		byte[] jpeg = new byte[1000];
+		jpeg[0] = (byte) 0xFF;
+		jpeg[1] = (byte) 0xD8;
+		jpeg[998] = (byte) 0xFF;
+		jpeg[999] = (byte) 0xD9;
+		MjpegFrame frame = new MjpegFrame(jpeg, 0);
+
+		FaultInjector none = new FaultInjector(FaultProfile.parse("seed=1"));
+		assertEquals(frame.getLength(), none.shape(frame).remaining());
+		assertEquals(-1, none.getResetPosition());
+		assertEquals(Long.MAX_VALUE, none.getAllowance(System.nanoTime()));
+
+		FaultInjector truncate = new FaultInjector(FaultProfile
+				.parse("truncate=1;seed=1"));
+		ByteBuffer shaped = truncate.shape(frame);
+		String text = new String(shaped.array(), 0, shaped.remaining(),
+				"ISO-8859-1");
+		int body = text.indexOf("\r\n\r\n", 4) + 4;
+		int length = Integer.parseInt(text.substring(
+				text.indexOf("Content-Length: ") + 16,
+				text.indexOf("\r\n", text.indexOf("Content-Length: "))));
+		assertEquals(shaped.remaining() - body, length);
+		assertTrue(length < jpeg.length);
+		assertEquals((byte) 0xD8, shaped.get(body + 1));
+		assertEquals(1, truncate.getFaultCount());
+
+		// the bucket starts full, and refills at the bandwidth
+		FaultInjector shaper = new FaultInjector(FaultProfile
+				.parse("bandwidth=1000;burst=500"));
+		long now = System.nanoTime();
+		assertEquals(500, shaper.getAllowance(now));
+		shaper.consume(500);
+		assertEquals(0, shaper.getAllowance(now));
+		assertTrue(shaper.getResumeTime(now) > now);
+		assertEquals(100, shaper.getAllowance(now + 100000000L));
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class FramePacerTest extends TestCase {
+	private static final long MILLIS = 1000000L; // in nanoseconds
+
+	private File mjpeg;
+
+	public FramePacerTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Write three frames recorded 10, 20 and 30 ms after the one before.
+	 */
+	protected void setUp() throws Exception {
+		mjpeg = File.createTempFile("pacer", ".mjpeg");
+		mjpeg.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(mjpeg);
+		writeFrame(out, 10);
+		writeFrame(out, 20);
+		writeFrame(out, 30);
+		out.close();
+	}
+
+	protected void tearDown() throws Exception {
+		mjpeg.delete();
+	}
+
+	/**
+	 * Deadlines at 30 fps don't drift from the 33.3 ms period.
+	 */
+	public void testFixedRate() throws Exception {
+		FramePacer pacer = new FramePacer(new FrameTimeline(mjpeg, 10), 30);
+		long origin = pacer.getDeadline();
+
+		for (int i = 0; i < 300; i++) {
+			pacer.next(pacer.getDeadline());
+		}
+
+		assertEquals(origin + (10000 * MILLIS), pacer.getDeadline());
+		assertEquals(0, pacer.getSkippedCount());
+
+		// a second late, so 30 deadlines were missed
+		pacer.next(pacer.getDeadline() + (1000 * MILLIS));
+		assertEquals(origin + (11033333333L), pacer.getDeadline());
+		assertEquals(30, pacer.getSkippedCount());
+	}
+
+	/**
+	 * Without a rate, frames are sent with their recorded Delta-time.
+	 */
+	public void testRecordedTiming() throws Exception {
+		FrameTimeline timeline = new FrameTimeline(mjpeg, 10);
+		assertEquals(60 * MILLIS, timeline.getDuration());
+
+		FramePacer pacer = new FramePacer(timeline, 0);
+		long now = pacer.getDeadline();
+		int index = pacer.next(now);
+
+		for (int i = 0; i < 6; i++) {
+			now = pacer.getDeadline();
+
+			int next = pacer.next(now);
+			long gap = pacer.getDeadline() - now;
+
+			// frame 0 is live until frame 1, 20 ms later, and so on
+			assertEquals((index + 1) % 3, next);
+			assertEquals(new long[] { 20, 30, 10 }[next] * MILLIS, gap);
+			index = next;
+		}
+	}
+
+	private static void writeFrame(FileOutputStream out, int deltaTime)
+			throws IOException {
+		byte[] jpeg = new byte[] { (byte) 0xFF, (byte) 0xD8, 0, 0, (byte) 0xFF,
+				(byte) 0xD9 };
+		String header = "\r\n\r\n--myboundary\r\nContent-Type: image/jpeg\r\n"
+				+ "Content-Length: " + jpeg.length + "\r\nDelta-time: "
+				+ deltaTime + "\r\n\r\n";
+
+		out.write(header.getBytes("ISO-8859-1"));
+		out.write(jpeg);
+	}
+}
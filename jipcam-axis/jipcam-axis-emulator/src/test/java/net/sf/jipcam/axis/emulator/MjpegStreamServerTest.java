@@ -0,0 +1,461 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+import net.sf.jipcam.axis.CameraAPI;
+import net.sf.jipcam.axis.MjpegFrame;
+import net.sf.jipcam.axis.MjpegInputStream;
+
+public class MjpegStreamServerTest extends TestCase {
+	private static final int FRAMES = 5;
+
+	private static final int LENGTH = 20000;
+
+	private File mjpeg;
+
+	private MjpegStreamServer server;
+
+	public MjpegStreamServerTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Write a small MJPEG file, and stream it at 50 fps.
+	 */
+	protected void setUp() throws Exception {
+		mjpeg = File.createTempFile("emulator", ".mjpeg");
+		mjpeg.deleteOnExit();
+		writeMjpeg(mjpeg, FRAMES, LENGTH);
+
+		Camera camera = new Camera();
+		camera.setFps(50);
+		camera.setMjpeg(mjpeg);
+
+		server = new MjpegStreamServer(camera, 0);
+		server.start();
+	}
+
+	protected void tearDown() throws Exception {
+		server.stop();
+		mjpeg.delete();
+	}
+
+	public void testStream() throws Exception {
+		Socket socket = request("/axis-cgi/mjpg/video.cgi?req_fps=25");
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+
+		MjpegInputStream frames = new MjpegInputStream(in);
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < 10; i++) {
+			MjpegFrame frame = frames.readMjpegFrame();
+			assertEquals(LENGTH + 4, frame.getJpegBytes().length);
+		}
+
+		// 10 frames at 25 fps
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("too fast: " + elapsed, elapsed >= 300);
+		assertEquals(1, server.getClientCount());
+
+		socket.close();
+	}
+
+	public void testSendfile() throws Exception {
+		Camera camera = new Camera();
+		camera.setFps(50);
+		camera.setMjpeg(mjpeg);
+		camera.setSendfile(true);
+
+		MjpegStreamServer sendfile = new MjpegStreamServer(camera, 0);
+		sendfile.start();
+
+		try {
+			assertTrue(camera.getTimeline().isSendfile());
+
+			Socket socket = request(sendfile, "/axis-cgi/mjpg/video.cgi");
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+
+			MjpegInputStream frames = new MjpegInputStream(in);
+
+			for (int i = 0; i < 10; i++) {
+				byte[] jpeg = frames.readMjpegFrame().getJpegBytes();
+				assertEquals(LENGTH + 4, jpeg.length);
+				assertEquals((byte) 0xD9, jpeg[LENGTH + 3]);
+			}
+
+			socket.close();
+		} finally {
+			sendfile.stop();
+			camera.closeTimeline();
+		}
+	}
+
+	/**
+	 * Cameras of a registry are streamed by path, and on ports of their own.
+	 */
+	public void testCameraRoutes() throws Exception {
+		Camera camera = new Camera();
+		camera.setFps(50);
+		camera.setMjpeg(mjpeg);
+
+		CameraRegistry registry = new CameraRegistry(camera);
+		registry.setFleetSize(2);
+		registry.setFleetOffset(20);
+		registry.init();
+		registry.load();
+
+		// the fleet shares the default camera's frames
+		assertSame(camera.getTimeline(), registry.getCamera("2").getTimeline());
+
+		MjpegStreamServer fleet = new MjpegStreamServer(registry, 0);
+		fleet.start();
+
+		try {
+			Socket socket = request(fleet, "/cam/2/axis-cgi/mjpg/video.cgi");
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+			assertEquals(LENGTH + 4, new MjpegInputStream(in).readMjpegFrame()
+					.getJpegBytes().length);
+			socket.close();
+
+			socket = request(fleet, "/cam/3/axis-cgi/mjpg/video.cgi");
+			in = new DataInputStream(socket.getInputStream());
+			assertEquals("HTTP/1.0 404 Not Found", readResponseHeader(in));
+			socket.close();
+		} finally {
+			fleet.stop();
+		}
+	}
+
+	/**
+	 * A snapshot is the live JPEG, and is answered 304 for its ETag.
+	 */
+	public void testSnapshot() throws Exception {
+		Camera camera = new Camera();
+		camera.setFps(1); // each frame is live for a second
+		camera.setMjpeg(mjpeg);
+
+		camera.getTimeline(); // start the clock
+
+		LatestFrame latest = camera.getLatestFrame();
+		long now = System.nanoTime();
+		assertSame(latest.get(now), latest.get(now));
+		assertEquals(latest.get(now).getSequence() + 1, latest.get(
+				now + 1000000000L).getSequence());
+
+		MjpegStreamServer snapshots = new MjpegStreamServer(camera, 0);
+		snapshots.start();
+
+		try {
+			Socket socket = request(snapshots, "/jpg/1/image.jpg");
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			String header = readHeader(in);
+			assertTrue(header.startsWith("HTTP/1.0 200 OK"));
+
+			byte[] jpeg = new byte[LENGTH + 4];
+			in.readFully(jpeg);
+			assertEquals((byte) 0xD8, jpeg[1]);
+			assertEquals((byte) 0xD9, jpeg[LENGTH + 3]);
+			assertEquals(-1, in.read());
+			socket.close();
+
+			String etag = header.substring(header.indexOf("ETag: ") + 6);
+			etag = etag.substring(0, etag.indexOf("\r\n"));
+
+			socket = request(snapshots, "/jpg/1/image.jpg", "If-None-Match: "
+					+ etag + "\r\n");
+			in = new DataInputStream(socket.getInputStream());
+			header = readHeader(in);
+
+			// unless the frame changed in between
+			assertTrue(header, header.startsWith("HTTP/1.0 304 Not Modified")
+					|| (header.indexOf(etag) < 0));
+			socket.close();
+		} finally {
+			snapshots.stop();
+		}
+	}
+
+	/**
+	 * A camera's port answers getparam.cgi and setparam.cgi, as its servlets
+	 * do, so a CameraAPI can use it.
+	 */
+	public void testParams() throws Exception {
+		Camera camera = new Camera();
+		camera.setModel("2120");
+		camera.setFps(50);
+		camera.setMjpeg(mjpeg);
+
+		MjpegStreamServer params = new MjpegStreamServer(camera, 0);
+		params.start();
+
+		try {
+			CameraAPI api = new CameraAPI(new URL("http://localhost:"
+					+ params.getPort()));
+			Properties image = api.getProperties("root.Image");
+			assertEquals("352x240", image.getProperty(Camera.RESOLUTION));
+			assertNull(image.getProperty("root.Layout.OwnTextColor"));
+
+			Map changes = new LinkedHashMap();
+			changes.put(Camera.RESOLUTION, "20000x20000");
+			changes.put("root.Image.Text", "lobby 1");
+			Map errors = api.setProperties(changes);
+			assertEquals(1, errors.size());
+			assertTrue(errors.containsKey(Camera.RESOLUTION));
+			assertEquals("lobby 1", camera.getProperty("root.Image.Text"));
+
+			api.getPropertyCache().invalidate();
+			assertEquals("lobby 1", api.getProperty("root.Image.Text"));
+			assertEquals("352x240", api.getProperty(Camera.RESOLUTION));
+		} finally {
+			params.stop();
+		}
+	}
+
+	/**
+	 * A port in use fails the start, and the server can start on another.
+	 */
+	public void testPortInUse() throws Exception {
+		Camera camera = new Camera();
+		camera.setFps(50);
+		camera.setMjpeg(mjpeg);
+
+		MjpegStreamServer taken = new MjpegStreamServer(camera, server
+				.getPort());
+
+		try {
+			taken.start();
+			fail("started on a port in use");
+		} catch (IOException ioe) {
+			// expected
+		}
+
+		taken.stop();
+
+		MjpegStreamServer other = new MjpegStreamServer(camera, 0);
+		other.start();
+
+		try {
+			Socket socket = request(other, "/jpg/1/image.jpg");
+			assertTrue(readHeader(socket.getInputStream()).startsWith(
+					"HTTP/1.0 200 OK"));
+			socket.close();
+		} finally {
+			other.stop();
+		}
+	}
+
+	public void testNotFound() throws Exception {
+		Socket socket = request("/axis-cgi/nothing.cgi");
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 404 Not Found", readResponseHeader(in));
+		assertEquals(-1, in.read());
+		socket.close();
+	}
+
+	/**
+	 * A malformed request is refused, and the server goes on streaming.
+	 */
+	public void testBadRequest() throws Exception {
+		Socket socket = new Socket("localhost", server.getPort());
+		OutputStream out = socket.getOutputStream();
+		out.write("\r\n\r\n".getBytes("ISO-8859-1"));
+		out.flush();
+
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 400 Bad Request", readResponseHeader(in));
+		assertEquals(-1, in.read());
+		socket.close();
+
+		socket = request("/axis-cgi/mjpg/video.cgi");
+		in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+		assertEquals(LENGTH + 4, new MjpegInputStream(in).readMjpegFrame()
+				.getJpegBytes().length);
+		socket.close();
+	}
+
+	/**
+	 * A client that doesn't read drops frames, and doesn't slow the others.
+	 */
+	public void testSlowClient() throws Exception {
+		Socket slow = request("/axis-cgi/mjpg/video.cgi");
+		Socket fast = request("/axis-cgi/mjpg/video.cgi");
+		DataInputStream in = new DataInputStream(fast.getInputStream());
+		readResponseHeader(in);
+
+		MjpegInputStream frames = new MjpegInputStream(in);
+
+		for (int i = 0; i < 50; i++) {
+			frames.readMjpegFrame();
+		}
+
+		assertTrue(server.getDroppedCount() > 0);
+		assertEquals(2, server.getClientCount());
+
+		slow.close();
+		fast.close();
+	}
+
+	/**
+	 * A throttled client gets whole frames, no faster than its bandwidth.
+	 */
+	public void testBandwidth() throws Exception {
+		Socket socket = request("/axis-cgi/mjpg/video.cgi?bandwidth=200000");
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+
+		MjpegInputStream frames = new MjpegInputStream(in);
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < 10; i++) {
+			byte[] jpeg = frames.readMjpegFrame().getJpegBytes();
+			assertEquals(LENGTH + 4, jpeg.length);
+			assertEquals((byte) 0xD9, jpeg[LENGTH + 3]);
+		}
+
+		// 200 KB at 200 KB/s, less the first burst
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("too fast: " + elapsed, elapsed >= 800);
+		assertTrue(server.getDroppedCount() > 0);
+
+		socket.close();
+	}
+
+	public void testFaults() throws Exception {
+		Socket socket = request("/axis-cgi/mjpg/video.cgi?nolength=1&corrupt=1");
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+
+		assertEquals("\r\n\r\n", readHeader(in)); // before the boundary
+		String header = readHeader(in);
+		assertTrue(header.indexOf("Content-Type: image/jpeg") >= 0);
+		assertTrue(header.indexOf("Content-Length") < 0);
+		assertTrue(header.indexOf("--myboundary") < 0);
+		socket.close();
+
+		socket = request("/axis-cgi/mjpg/video.cgi?reset=1&seed=7");
+		in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 200 OK", readResponseHeader(in));
+
+		int count = 0;
+
+		try {
+			while (in.read() >= 0) {
+				count++;
+			}
+		} catch (IOException ioe) {
+			// reset
+		}
+
+		assertTrue("frame not cut: " + count, count < LENGTH);
+		socket.close();
+
+		socket = request("/axis-cgi/mjpg/video.cgi?stall=bad");
+		in = new DataInputStream(socket.getInputStream());
+		assertEquals("HTTP/1.0 400 Bad Request", readResponseHeader(in));
+		socket.close();
+	}
+
+	private Socket request(String uri) throws IOException {
+		return request(server, uri);
+	}
+
+	private static Socket request(MjpegStreamServer server, String uri)
+			throws IOException {
+		return request(server, uri, "");
+	}
+
+	private static Socket request(MjpegStreamServer server, String uri,
+			String headers) throws IOException {
+		Socket socket = new Socket();
+		socket.setReceiveBufferSize(4096);
+		socket.connect(new InetSocketAddress("localhost", server.getPort()));
+
+		OutputStream out = socket.getOutputStream();
+		out.write(("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n"
+				+ headers + "\r\n").getBytes("ISO-8859-1"));
+		out.flush();
+
+		return socket;
+	}
+
+	/**
+	 * Read the response header.
+	 *
+	 * @return the status line
+	 */
+	private static String readResponseHeader(InputStream in)
+			throws IOException {
+		String header = readHeader(in);
+
+		return header.substring(0, header.indexOf("\r\n"));
+	}
+
+	/**
+	 * Read the whole response header.
+	 */
+	private static String readHeader(InputStream in) throws IOException {
+		StringBuffer header = new StringBuffer();
+
+		while (!header.toString().endsWith("\r\n\r\n")) {
+			int b = in.read();
+			assertTrue("end of response header", b >= 0);
+			header.append((char) b);
+		}
+
+		return header.toString();
+	}
+
+	private static void writeMjpeg(File file, int count, int length)
+			throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+
+		for (int i = 0; i < count; i++) {
+			byte[] jpeg = new byte[length + 4];
+			jpeg[0] = (byte) 0xFF;
+			jpeg[1] = (byte) 0xD8;
+			jpeg[2 + i] = (byte) i;
+			jpeg[length + 2] = (byte) 0xFF;
+			jpeg[length + 3] = (byte) 0xD9;
+
+			MjpegFrame frame = new MjpegFrame(jpeg, i);
+			out.write(frame.getBytes(), 0, frame.getLength());
+		}
+
+		out.close();
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class ParamIndexTest extends TestCase {
+	public ParamIndexTest(String name) {
+		super(name);
+	}
+
+	public void testPrefixes() throws Exception {
+		Camera camera = new Camera();
+		camera.setModel("2120");
+
+		ParamIndex index = camera.getParamIndex();
+		assertTrue(index.getProperties("root.Image.").size() > 0);
+		assertEquals(0, index.getProperties("root.Nothing").size());
+
+		Properties image = load(index.getResponse(Arrays.asList(new String[] {
+				"root.Image.", "root.BRAND.PRODNBR" })));
+		assertEquals("2120", image.getProperty("root.BRAND.PRODNBR"));
+		assertEquals(index.getProperty("root.Image.Resolution"), image
+				.getProperty("root.Image.Resolution"));
+		assertNull(image.getProperty("root.BRAND.BRAND"));
+
+		Properties all = load(index.getResponse(Collections.EMPTY_LIST));
+		assertEquals(index.size(), all.size());
+	}
+
+	/**
+	 * Queries for the same properties share one encoded response, until the
+	 * properties change.
+	 */
+	public void testResponses() throws Exception {
+		Camera camera = new Camera();
+		camera.setModel("2130");
+
+		byte[] response = camera.getParamIndex().getResponse(
+				Arrays.asList(new String[] { "root.Image", "root.BRAND" }));
+		assertSame(response, camera.getParamIndex().getResponse(
+				Arrays.asList(new String[] { "root.BRAND", "root.Image",
+						"root.BRAND.PRODNBR" })));
+
+		camera.setProperty("root.BRAND.PRODNBR", "2130R");
+		byte[] changed = camera.getParamIndex().getResponse(
+				Arrays.asList(new String[] { "root.Image", "root.BRAND" }));
+		assertNotSame(response, changed);
+		assertEquals("2130R", load(changed).getProperty("root.BRAND.PRODNBR"));
+	}
+
+	private static Properties load(byte[] response) throws Exception {
+		Properties properties = new Properties();
+		properties.load(new ByteArrayInputStream(response));
+
+		return properties;
+	}
+}
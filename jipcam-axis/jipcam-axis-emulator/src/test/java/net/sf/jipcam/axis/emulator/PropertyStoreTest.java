@@ -0,0 +1,140 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2006 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.emulator;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+import net.sf.jipcam.axis.MjpegFrame;
+
+public class PropertyStoreTest extends TestCase {
+	public PropertyStoreTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * A snapshot doesn't change when the store does.
+	 */
+	public void testSnapshots() {
+		PropertyStore store = new PropertyStore(Camera.getModelDefaults("2120"));
+		ParamIndex before = store.getSnapshot();
+
+		Map changes = new HashMap();
+		changes.put("root.Image.Resolution", "176x120");
+		changes.put("root.Image.Compression", "high");
+		assertEquals(1, store.setProperties(changes));
+
+		assertEquals("352x240", before.getProperty("root.Image.Resolution"));
+		assertEquals("176x120", store.getProperty("root.Image.Resolution"));
+		assertEquals("high", store.getProperty("root.Image.Compression"));
+		assertEquals(before.size(), store.getSnapshot().size());
+		assertEquals(2, store.getSnapshot().getChanges().size());
+
+		assertEquals(2, store.setProperty("root.Image.Compression", "low"));
+		assertEquals("176x120", store.getProperty("root.Image.Resolution"));
+
+		store.setDefaults(Camera.getModelDefaults("2130"));
+		assertEquals(3, store.getVersion());
+		assertTrue(store.getSnapshot().getChanges().isEmpty());
+	}
+
+	/**
+	 * Changes to the resolution and stream rate change what is streamed.
+	 */
+	public void testStreamSettings() throws Exception {
+		File mjpeg = File.createTempFile("emulator", ".mjpeg");
+		mjpeg.deleteOnExit();
+
+		try {
+			FileOutputStream out = new FileOutputStream(mjpeg);
+
+			for (int i = 0; i < 3; i++) {
+				ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+				ImageIO.write(new BufferedImage(64, 48,
+						BufferedImage.TYPE_INT_RGB), "jpg", jpeg);
+
+				MjpegFrame frame = new MjpegFrame(jpeg.toByteArray(), i);
+				out.write(frame.getBytes(), 0, frame.getLength());
+			}
+
+			out.close();
+
+			Camera camera = new Camera();
+			camera.setModel("207");
+			camera.setFps(10);
+			camera.setMjpeg(mjpeg);
+
+			FrameTimeline recorded = camera.getTimeline();
+			assertEquals(new Dimension(64, 48), recorded.getSize());
+			assertEquals(0, camera.createPacer(0).getFps());
+
+			Map changes = new HashMap();
+			changes.put(Camera.RESOLUTION, "32x24");
+			changes.put(Camera.STREAM_FPS, "5");
+			camera.changeProperties(changes);
+
+			FrameTimeline scaled = camera.getTimeline();
+			assertEquals(new Dimension(32, 24), scaled.getSize());
+			assertEquals(recorded.getFrameCount(), scaled.getFrameCount());
+			assertSame(scaled, camera.getTimeline());
+			assertEquals(5, camera.createPacer(0).getFps());
+			assertEquals(25, camera.createPacer(25).getFps());
+
+			// back to the recorded size
+			camera.changeProperties(Collections.singletonMap(
+					Camera.RESOLUTION, "64x48"));
+			assertSame(recorded, camera.getTimeline());
+
+			// too large to scale to
+			assertTrue(camera.isValid(Camera.RESOLUTION, "1280x1024"));
+			assertFalse(camera.isValid(Camera.RESOLUTION, "20000x20000"));
+			assertTrue(camera.isValid(Camera.STREAM_FPS, "20000"));
+
+			try {
+				camera.changeProperties(Collections.singletonMap(
+						Camera.RESOLUTION, "20000x20000"));
+				fail("scaled to 20000x20000");
+			} catch (IllegalArgumentException iae) {
+				// expected
+			}
+
+			assertEquals("64x48", camera.getProperty(Camera.RESOLUTION));
+			assertSame(recorded, camera.getTimeline());
+
+			// only the last few sizes are kept scaled
+			for (int i = 1; i <= 4; i++) {
+				recorded.getScaled(new Dimension(i, i));
+			}
+
+			assertNotSame(scaled, recorded.getScaled(new Dimension(32, 24)));
+		} finally {
+			mjpeg.delete();
+		}
+	}
+}
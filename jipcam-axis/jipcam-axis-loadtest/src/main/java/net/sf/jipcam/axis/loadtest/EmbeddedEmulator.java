@@ -0,0 +1,100 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.loadtest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.mortbay.thread.QueuedThreadPool;
+
+
+/**
+ * The emulator webapp in an embedded Jetty on a free port of localhost, as
+ * deployed by the maven-jetty-plugin, at /axis-cgi.
+ *
+ * Every MJPEG stream of the emulator holds a container thread, so the thread
+ * pool is sized for the streams the load test opens.
+ *
+ * @author Jason Thrasher
+ */
+public class EmbeddedEmulator {
+	/**
+	 * Context path of the emulator, which CameraAPI expects.
+	 */
+	public static final String CONTEXT_PATH = "/axis-cgi";
+
+	private static final int SPARE_THREADS = 16; //for acceptors and requests
+
+	private String mWar;
+	private int mStreams;
+	private Server mServer;
+
+	/**
+	 * @param war the emulator war, or its exploded directory
+	 * @param streams count of streams to be served at once
+	 */
+	public EmbeddedEmulator(String war, int streams) {
+		mWar = war;
+		mStreams = streams;
+	}
+
+	/**
+	 * Start Jetty, and deploy the emulator.
+	 *
+	 * @throws Exception if Jetty can't start, or the emulator doesn't deploy
+	 */
+	public void start() throws Exception {
+		mServer = new Server(0);
+
+		QueuedThreadPool pool = new QueuedThreadPool();
+		pool.setMaxThreads(mStreams + SPARE_THREADS);
+		pool.setDaemon(true);
+		mServer.setThreadPool(pool);
+
+		WebAppContext context = new WebAppContext(mWar, CONTEXT_PATH);
+		mServer.setHandler(context);
+		mServer.start();
+
+		if (!context.isAvailable()) {
+			stop();
+			throw new IllegalStateException("emulator failed to deploy: " + mWar);
+		}
+	}
+
+	/**
+	 * @return the URL of the camera, as given to CameraAPI
+	 */
+	public URL getUrl() throws MalformedURLException {
+		return new URL("http", "localhost",
+				mServer.getConnectors()[0].getLocalPort(), "/");
+	}
+
+	/**
+	 * Stop Jetty.
+	 */
+	public void stop() throws Exception {
+		if (mServer != null) {
+			mServer.stop();
+			mServer = null;
+		}
+	}
+}
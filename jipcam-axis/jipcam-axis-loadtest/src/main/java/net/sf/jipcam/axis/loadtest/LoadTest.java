@@ -0,0 +1,417 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.jipcam.axis.CameraAPI;
+import net.sf.jipcam.axis.CameraConnections;
+import net.sf.jipcam.axis.MjpegFrameParser;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+
+/**
+ * End to end load test: many CameraAPI.getMjpegCgi() streams from one
+ * emulator, each parsed by a MjpegFrameParser, on one machine.
+ *
+ * The emulator runs in an EmbeddedEmulator, or is given by its URL.  Each
+ * stream has a CameraAPI of its own, as each camera would, with pools of
+ * connections that allow every stream to the one emulator.  After a warm up,
+ * the test measures for a while, and reports:
+ * <ul>
+ * <li>frames and bytes per second, over all streams</li>
+ * <li>percentiles of the time between frames, over all streams, and the
+ * worst stream's 99th percentile</li>
+ * <li>CPU used by the process, and by the parser threads alone, in cores</li>
+ * <li>bytes allocated per second by every thread</li>
+ * <li>cameras per core: streams over the cores the process used</li>
+ * </ul>
+ * The emulator and the clients share the JVM, so the cores per camera count
+ * both ends of each stream, as a build would be compared from run to run.
+ *
+ * The test exits with 1 if any stream stopped sending frames, so a CI build
+ * fails when the emulator can't keep up.
+ *
+ * @author Jason Thrasher
+ */
+public class LoadTest {
+	private static final String DEFAULT_WAR = "target/emulator.war";
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final double MEGABYTE = 1024 * 1024;
+
+	private URL mUrl;
+	private int mCameras;
+	private int mFps;
+	private CameraConnections mConnections = new CameraConnections();
+	private List mParsers = new ArrayList();
+	private List mStats = new ArrayList();
+	private List mParserThreads = new ArrayList();
+	private ExecutorService mExecutor;
+
+	/**
+	 * @param url of the emulator
+	 * @param cameras count of streams
+	 * @param fps asked of each stream, or 0 for the camera's rate
+	 */
+	public LoadTest(URL url, int cameras, int fps) {
+		mUrl = url;
+		mCameras = cameras;
+		mFps = fps;
+		mConnections.setMaxStreamsPerHost(cameras);
+		mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, MjpegFrameParser.class.getName());
+				thread.setDaemon(true);
+
+				synchronized (mParserThreads) {
+					mParserThreads.add(thread);
+				}
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Open every stream, and start parsing it.
+	 *
+	 * @throws IOException if a stream can't be opened
+	 */
+	public void open() throws IOException {
+		for (int i = 0; i < mCameras; i++) {
+			CameraAPI api = new CameraAPI(mUrl, mConnections);
+			InputStream in = api.getMjpegCgi(0, 0, 0, -1, -1, false, false,
+					false, false, -1, true, -1, -1, mFps, true, false, -1);
+
+			StreamStats stats = new StreamStats(i);
+			mStats.add(stats);
+
+			MjpegFrameParser parser = new MjpegFrameParser(in);
+			parser.setExecutor(mExecutor);
+			parser.addMjpegParserListener(stats);
+			mParsers.add(parser);
+			parser.start();
+		}
+	}
+
+	/**
+	 * Measure the streams for a while.
+	 *
+	 * @param seconds to measure for
+	 * @return the report
+	 */
+	public Report measure(int seconds) throws InterruptedException {
+		Usage before = new Usage();
+
+		for (int i = 0; i < mStats.size(); i++) {
+			((StreamStats) mStats.get(i)).start();
+		}
+
+		Thread.sleep(seconds * 1000L);
+
+		for (int i = 0; i < mStats.size(); i++) {
+			((StreamStats) mStats.get(i)).stop();
+		}
+
+		Usage after = new Usage();
+
+		return new Report(before, after);
+	}
+
+	/**
+	 * Stop parsing.  A parser blocked in a read ends with its stream, when
+	 * the emulator stops or the JVM exits.
+	 */
+	public void close() {
+		for (int i = 0; i < mParsers.size(); i++) {
+			((MjpegFrameParser) mParsers.get(i)).stop();
+		}
+
+		mExecutor.shutdown();
+	}
+
+	private long[] getParserThreadIds() {
+		synchronized (mParserThreads) {
+			long[] ids = new long[mParserThreads.size()];
+
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = ((Thread) mParserThreads.get(i)).getId();
+			}
+
+			return ids;
+		}
+	}
+
+	/**
+	 * CPU and allocation counters of the JVM at one time.  Counters the JVM
+	 * doesn't have are -1.
+	 */
+	private class Usage {
+		private long mTime = System.nanoTime();
+		private long mProcessCpu = -1;
+		private long mParserCpu = 0;
+		private Map mAllocated = new HashMap(); //thread id to bytes
+
+		Usage() {
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+			if (os instanceof com.sun.management.OperatingSystemMXBean) {
+				mProcessCpu = ((com.sun.management.OperatingSystemMXBean) os)
+						.getProcessCpuTime();
+			}
+
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			long[] parsers = getParserThreadIds();
+
+			for (int i = 0; i < parsers.length; i++) {
+				long cpu = threads.getThreadCpuTime(parsers[i]);
+
+				if (cpu > 0) {
+					mParserCpu += cpu;
+				}
+			}
+
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				long[] ids = threads.getAllThreadIds();
+				long[] bytes = ((com.sun.management.ThreadMXBean) threads)
+						.getThreadAllocatedBytes(ids);
+
+				for (int i = 0; i < ids.length; i++) {
+					if (bytes[i] >= 0) {
+						mAllocated.put(Long.valueOf(ids[i]), Long.valueOf(bytes[i]));
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return bytes allocated since an earlier time, by threads alive now
+		 */
+		long getAllocatedSince(Usage earlier) {
+			long total = 0;
+
+			for (Object o : mAllocated.entrySet()) {
+				Map.Entry entry = (Map.Entry) o;
+				Long before = (Long) earlier.mAllocated.get(entry.getKey());
+				total += ((Long) entry.getValue()).longValue()
+						- ((before == null) ? 0 : before.longValue());
+			}
+
+			return total;
+		}
+	}
+
+	/**
+	 * Results of a measurement.
+	 */
+	public class Report {
+		private double mSeconds;
+		private long mFrames = 0;
+		private long mBytes = 0;
+		private long[] mIntervals;
+		private long mWorstP99 = 0;
+		private int mStalledCount = 0;
+		private double mProcessCores;
+		private double mParserCores;
+		private double mAllocationRate;
+
+		Report(Usage before, Usage after) {
+			mSeconds = (double) (after.mTime - before.mTime) / NANOS_PER_SECOND;
+
+			List intervals = new ArrayList();
+			int count = 0;
+
+			for (int i = 0; i < mStats.size(); i++) {
+				StreamStats stats = (StreamStats) mStats.get(i);
+				long[] sorted = stats.getIntervals();
+
+				mFrames += stats.getFrameCount();
+				mBytes += stats.getByteCount();
+				mWorstP99 = Math.max(mWorstP99, StreamStats.percentile(sorted, 99));
+				intervals.add(sorted);
+				count += sorted.length;
+
+				if (stats.getFrameCount() == 0) {
+					mStalledCount++;
+				}
+			}
+
+			mIntervals = new long[count];
+			count = 0;
+
+			for (int i = 0; i < intervals.size(); i++) {
+				long[] sorted = (long[]) intervals.get(i);
+				System.arraycopy(sorted, 0, mIntervals, count, sorted.length);
+				count += sorted.length;
+			}
+
+			Arrays.sort(mIntervals);
+
+			double nanos = after.mTime - before.mTime;
+			mProcessCores = (before.mProcessCpu < 0) ? -1
+					: (after.mProcessCpu - before.mProcessCpu) / nanos;
+			mParserCores = (after.mParserCpu - before.mParserCpu) / nanos;
+			mAllocationRate = after.getAllocatedSince(before) / mSeconds;
+		}
+
+		/**
+		 * @return count of streams without a frame while measuring
+		 */
+		public int getStalledCount() {
+			return mStalledCount;
+		}
+
+		public String toString() {
+			StringBuffer report = new StringBuffer();
+			report.append("streams:              " + mCameras + "\n");
+			report.append("seconds:              " + format(mSeconds) + "\n");
+			report.append("frames/s:             " + format(mFrames / mSeconds)
+					+ " (" + format(mFrames / mSeconds / mCameras)
+					+ " per stream)\n");
+			report.append("MB/s:                 "
+					+ format(mBytes / mSeconds / MEGABYTE) + "\n");
+			report.append("frame interval ms:    p50 " + millis(StreamStats
+					.percentile(mIntervals, 50)) + ", p90 "
+					+ millis(StreamStats.percentile(mIntervals, 90)) + ", p99 "
+					+ millis(StreamStats.percentile(mIntervals, 99)) + ", max "
+					+ millis(StreamStats.percentile(mIntervals, 100)) + "\n");
+			report.append("worst stream p99 ms:  " + millis(mWorstP99) + "\n");
+			report.append("stalled streams:      " + mStalledCount + "\n");
+			report.append("CPU cores, process:   " + format(mProcessCores)
+					+ " of " + Runtime.getRuntime().availableProcessors()
+					+ "\n");
+			report.append("CPU cores, parsers:   " + format(mParserCores) + "\n");
+			report.append("allocation MB/s:      "
+					+ format(mAllocationRate / MEGABYTE) + "\n");
+			report.append("cameras per core:     "
+					+ ((mProcessCores > 0) ? format(mCameras / mProcessCores)
+							: "unknown") + "\n");
+
+			return report.toString();
+		}
+	}
+
+	private static String format(double value) {
+		return String.format("%.2f", new Object[] { Double.valueOf(value) });
+	}
+
+	private static String millis(long nanos) {
+		return format(nanos / 1000000.0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption(OptionBuilder.withArgName("n").withLongOpt(
+				"cameras").withDescription("concurrent streams").hasArg()
+				.create("c"));
+		options.addOption(OptionBuilder.withArgName("fps").withLongOpt("fps")
+				.withDescription("frames per second of each stream, 0 for the camera's rate")
+				.hasArg().create("f"));
+		options.addOption(OptionBuilder.withArgName("seconds").withLongOpt(
+				"warmup").withDescription("seconds to stream before measuring")
+				.hasArg().create("w"));
+		options.addOption(OptionBuilder.withArgName("seconds").withLongOpt(
+				"duration").withDescription("seconds to measure").hasArg()
+				.create("d"));
+		options.addOption(OptionBuilder.withArgName("file").withLongOpt("war")
+				.withDescription("emulator war to run embedded, by default "
+						+ DEFAULT_WAR).hasArg().create("a"));
+		options.addOption(OptionBuilder.withArgName("url").withLongOpt("url")
+				.withDescription("emulator already running, instead of the war")
+				.hasArg().create("u"));
+
+		CommandLine line;
+
+		try {
+			line = new BasicParser().parse(options, args);
+		} catch (ParseException pe) {
+			System.err.println(pe.getMessage());
+			new HelpFormatter().printHelp(LoadTest.class.getName(), options);
+			System.exit(2);
+
+			return;
+		}
+
+		int cameras = Integer.parseInt(line.getOptionValue("c", "16"));
+		int fps = Integer.parseInt(line.getOptionValue("f", "10"));
+		int warmup = Integer.parseInt(line.getOptionValue("w", "10"));
+		int duration = Integer.parseInt(line.getOptionValue("d", "30"));
+
+		EmbeddedEmulator emulator = null;
+		URL url;
+
+		if (line.hasOption("u")) {
+			url = new URL(line.getOptionValue("u"));
+		} else {
+			emulator = new EmbeddedEmulator(line.getOptionValue("a",
+					DEFAULT_WAR), cameras);
+			emulator.start();
+			url = emulator.getUrl();
+		}
+
+		LoadTest test = new LoadTest(url, cameras, fps);
+		int status = 0;
+
+		try {
+			System.out.println("streaming " + cameras + " cameras from " + url
+					+ ", warming up for " + warmup + " s");
+			test.open();
+			Thread.sleep(warmup * 1000L);
+
+			Report report = test.measure(duration);
+			System.out.print(report);
+
+			if (report.getStalledCount() > 0) {
+				status = 1;
+			}
+		} catch (Exception e) {
+			test.close();
+
+			if (emulator != null) {
+				emulator.stop();
+			}
+
+			throw e;
+		}
+
+		// the emulator and the streams end with the JVM
+		test.close();
+		System.exit(status);
+	}
+}
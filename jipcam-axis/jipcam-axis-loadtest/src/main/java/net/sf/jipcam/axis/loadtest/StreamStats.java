@@ -0,0 +1,132 @@
+/**
+ * jipCam : The Java IP Camera Project
+ * Copyright (C) 2005-2008 Jason Thrasher
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.sf.jipcam.axis.loadtest;
+
+import java.util.Arrays;
+
+import net.sf.jipcam.axis.MjpegParserEvent;
+import net.sf.jipcam.axis.MjpegParserListener;
+
+
+/**
+ * Frames, bytes, and the times between frames, of one stream.
+ *
+ * Frames are only counted between start() and stop(), so the warm up of a
+ * run isn't measured.  The times between frames are kept whole, in
+ * nanoseconds, to give exact percentiles; a stream of a few minutes at
+ * camera rates is a few thousand of them.
+ *
+ * @author Jason Thrasher
+ */
+public class StreamStats implements MjpegParserListener {
+	private int mId;
+	private boolean isRecording = false;
+	private long mFrameCount = 0;
+	private long mByteCount = 0;
+	private long mLastArrival = 0; //nanoTime of the last frame, or 0
+	private long[] mIntervals = new long[1024];
+	private int mIntervalCount = 0;
+
+	/**
+	 * @param id of the stream, for the report
+	 */
+	public StreamStats(int id) {
+		mId = id;
+	}
+
+	public synchronized void onMjpegParserEvent(MjpegParserEvent event) {
+		long now = System.nanoTime();
+
+		if (isRecording) {
+			mFrameCount++;
+			mByteCount += event.getMjpegFrame().getLength();
+
+			if (mLastArrival != 0) {
+				if (mIntervalCount == mIntervals.length) {
+					mIntervals = Arrays.copyOf(mIntervals, mIntervalCount * 2);
+				}
+
+				mIntervals[mIntervalCount++] = now - mLastArrival;
+			}
+		}
+
+		mLastArrival = now;
+	}
+
+	/**
+	 * Start counting frames.
+	 */
+	public synchronized void start() {
+		isRecording = true;
+	}
+
+	/**
+	 * Stop counting frames.
+	 */
+	public synchronized void stop() {
+		isRecording = false;
+	}
+
+	public int getId() {
+		return mId;
+	}
+
+	public synchronized long getFrameCount() {
+		return mFrameCount;
+	}
+
+	public synchronized long getByteCount() {
+		return mByteCount;
+	}
+
+	/**
+	 * @return nanoTime of the last frame, or 0 if there were none
+	 */
+	public synchronized long getLastArrival() {
+		return mLastArrival;
+	}
+
+	/**
+	 * @return the nanoseconds between frames, sorted
+	 */
+	public synchronized long[] getIntervals() {
+		long[] intervals = Arrays.copyOf(mIntervals, mIntervalCount);
+		Arrays.sort(intervals);
+
+		return intervals;
+	}
+
+	/**
+	 * Get a percentile of sorted values, by the nearest rank.
+	 *
+	 * @param sorted values
+	 * @param percent of the values at or below the one returned
+	 * @return the value, or 0 if there are none
+	 */
+	public static long percentile(long[] sorted, double percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+
+		int rank = (int) Math.ceil((percent / 100) * sorted.length);
+
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+}